@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2016 Seth J. Morabito <web@loomcom.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.codebje.benchmarks;
+
+import com.github.codebje.Bus;
+import com.github.codebje.devices.Memory;
+import com.github.codebje.exceptions.MemoryAccessException;
+import com.github.codebje.exceptions.MemoryRangeException;
+import com.github.codebje.machines.Veronica;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads and writes through the {@link Bus} of a Veronica machine, one page of each kind:
+ * RAM, ROM, and the VIA's I/O registers. Each call moves on to the next address in its
+ * page, so lookups cannot be hoisted out of the loop. Switching banks overlays one of two
+ * 16K banks of RAM on the other.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BusBenchmark {
+
+    private static final int RAM_PAGE = 0x0200;
+    private static final int ROM_PAGE = 0xf000;
+    private static final int VIA_BASE = 0xe000;
+
+    /* The VIA decodes sixteen registers */
+    private static final int VIA_REGISTERS = 16;
+
+    private static final int BANK_BASE = 0x4000;
+    private static final int BANK_TOP  = 0x7fff;
+
+    private Bus bus;
+    private int offset;
+    private Memory[] banks;
+
+    @Setup
+    public void setUp() throws MemoryRangeException, MemoryAccessException, IOException {
+        Veronica machine = new Veronica();
+        machine.setRom(new Memory(machine.getRomBase(), machine.getRomBase() + machine.getRomSize() - 1, true));
+        bus = machine.getBus();
+
+        banks = new Memory[] {new Memory(BANK_BASE, BANK_TOP), new Memory(BANK_BASE, BANK_TOP)};
+        for (Memory bank : banks) {
+            bus.addDevice(bank, 1);
+        }
+    }
+
+    private int next(int size) {
+        offset = (offset + 1) & (size - 1);
+        return offset;
+    }
+
+    @Benchmark
+    public int readRam() throws MemoryAccessException {
+        return bus.read(RAM_PAGE + next(256), true);
+    }
+
+    @Benchmark
+    public int readRom() throws MemoryAccessException {
+        return bus.read(ROM_PAGE + next(256), true);
+    }
+
+    @Benchmark
+    public int readIo() throws MemoryAccessException {
+        return bus.read(VIA_BASE + next(VIA_REGISTERS), true);
+    }
+
+    @Benchmark
+    public void writeRam() throws MemoryAccessException {
+        bus.write(RAM_PAGE + next(256), offset);
+    }
+
+    @Benchmark
+    public void writeIo() throws MemoryAccessException {
+        bus.write(VIA_BASE + next(VIA_REGISTERS), offset);
+    }
+
+    @Benchmark
+    public void switchBank() {
+        bus.overlay(banks[next(2)]);
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2016 Seth J. Morabito <web@loomcom.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.codebje.benchmarks;
+
+import com.github.codebje.Bus;
+import com.github.codebje.Cpu;
+import com.github.codebje.InstructionTable;
+import com.github.codebje.devices.Memory;
+import com.github.codebje.exceptions.MemoryAccessException;
+import com.github.codebje.exceptions.MemoryRangeException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Interpreting one instruction with {@link Cpu#step()}, for each family of addressing
+ * modes. Memory holds a long run of one instruction ending in a jump back to the start,
+ * so nearly every step executes the mode being measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CpuStepBenchmark {
+
+    private static final int PROGRAM_START = 0x0200;
+    private static final int PROGRAM_END   = 0x7000;
+    private static final int INDEX         = 0x21;
+
+    public enum Family {
+        IMPLIED(0xe8),                      // INX
+        IMMEDIATE(0xa9, 0x5a),              // LDA #$5A
+        ZERO_PAGE(0xa5, 0x10),              // LDA $10
+        ZERO_PAGE_INDEXED(0xb5, 0x10),      // LDA $10,X
+        ABSOLUTE(0xad, 0x00, 0x80),         // LDA $8000
+        ABSOLUTE_INDEXED(0xbd, 0xf0, 0x80), // LDA $80F0,X, crossing a page
+        INDIRECT_INDEXED(0xb1, 0x20),       // LDA ($20),Y, crossing a page
+        INDEXED_INDIRECT(0xa1, 0x20),       // LDA ($20,X)
+        RELATIVE(0x90, 0x00),               // BCC to the next instruction, always taken
+        READ_MODIFY_WRITE(0xe6, 0x10);      // INC $10
+
+        final int[] instruction;
+
+        Family(int... instruction) {
+            this.instruction = instruction;
+        }
+    }
+
+    @Param
+    public Family family;
+
+    @Param({"CMOS_6502", "NMOS_6502"})
+    public InstructionTable.CpuBehavior behavior;
+
+    private Cpu cpu;
+
+    @Setup
+    public void setUp() throws MemoryRangeException, MemoryAccessException {
+        cpu = new Cpu(behavior);
+        Bus bus = new Bus(0x0000, 0xffff);
+        bus.addCpu(cpu);
+        bus.addDevice(new Memory(0x0000, 0xffff));
+
+        int address = PROGRAM_START;
+        while (address + family.instruction.length < PROGRAM_END) {
+            for (int b : family.instruction) {
+                bus.write(address++, b);
+            }
+        }
+        bus.write(address++, 0x4c);     // JMP PROGRAM_START
+        bus.write(address++, PROGRAM_START & 0xff);
+        bus.write(address, PROGRAM_START >> 8);
+
+        // Both ($20) and ($20,X) point at $80F0
+        bus.write(0x20, 0xf0);
+        bus.write(0x21, 0x80);
+        bus.write(0x20 + INDEX, 0xf0);
+        bus.write(0x21 + INDEX, 0x80);
+
+        bus.write(0xfffc, PROGRAM_START & 0xff);
+        bus.write(0xfffd, PROGRAM_START >> 8);
+        cpu.reset();
+        cpu.setTurboMode(true);
+        cpu.setXRegister(INDEX);
+        cpu.setYRegister(INDEX);
+        cpu.clearCarryFlag();
+    }
+
+    @Benchmark
+    public int step() throws MemoryAccessException {
+        cpu.step();
+        return cpu.getAccumulator();
+    }
+}
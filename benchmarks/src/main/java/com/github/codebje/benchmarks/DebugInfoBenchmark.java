@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2016 Seth J. Morabito <web@loomcom.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.codebje.benchmarks;
+
+import com.github.codebje.cc65debug.DebugInfo;
+import com.github.codebje.cc65debug.ParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a CC65 debug file with {@link DebugInfo#loadDebugFile(File)}. The file is
+ * generated to look like a ROM that fills most of the address space: tens of thousands
+ * of source lines, each with a span of code, and a symbol for every few lines.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DebugInfoBenchmark {
+
+    private static final int FILES   = 16;
+    private static final int LINES   = 32768;
+    private static final int SYMBOLS = LINES / 4;
+
+    /* Where the code segment starts; line n's span is 1 + n % 2 bytes */
+    private static final int CODE_START = 0x1000;
+
+    private File debugFile;
+
+    @Setup
+    public void setUp() throws IOException {
+        debugFile = File.createTempFile("generated", ".dbg");
+
+        try (PrintWriter out = new PrintWriter(debugFile, "US-ASCII")) {
+            int codeSize = LINES / 2 * 3;
+
+            out.print("version\tmajor=2,minor=0\n");
+            out.printf("info\tcsym=0,file=%d,lib=0,line=%d,mod=%d,scope=%d,seg=1,span=%d,sym=%d,type=0\n",
+                       FILES, LINES, FILES, FILES, LINES, SYMBOLS);
+            for (int i = 0; i < FILES; i++) {
+                out.printf("file\tid=%d,name=\"module%d.asm\",size=%d,mtime=0x5D9C6CBA,mod=%d\n",
+                           i, i, LINES / FILES * 40, i);
+            }
+            for (int i = 0; i < FILES; i++) {
+                out.printf("mod\tid=%d,name=\"module%d.o\",file=%d\n", i, i, i);
+            }
+            out.printf("seg\tid=0,name=\"CODE\",start=0x%06X,size=0x%04X,addrsize=absolute,type=ro\n",
+                       CODE_START, codeSize);
+            for (int i = 0, offset = 0; i < LINES; i++) {
+                out.printf("line\tid=%d,file=%d,line=%d,span=%d\n", i, i % FILES, i / FILES + 1, i);
+                out.printf("span\tid=%d,seg=0,start=%d,size=%d\n", i, offset, 1 + i % 2);
+                offset += 1 + i % 2;
+            }
+            for (int i = 0; i < FILES; i++) {
+                out.printf("scope\tid=%d,name=\"\",mod=%d,size=%d,span=%d\n", i, i, codeSize / FILES, i);
+            }
+            for (int i = 0; i < SYMBOLS; i++) {
+                out.printf("sym\tid=%d,name=\"label%d\",addrsize=absolute,scope=%d,def=%d,ref=%d+%d,val=0x%04X,type=lab\n",
+                           i, i, i % FILES, i * 4, (i * 4 + 1) % LINES, (i * 4 + 2) % LINES, CODE_START + i * 6);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        debugFile.delete();
+    }
+
+    @Benchmark
+    public DebugInfo load() throws IOException, ParseException {
+        return DebugInfo.loadDebugFile(debugFile);
+    }
+}
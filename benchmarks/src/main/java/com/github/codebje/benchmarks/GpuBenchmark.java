@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2016 Seth J. Morabito <web@loomcom.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.codebje.benchmarks;
+
+import com.github.codebje.devices.VeronicaGPU;
+import com.github.codebje.exceptions.MemoryAccessException;
+import com.github.codebje.exceptions.MemoryRangeException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Text output through {@link VeronicaGPU#write(int, int)}. Each GPU command is a two
+ * byte packet of a command and its argument. Plotting a string is one packet per
+ * character; scrolling moves the cursor to the last row and sends a newline, which
+ * copies the whole screen up a row.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class GpuBenchmark {
+
+    /* Command bytes, as the ROM sends them */
+    private static final int PLOTSTR    = 0x03;
+    private static final int CURSORYPOS = 0x07;
+    private static final int SCROLLMODE = 0x60;
+
+    private static final int TEXT_MAX_Y = 30;
+
+    private VeronicaGPU gpu;
+    private int character;
+
+    @Setup
+    public void setUp() throws MemoryRangeException, MemoryAccessException {
+        System.setProperty("java.awt.headless", "true");
+        gpu = new VeronicaGPU();
+        gpu.write(0, SCROLLMODE);
+        gpu.write(0, 1);
+        character = ' ';
+    }
+
+    @Benchmark
+    public void plotString() throws MemoryAccessException {
+        character = character == '~' ? ' ' : character + 1;
+        gpu.write(0, PLOTSTR);
+        gpu.write(0, character);
+    }
+
+    @Benchmark
+    public void scroll() throws MemoryAccessException {
+        gpu.write(0, CURSORYPOS);
+        gpu.write(0, TEXT_MAX_Y - 1);
+        gpu.write(0, PLOTSTR);
+        gpu.write(0, '\n');
+    }
+}
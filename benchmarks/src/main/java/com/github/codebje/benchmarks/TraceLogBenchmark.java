@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2016 Seth J. Morabito <web@loomcom.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.codebje.benchmarks;
+
+import com.github.codebje.CpuState;
+import com.github.codebje.ui.TraceLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.GraphicsEnvironment;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Recording and redrawing the {@link TraceLog}. Appending happens after every instruction
+ * while the trace window is open; refreshing formats every line held, a full log here.
+ * The trace log is a window, so these need a display even though it is never shown.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TraceLogBenchmark {
+
+    /* TraceLog holds at most this many lines */
+    private static final int MAX_LOG_LENGTH = 50000;
+
+    private TraceLog traceLog;
+    private CpuState state;
+
+    @Setup
+    public void setUp() {
+        if (GraphicsEnvironment.isHeadless()) {
+            throw new IllegalStateException("The trace log benchmarks need a display");
+        }
+
+        traceLog = new TraceLog();
+        state = new CpuState();
+        state.ir = 0xad;                // LDA $1234
+        state.arg0 = 0x34;
+        state.arg1 = 0x12;
+        state.instSize = 3;
+        for (int i = 0; i < MAX_LOG_LENGTH; i++) {
+            append();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        traceLog.dispose();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void append() {
+        state.pc = (state.pc + state.instSize) & 0xffff;
+        state.lastPc = state.pc;
+        state.stepCounter++;
+        traceLog.append(state);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void refresh() {
+        traceLog.refresh();
+    }
+}
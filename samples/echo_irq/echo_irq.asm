@@ -8,6 +8,8 @@ IOSTATUS = IOBASE + 1
 IOCMD    = IOBASE + 2
 IOCTRL   = IOBASE + 3
 
+.setcpu "65C02"
+
 .segment "CODE"
 .org $C000
 
@@ -20,11 +22,8 @@ START:  CLI
 ;;
 ;; Infinite idle loop, waiting for interrupt.
 ;;
-IDLE:   LDA #$FF
-        TAX
-IDLE1:  DEX
-        BNE IDLE1
-        JMP IDLE
+IDLE:   WAI
+        BRA IDLE
 
 ;;
 ;; IRQ handler
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2016 Seth J. Morabito <web@loomcom.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.codebje;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Counts the CPU's memory traffic at each address of the 64K address space: reads and
+ * writes through the {@link Bus}, and instructions executed, counted at their opcode's
+ * address. Attach one with {@link Bus#setProfiler(AccessProfiler)}.
+ *
+ * The counters are plain arrays, written only by the CPU thread, so counting costs an
+ * increment. Accesses made from outside the CPU, such as edits in the memory window, are
+ * not counted. Other threads may read them while the CPU runs, and see counts a little
+ * behind. Once the CPU has pre-decoded an instruction it no longer reads it from the bus,
+ * so the reads of code are mostly from its first execution.
+ */
+public class AccessProfiler {
+
+    /** The number of addresses counted, from $0000 up; accesses above are not counted. */
+    public static final int SIZE = 0x10000;
+
+    final long[] reads = new long[SIZE];
+    final long[] writes = new long[SIZE];
+    final long[] executes = new long[SIZE];
+
+    public long getReads(int address) {
+        return reads[address];
+    }
+
+    public long getWrites(int address) {
+        return writes[address];
+    }
+
+    public long getExecutes(int address) {
+        return executes[address];
+    }
+
+    /**
+     * Copy the counts of every address into arrays of {@link #SIZE} elements. Any of the
+     * arrays may be null if its counts are not wanted.
+     */
+    public void copyCounts(long[] reads, long[] writes, long[] executes) {
+        if (reads != null) {
+            System.arraycopy(this.reads, 0, reads, 0, SIZE);
+        }
+        if (writes != null) {
+            System.arraycopy(this.writes, 0, writes, 0, SIZE);
+        }
+        if (executes != null) {
+            System.arraycopy(this.executes, 0, executes, 0, SIZE);
+        }
+    }
+
+    /**
+     * Zero every count. Counts made by the CPU during the reset may survive it.
+     */
+    public void reset() {
+        Arrays.fill(reads, 0L);
+        Arrays.fill(writes, 0L);
+        Arrays.fill(executes, 0L);
+    }
+
+    /**
+     * Write the counts to a file: as CSV if its name ends in .csv or has no extension,
+     * otherwise in binary.
+     */
+    public void export(File file) throws IOException {
+        String name = file.getName().toLowerCase();
+        try (OutputStream out = new FileOutputStream(file)) {
+            if (name.endsWith(".csv") || !name.contains(".")) {
+                exportCsv(new OutputStreamWriter(out, StandardCharsets.US_ASCII));
+            } else {
+                exportBinary(out);
+            }
+        }
+    }
+
+    /**
+     * Write the counts as CSV, with a header line and then a line for each address with a
+     * count other than zero: the address in hex, then its reads, writes and executions.
+     */
+    public void exportCsv(Writer writer) throws IOException {
+        PrintWriter out = new PrintWriter(writer);
+        out.print("address,reads,writes,executes\n");
+        for (int address = 0; address < SIZE; address++) {
+            long r = reads[address];
+            long w = writes[address];
+            long x = executes[address];
+            if (r != 0 || w != 0 || x != 0) {
+                out.printf("%04X,%d,%d,%d\n", address, r, w, x);
+            }
+        }
+        out.flush();
+        if (out.checkError()) {
+            throw new IOException("Failed to write the access profile");
+        }
+    }
+
+    /**
+     * Write the counts as big-endian 64 bit integers: the reads of every address in order,
+     * then the writes, then the executions.
+     */
+    public void exportBinary(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+        for (long[] counts : new long[][] {reads, writes, executes}) {
+            for (long count : counts) {
+                out.writeLong(count);
+            }
+        }
+        out.flush();
+    }
+}
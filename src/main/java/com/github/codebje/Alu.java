@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2016 Seth J. Morabito <web@loomcom.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.codebje;
+
+import java.util.EnumMap;
+
+/**
+ * Precomputed results for ADC and SBC. Each table is indexed by the carry flag, the
+ * accumulator and the operand, and holds the result together with the flags it produces:
+ *
+ * <pre>
+ *   bits 0-7   result
+ *   bits 8-15  value for {@link CpuState#nz}
+ *   bit  16    carry, in the position of {@link Cpu#P_CARRY} shifted left 16
+ *   bit  22    overflow, in the position of {@link Cpu#P_OVERFLOW} shifted left 16
+ * </pre>
+ *
+ * Binary subtraction is addition of the complemented operand, so it shares the binary
+ * addition table, as does CMP. Decimal mode differs between NMOS and CMOS parts in the
+ * N flag, so the decimal tables are per behavior.
+ */
+final class Alu {
+
+    static final int FLAGS_SHIFT = 16;
+    static final int FLAGS_MASK = Cpu.P_CARRY | Cpu.P_OVERFLOW;
+
+    /* Binary addition, for all behaviors */
+    static final int[] ADC = new int[0x20000];
+
+    private static final EnumMap<Cpu.CpuBehavior, int[]> ADC_DECIMAL = new EnumMap<>(Cpu.CpuBehavior.class);
+    private static final EnumMap<Cpu.CpuBehavior, int[]> SBC_DECIMAL = new EnumMap<>(Cpu.CpuBehavior.class);
+
+    static {
+        int[] nmosAdc = new int[0x20000], nmosSbc = new int[0x20000];
+        int[] cmosAdc = new int[0x20000], cmosSbc = new int[0x20000];
+
+        for (int i = 0; i < 0x20000; i++) {
+            int carry = i >> 16, acc = (i >> 8) & 0xff, operand = i & 0xff;
+            ADC[i] = adc(acc, operand, carry);
+            nmosAdc[i] = adcDecimal(acc, operand, carry, true);
+            nmosSbc[i] = sbcDecimal(acc, operand, carry, true);
+            cmosAdc[i] = adcDecimal(acc, operand, carry, false);
+            cmosSbc[i] = sbcDecimal(acc, operand, carry, false);
+        }
+
+        for (Cpu.CpuBehavior behavior : Cpu.CpuBehavior.values()) {
+            boolean nmos = isNmos(behavior);
+            ADC_DECIMAL.put(behavior, nmos ? nmosAdc : cmosAdc);
+            SBC_DECIMAL.put(behavior, nmos ? nmosSbc : cmosSbc);
+        }
+    }
+
+    private Alu() {}
+
+    static int index(int carry, int acc, int operand) {
+        return (carry << 16) | ((acc & 0xff) << 8) | (operand & 0xff);
+    }
+
+    static int[] adcDecimal(Cpu.CpuBehavior behavior) {
+        return ADC_DECIMAL.get(behavior);
+    }
+
+    static int[] sbcDecimal(Cpu.CpuBehavior behavior) {
+        return SBC_DECIMAL.get(behavior);
+    }
+
+    private static boolean isNmos(Cpu.CpuBehavior behavior) {
+        return behavior == Cpu.CpuBehavior.NMOS_6502 ||
+               behavior == Cpu.CpuBehavior.NMOS_WITH_ROR_BUG;
+    }
+
+    private static int pack(int result, int nz, boolean carry, boolean overflow) {
+        return result | (nz << 8) |
+               (carry ? Cpu.P_CARRY << FLAGS_SHIFT : 0) |
+               (overflow ? Cpu.P_OVERFLOW << FLAGS_SHIFT : 0);
+    }
+
+    private static int adc(int acc, int operand, int carry) {
+        int result = operand + acc + carry;
+        int carry6 = (operand & 0x7f) + (acc & 0x7f) + carry;
+        boolean c = (result & 0x100) != 0;
+        result &= 0xff;
+        return pack(result, result, c, c ^ ((carry6 & 0x80) != 0));
+    }
+
+    /*
+     * BCD never sets the overflow flag, and is never negative on the NMOS 6502. The N flag
+     * is valid on the CMOS 6502/65816.
+     */
+
+    private static int adcDecimal(int acc, int operand, int carry, boolean nmos) {
+        int l, h, result;
+        l = (acc & 0x0f) + (operand & 0x0f) + carry;
+        if ((l & 0xff) > 9) l += 6;
+        h = (acc >> 4) + (operand >> 4) + (l > 15 ? 1 : 0);
+        if ((h & 0xff) > 9) h += 6;
+        result = ((l & 0x0f) | (h << 4)) & 0xff;
+        return pack(result, decimalNZ(result, nmos), h > 15, false);
+    }
+
+    private static int sbcDecimal(int acc, int operand, int carry, boolean nmos) {
+        int l, h, result;
+        l = (acc & 0x0f) - (operand & 0x0f) - (carry ^ 1);
+        if ((l & 0x10) != 0) l -= 6;
+        h = (acc >> 4) - (operand >> 4) - ((l & 0x10) != 0 ? 1 : 0);
+        if ((h & 0x10) != 0) h -= 6;
+        result = ((l & 0x0f) | (h << 4)) & 0xff;
+        return pack(result, decimalNZ(result, nmos), (h & 0xff) < 15, false);
+    }
+
+    private static int decimalNZ(int result, boolean nmos) {
+        if (nmos) {
+            return result == 0 ? 0 : 1;
+        }
+        return result;
+    }
+}
@@ -12,9 +12,13 @@ public class Breakpoints extends AbstractTableModel {
     private TreeSet<Integer> breakpoints;
     private Simulator simulator;
 
-    public Breakpoints(Simulator simulator) {
+    // Breakpoints are mirrored into the stop conditions checked by the CPU's run loop
+    private StopConditions stopConditions;
+
+    public Breakpoints(Simulator simulator, StopConditions stopConditions) {
         this.breakpoints = new TreeSet<>();
         this.simulator = simulator;
+        this.stopConditions = stopConditions;
     }
 
     public boolean contains(int address) {
@@ -23,11 +27,13 @@ public class Breakpoints extends AbstractTableModel {
 
     public void addBreakpoint(int address) {
         this.breakpoints .add(address);
+        this.stopConditions.addBreakpoint(address);
         fireTableDataChanged();
     }
 
     public void removeBreakpoint(int address) {
         this.breakpoints.remove(address);
+        this.stopConditions.removeBreakpoint(address);
         fireTableDataChanged();
     }
 
@@ -39,6 +45,7 @@ public class Breakpoints extends AbstractTableModel {
         ArrayList<Integer> values = new ArrayList<>(breakpoints);
         int value = values.get(index);
         this.breakpoints.remove(value);
+        this.stopConditions.removeBreakpoint(value);
         fireTableDataChanged();
     }
 
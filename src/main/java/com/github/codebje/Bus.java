@@ -25,25 +25,58 @@ package com.github.codebje;
 
 import com.github.codebje.exceptions.MemoryAccessException;
 import com.github.codebje.devices.Device;
+import com.github.codebje.devices.Memory;
 import com.github.codebje.exceptions.MemoryRangeException;
 
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
-import java.util.HashMap;
-import java.util.Map;
 
 import java.util.SortedSet;
 import java.util.TreeSet;
 
 /**
  * The Bus ties the whole thing together, man.
+ *
+ * Where devices overlap, the one with the highest priority is seen; among devices of equal
+ * priority, the one mapped most recently. Attaching, detaching, unmapping or overlaying a
+ * device only rewrites the addresses it covers, so bank switching can swap devices in and
+ * out as often as it likes.
+ *
+ * The address space is held in 256 byte pages, and costs little more than a reference per
+ * page however large it is: a page seen through one device records just that device, and
+ * only pages shared between devices or partly unmapped hold a device for each address. A
+ * 24 bit bus for the 65816 takes around a megabyte, while lookups stay constant time.
+ *
+ * Like the real thing, the bus is normally forgiving: a read where no device answers
+ * returns the last value seen on the data bus, and a write there or to read-only memory
+ * is dropped. Each such access is counted as an open bus fault. In strict mode they throw
+ * a {@link MemoryAccessException} instead.
+ *
+ * Writes are tracked in lines of {@link #DIRTY_LINE_SIZE} bytes, so that views of memory
+ * can redraw just what changed. Each consumer registers with {@link #addDirtyConsumer()}
+ * and is told the lines changed since its last {@link #pollDirty(int)}.
+ *
+ * Watchpoints flag addresses whose reads, writes or execution should stop the CPU. The
+ * flags are held per page, and a page with any flags set is left out of the direct access
+ * table so that its accesses take the checked path; other pages, and the whole bus while
+ * no watchpoints are set, run as fast as ever.
  */
 public class Bus {
 
     // The default address at which to load programs
     public static int DEFAULT_LOAD_ADDRESS = 0x0200;
 
+    /** The number of bytes tracked by each bit of {@link #pollDirty(int)}'s result. */
+    public static final int DIRTY_LINE_SIZE = 32;
+    public static final int DIRTY_LINES_PER_PAGE = 256 / DIRTY_LINE_SIZE;
+
+    /** Watchpoint kinds, which may be combined. */
+    public static final int WATCH_READ = 1;
+    public static final int WATCH_WRITE = 2;
+    public static final int WATCH_EXECUTE = 4;
+
     // By default, our bus starts at 0, and goes up to 64K
     private int startAddress = 0x0000;
     private int endAddress = 0xffff;
@@ -51,11 +84,90 @@ public class Bus {
     // The CPU
     private Cpu cpu;
 
-    // Ordered sets of IO devices, associated with their priority
-    private Map<Integer, SortedSet<Device>> deviceMap;
+    /**
+     * A device attached to the bus, and its standing against the others. The device holds
+     * its own mapping, so that the bus finds it without searching; only the bus can see
+     * inside it.
+     */
+    public static final class Mapping {
+        final Device device;
+        final int priority;
+        final int startAddress;
+        final int endAddress;
+
+        // plain memory, whose instructions the CPU may pre-decode
+        final boolean cacheable;
+
+        // memory that refuses writes
+        final boolean readOnly;
+
+        // when the device was last mapped, to order devices of equal priority
+        long sequence;
+        boolean mapped;
+
+        Mapping(Device device, int priority) {
+            this.device = device;
+            this.priority = priority;
+            this.startAddress = device.getMemoryRange().startAddress();
+            this.endAddress = device.getMemoryRange().endAddress();
+            this.cacheable = device instanceof Memory;
+            this.readOnly = device instanceof Memory && ((Memory) device).isReadOnly();
+        }
+
+        boolean outranks(Mapping other) {
+            return other == null || priority > other.priority ||
+                   (priority == other.priority && sequence > other.sequence);
+        }
+    }
+
+    // Every device attached, mapped or not
+    private final List<Mapping> mappings = new ArrayList<>();
+    private long mappingSequence = 0;
+
+    // The device seen throughout each page, if there is just one; otherwise the device
+    // seen at each address of the page, or no array where nothing has ever been mapped.
+    // A page's array is kept when it comes to be seen through one device again, to be
+    // reused rather than reallocated, but is only current while the page has no owner.
+    private final Mapping[] pageOwner;
+    private final Mapping[][] pageDetail;
+
+    // The direct access table: for each page seen through a single memory device held on
+    // the heap, the array backing it and the index of the page's first byte in that array.
+    // Other pages have no array and go through pageOwner and pageDetail instead. So do
+    // writes to read-only pages, so the device can refuse them.
+    private final byte[][] pageContents;
+    private final int[] pageOffset;
+    private final boolean[] pageWritable;
 
-    // an array for quick lookup of adresses, brute-force style
-    private Device[] deviceAddressArray;
+    // Whether accesses no device accepts throw, rather than being counted
+    private boolean strict = false;
+
+    // The last value the CPU read or wrote, which floats on the data bus
+    private int dataBus = 0;
+
+    private long openBusFaults = 0;
+
+    // A bit for each line written since the last poll by any consumer. A page's lines fill
+    // one byte of a word, so address >> 11 picks the word and address >> 5 the bit in it.
+    private final long[] dirtyLines;
+
+    // The lines each consumer has yet to be told about
+    private final List<long[]> dirtyConsumers = new ArrayList<>();
+
+    // The kinds of watchpoint set on each address of a page, or no array for a page
+    // with none. Only CPU reads are watched.
+    private final byte[][] watchFlags;
+    private int watchedPages = 0;
+
+    // The first watchpoint hit since the last clearWatchHit(), if its kind is not zero
+    private int watchHitAddress;
+    private int watchHitKind = 0;
+
+    // Counts the CPU's accesses while attached
+    private AccessProfiler profiler;
+
+    // Device events, timed by the CPU's cycle counter
+    private final EventScheduler scheduler = new EventScheduler(() -> cpu == null ? 0L : cpu.getCycleCount());
 
 
     public Bus(int size) {
@@ -63,9 +175,17 @@ public class Bus {
     }
 
     public Bus(int startAddress, int endAddress) {
-        this.deviceMap = new HashMap<>();
         this.startAddress = startAddress;
         this.endAddress = endAddress;
+
+        int pages = (endAddress >> 8) + 1;
+        this.pageOwner = new Mapping[pages];
+        this.pageDetail = new Mapping[pages][];
+        this.pageContents = new byte[pages][];
+        this.pageOffset = new int[pages];
+        this.pageWritable = new boolean[pages];
+        this.dirtyLines = new long[(pages * DIRTY_LINES_PER_PAGE + 63) / 64];
+        this.watchFlags = new byte[pages][];
     }
 
     public int startAddress() {
@@ -76,22 +196,163 @@ public class Bus {
         return endAddress;
     }
 
-    private void buildDeviceAddressArray() {
-        int size = (this.endAddress - this.startAddress) + 1;
-        deviceAddressArray = new Device[size];
+    private Mapping findMapping(Device device) {
+        return device.getBus() == this ? device.getBusMapping() : null;
+    }
+
+    private Mapping mappingAt(int address) {
+        if (address < this.startAddress || address > this.endAddress) {
+            return null;
+        }
+        int page = address >> 8;
+        Mapping owner = pageOwner[page];
+        if (owner != null) {
+            return owner;
+        }
+        Mapping[] detail = pageDetail[page];
+        return detail == null ? null : detail[address & 0xff];
+    }
+
+    /*
+     * The per-address view of a page with no single owner, made current.
+     */
+    private Mapping[] detailOf(int page) {
+        Mapping[] detail = pageDetail[page];
+        if (detail == null) {
+            detail = new Mapping[256];
+            pageDetail[page] = detail;
+        }
+        if (pageOwner[page] != null) {
+            Arrays.fill(detail, pageOwner[page]);
+            pageOwner[page] = null;
+        }
+        return detail;
+    }
+
+    /*
+     * Give a page a single owner again if one device is seen throughout it.
+     */
+    private void collapse(int page) {
+        Mapping[] detail = pageDetail[page];
+        Mapping first = detail[0];
+        if (first == null) {
+            return;
+        }
+        for (int i = 1; i < 256; i++) {
+            if (detail[i] != first) {
+                return;
+            }
+        }
+        pageOwner[page] = first;
+    }
 
-        // getDevices() provides an OrderedSet with devices ordered by priorities
-        for (Device device : getDevices()) {
-            MemoryRange range = device.getMemoryRange();
-            for (int address = range.startAddress; address <= range.endAddress; ++address) {
-                deviceAddressArray[address - this.startAddress] = device;
+    /*
+     * Show a device at every address in the given range where it outranks the device
+     * currently seen there.
+     */
+    private void paint(Mapping mapping, int first, int last) {
+        first = Math.max(first, mapping.startAddress);
+        last = Math.min(last, mapping.endAddress);
+
+        for (int page = first >> 8; page <= last >> 8; page++) {
+            int from = Math.max(first, page << 8);
+            int to = Math.min(last, (page << 8) | 0xff);
+
+            boolean whole = from == page << 8 && to == ((page << 8) | 0xff);
+            if (whole && pageOwner[page] != null) {
+                if (mapping.outranks(pageOwner[page])) {
+                    pageOwner[page] = mapping;
+                }
+            } else if (whole && pageDetail[page] == null) {
+                pageOwner[page] = mapping;
+            } else {
+                Mapping[] detail = detailOf(page);
+                for (int address = from; address <= to; address++) {
+                    if (mapping.outranks(detail[address & 0xff])) {
+                        detail[address & 0xff] = mapping;
+                    }
+                }
+                collapse(page);
             }
         }
+    }
+
+    private void map(Mapping mapping) {
+        mapping.mapped = true;
+        mapping.sequence = ++mappingSequence;
+        paint(mapping, mapping.startAddress, mapping.endAddress);
+        remapped(mapping.startAddress, mapping.endAddress);
+    }
+
+    private void unmap(Mapping mapping) {
+        if (!mapping.mapped) {
+            return;
+        }
+        mapping.mapped = false;
+
+        int first = mapping.startAddress;
+        int last = mapping.endAddress;
+        for (int page = first >> 8; page <= last >> 8; page++) {
+            if (pageOwner[page] == mapping) {
+                // Only a device covering the whole page can own it
+                pageOwner[page] = null;
+                if (pageDetail[page] != null) {
+                    Arrays.fill(pageDetail[page], null);
+                }
+            } else if (pageOwner[page] == null && pageDetail[page] != null) {
+                Mapping[] detail = pageDetail[page];
+                for (int i = 0; i < 256; i++) {
+                    if (detail[i] == mapping) {
+                        detail[i] = null;
+                    }
+                }
+            }
+        }
+
+        // Uncover whatever the device was hiding
+        for (int i = 0; i < mappings.size(); i++) {
+            Mapping other = mappings.get(i);
+            if (other.mapped && other.startAddress <= last && other.endAddress >= first) {
+                paint(other, first, last);
+            }
+        }
+
+        remapped(first, last);
+    }
+
+    private void remapped(int first, int last) {
+        for (int page = first >> 8; page <= last >> 8; page++) {
+            buildPage(page);
+        }
+
+        markDirty(dirtyLines, first, last);
+
+        // Any instruction decoded from the old memory map is stale
+        if (cpu != null) {
+            cpu.invalidateDecoded(first, last);
+        }
+    }
+
+    private void buildPage(int page) {
+        pageContents[page] = null;
+        pageWritable[page] = false;
+
+        Mapping mapping = pageOwner[page];
+        if (mapping == null || !(mapping.device instanceof Memory) ||
+                ((Memory) mapping.device).getContents() == null || watchFlags[page] != null) {
+            return;
+        }
 
+        Memory memory = (Memory) mapping.device;
+        pageContents[page] = memory.getContents();
+        pageOffset[page] = (page << 8) - mapping.startAddress;
+        pageWritable[page] = !memory.isReadOnly();
     }
 
     /**
-     * Add a device to the bus.
+     * Add a device to the bus. Where it overlaps other devices, it is seen over those of a
+     * lower or equal priority, and under those of a higher one. Adding a device already on
+     * the bus moves it to the new priority.
      *
      * @param device   Device to add
      * @param priority Bus prioirity.
@@ -109,20 +370,17 @@ public class Bus {
             throw new MemoryRangeException("end address of device " + device.getName() + " does not fall within the address range of the bus");
         }
 
-        SortedSet<Device> deviceSet = deviceMap.get(priority);
-
-        if (deviceSet == null) {
-            deviceSet = new TreeSet<>();
-            deviceMap.put(priority, deviceSet);
-        }
+        removeDevice(device);
 
+        Mapping mapping = new Mapping(device, priority);
         device.setBus(this);
-        deviceSet.add(device);
-        buildDeviceAddressArray();
+        device.setBusMapping(mapping);
+        mappings.add(mapping);
+        map(mapping);
     }
 
     /**
-     * Add a device to the bus. Throws a MemoryRangeException if the device overlaps with any others.
+     * Add a device to the bus, at priority zero.
      *
      * @param device Device to add
      * @throws MemoryRangeException
@@ -138,10 +396,70 @@ public class Bus {
      * @param device Device to remove
      */
     public void removeDevice(Device device) {
-        for (SortedSet<Device> deviceSet : deviceMap.values()) {
-            deviceSet.remove(device);
+        Mapping mapping = findMapping(device);
+        if (mapping != null) {
+            unmap(mapping);
+            mappings.remove(mapping);
+            device.setBusMapping(null);
         }
-        buildDeviceAddressArray();
+    }
+
+    /**
+     * Hide a device without removing it, uncovering whatever it overlaps. It stays on the
+     * bus, and {@link #overlay(Device)} shows it again.
+     *
+     * @param device A device on the bus
+     */
+    public void unmap(Device device) {
+        unmap(attached(device));
+    }
+
+    /**
+     * Show a device over every other device of its priority, whether it was unmapped or
+     * already showing. Bank switching devices can overlay one bank after another.
+     *
+     * @param device A device on the bus
+     */
+    public void overlay(Device device) {
+        map(attached(device));
+    }
+
+    /**
+     * @return True if the device is on the bus and has not been unmapped. It may still be
+     *         hidden by devices of a higher priority.
+     */
+    public boolean isMapped(Device device) {
+        Mapping mapping = findMapping(device);
+        return mapping != null && mapping.mapped;
+    }
+
+    private Mapping attached(Device device) {
+        Mapping mapping = findMapping(device);
+        if (mapping == null) {
+            throw new IllegalArgumentException("Device " + device.getName() + " is not on the bus");
+        }
+        return mapping;
+    }
+
+    public boolean isStrict() {
+        return strict;
+    }
+
+    /**
+     * @param strict True to throw a {@link MemoryAccessException} for accesses to addresses
+     *               with no device and writes to read-only memory, rather than treating them
+     *               as open bus accesses.
+     */
+    public void setStrict(boolean strict) {
+        this.strict = strict;
+    }
+
+    /**
+     * @return The number of reads no device answered and writes no device accepted since
+     *         the bus was created, not counting those that threw in strict mode.
+     */
+    public long getOpenBusFaults() {
+        return openBusFaults;
     }
 
     public void addCpu(Cpu cpu) {
@@ -155,40 +473,384 @@ public class Bus {
      * device.
      */
     public boolean isComplete() {
-        if (deviceAddressArray == null) {
-            buildDeviceAddressArray();
+        for (int page = startAddress >> 8; page <= endAddress >> 8; page++) {
+            if (pageOwner[page] != null) {
+                continue;
+            }
+            int first = Math.max(startAddress, page << 8);
+            int last = Math.min(endAddress, (page << 8) | 0xff);
+            for (int address = first; address <= last; address++) {
+                if (mappingAt(address) == null) {
+                    return false;
+                }
+            }
         }
 
-        for (int address = startAddress; address <= endAddress; ++address) {
-            if (deviceAddressArray[address - startAddress] == null) {
+        return true;
+    }
+
+    /**
+     * Returns true if every byte of the given span is backed by memory, and so may be
+     * pre-decoded by the CPU. Reads from any other device may have side effects.
+     *
+     * @param address The first address of the span
+     * @param length  The number of bytes in the span, wrapping at the end of the 64K space
+     */
+    boolean isCacheable(int address, int length) {
+        for (int i = 0; i < length; i++) {
+            Mapping m = mappingAt((address + i) & 0xffff);
+            if (m == null || !m.cacheable || watchFlags[((address + i) & 0xffff) >> 8] != null) {
                 return false;
             }
         }
+        return true;
+    }
 
+    /**
+     * Notify the bus that a device's contents have changed other than through a bus write,
+     * for example when memory is filled or loaded from a file.
+     *
+     * @param device The device whose contents changed
+     */
+    public void deviceContentsChanged(Device device) {
+        Mapping mapping = findMapping(device);
+        if (mapping != null && mapping.mapped) {
+            markDirty(dirtyLines, mapping.startAddress, mapping.endAddress);
+        }
+        if (cpu != null) {
+            cpu.flushDecoded();
+        }
+    }
+
+    /**
+     * Notify the bus that a single byte of a device has changed other than through a bus
+     * write, for example when a device is written directly.
+     *
+     * @param device  The device whose contents changed
+     * @param address The device address of the byte
+     */
+    public void deviceContentsChanged(Device device, int address) {
+        Mapping mapping = findMapping(device);
+        if (mapping == null || !mapping.mapped) {
+            return;
+        }
+        int busAddress = mapping.startAddress + address;
+        dirtyLines[busAddress >> 11] |= 1L << (busAddress >> 5);
+        if (cpu != null) {
+            cpu.invalidateDecoded(busAddress);
+        }
+    }
+
+    private static void markDirty(long[] lines, int first, int last) {
+        for (int line = first >> 5; line <= last >> 5; line++) {
+            lines[line >> 6] |= 1L << line;
+        }
+    }
+
+    /**
+     * Register a consumer of changes to the bus's contents. Until its first poll, everything
+     * is reported changed.
+     *
+     * @return The consumer's identifier, for {@link #pollDirty(int)}
+     */
+    public synchronized int addDirtyConsumer() {
+        long[] lines = new long[dirtyLines.length];
+        markDirty(lines, startAddress, endAddress);
+        dirtyConsumers.add(lines);
+        return dirtyConsumers.size() - 1;
+    }
+
+    /**
+     * Collect the lines of {@link #DIRTY_LINE_SIZE} bytes that may have changed since the
+     * consumer last polled: those written, those filled or loaded through
+     * {@link #deviceContentsChanged(Device)}, those remapped, and always those of any device
+     * other than memory, as its registers may change without being written. Line n covers
+     * addresses n * DIRTY_LINE_SIZE onwards.
+     *
+     * Writes are recorded without locking, so a write made by a running CPU during the poll
+     * may be missed. A consumer polling while the CPU runs should redraw everything once it
+     * stops.
+     *
+     * @param consumerId The identifier given by {@link #addDirtyConsumer()}
+     * @return The dirty lines, as a bit set of line numbers
+     */
+    public synchronized BitSet pollDirty(int consumerId) {
+        for (int i = 0; i < dirtyLines.length; i++) {
+            long bits = dirtyLines[i];
+            if (bits != 0) {
+                dirtyLines[i] = 0;
+                for (long[] consumer : dirtyConsumers) {
+                    consumer[i] |= bits;
+                }
+            }
+        }
+
+        long[] lines = dirtyConsumers.get(consumerId);
+        for (Mapping mapping : mappings) {
+            if (mapping.mapped && !mapping.cacheable) {
+                markDirty(lines, mapping.startAddress, mapping.endAddress);
+            }
+        }
+
+        BitSet dirty = BitSet.valueOf(lines);
+        Arrays.fill(lines, 0L);
+        return dirty;
+    }
+
+    /**
+     * Set a watchpoint on a range of addresses. Reads are watched only when made by the CPU,
+     * including its instruction fetches.
+     *
+     * @param first The first address watched
+     * @param last  The last address watched
+     * @param kinds The kinds of access to watch, a combination of {@link #WATCH_READ},
+     *              {@link #WATCH_WRITE} and {@link #WATCH_EXECUTE}
+     */
+    public void addWatchpoint(int first, int last, int kinds) {
+        checkWatchRange(first, last);
+        for (int address = first; address <= last; address++) {
+            int page = address >> 8;
+            if (watchFlags[page] == null) {
+                watchFlags[page] = new byte[256];
+                watchedPages++;
+            }
+            watchFlags[page][address & 0xff] |= kinds;
+        }
+        rewatched(first, last);
+    }
+
+    /**
+     * Remove kinds of watchpoint from a range of addresses. Other kinds set there remain.
+     */
+    public void removeWatchpoint(int first, int last, int kinds) {
+        checkWatchRange(first, last);
+        for (int address = first; address <= last; address++) {
+            byte[] flags = watchFlags[address >> 8];
+            if (flags != null) {
+                flags[address & 0xff] &= ~kinds;
+            }
+        }
+        rewatched(first, last);
+    }
+
+    public void clearWatchpoints() {
+        for (int page = 0; page < watchFlags.length; page++) {
+            if (watchFlags[page] != null) {
+                watchFlags[page] = null;
+                buildPage(page);
+            }
+        }
+        watchedPages = 0;
+
+        if (cpu != null) {
+            cpu.invalidateDecoded(startAddress, endAddress);
+        }
+    }
+
+    /**
+     * @return The kinds of watchpoint set on an address, or zero for none.
+     */
+    public int getWatchpoint(int address) {
+        int page = address >> 8;
+        if (address < startAddress || address > endAddress || watchFlags[page] == null) {
+            return 0;
+        }
+        return watchFlags[page][address & 0xff];
+    }
+
+    public boolean hasWatchpoints() {
+        return watchedPages > 0;
+    }
+
+    private void checkWatchRange(int first, int last) {
+        if (first < startAddress || last > endAddress || last < first) {
+            throw new IllegalArgumentException(String.format("Watchpoint range $%04X-$%04X is not on the bus", first, last));
+        }
+    }
+
+    /*
+     * Drop the flags of pages left with no watchpoints, and take watched pages out of the
+     * direct access table and the CPU's decoded instructions so their accesses are seen.
+     */
+    private void rewatched(int first, int last) {
+        for (int page = first >> 8; page <= last >> 8; page++) {
+            byte[] flags = watchFlags[page];
+            if (flags != null && isClear(flags)) {
+                watchFlags[page] = null;
+                watchedPages--;
+            }
+            buildPage(page);
+        }
+
+        if (cpu != null) {
+            cpu.invalidateDecoded(first, last);
+        }
+    }
+
+    private static boolean isClear(byte[] flags) {
+        for (byte flag : flags) {
+            if (flag != 0) {
+                return false;
+            }
+        }
         return true;
     }
 
+    private void watchAccess(int address, int kind) {
+        int page = address >> 8;
+        if (watchHitKind == 0 && page < watchFlags.length && watchFlags[page] != null &&
+                (watchFlags[page][address & 0xff] & kind) != 0) {
+            watchHitAddress = address;
+            watchHitKind = kind;
+        }
+    }
+
+    /**
+     * Check for an execute watchpoint on the instruction the CPU is about to run, once no
+     * other watchpoint has been hit.
+     *
+     * @return True if there is one, which is recorded as hit.
+     */
+    boolean watchExecute(int address) {
+        watchAccess(address, WATCH_EXECUTE);
+        return watchHitKind != 0;
+    }
+
+    /**
+     * @return The kind of the first watchpoint hit since {@link #clearWatchHit()}, or zero
+     *         if none has been.
+     */
+    public int getWatchHitKind() {
+        return watchHitKind;
+    }
+
+    /**
+     * @return The address of the first watchpoint hit since {@link #clearWatchHit()}.
+     */
+    public int getWatchHitAddress() {
+        return watchHitAddress;
+    }
+
+    public void clearWatchHit() {
+        watchHitKind = 0;
+    }
+
+    public AccessProfiler getProfiler() {
+        return profiler;
+    }
+
+    /**
+     * Attach a profiler to count the CPU's reads and writes, and the instructions it
+     * executes. Like adding devices, this is for the CPU thread, or while the CPU is not
+     * running; from elsewhere, post it through the scheduler.
+     *
+     * @param profiler The profiler, or null to stop counting
+     */
+    public void setProfiler(AccessProfiler profiler) {
+        this.profiler = profiler;
+    }
+
     public int read(int address, boolean cpuAccess) throws MemoryAccessException {
-        Device d = deviceAddressArray[address - this.startAddress];
-        if (d != null) {
-            MemoryRange range = d.getMemoryRange();
-            int devAddr = address - range.startAddress();
-            return d.read(devAddr, cpuAccess) & 0xff;
+        if (profiler != null && cpuAccess && address < AccessProfiler.SIZE) {
+            profiler.reads[address]++;
+        }
+
+        int page = address >> 8;
+        if (page < pageContents.length) {
+            byte[] contents = pageContents[page];
+            if (contents != null) {
+                int value = contents[pageOffset[page] + (address & 0xff)] & 0xff;
+                if (cpuAccess) {
+                    dataBus = value;
+                }
+                return value;
+            }
+        }
+
+        if (watchedPages > 0 && cpuAccess) {
+            watchAccess(address, WATCH_READ);
+        }
+
+        Mapping m = mappingAt(address);
+        if (m != null) {
+            int value = m.device.read(address - m.startAddress, cpuAccess) & 0xff;
+            if (cpuAccess) {
+                dataBus = value;
+            }
+            return value;
         }
 
-        throw new MemoryAccessException("Bus read failed. No device at address " + String.format("$%04X", address));
+        if (strict) {
+            throw new MemoryAccessException("Bus read failed. No device at address " + String.format("$%04X", address));
+        }
+        openBusFaults++;
+        return dataBus;
+    }
+
+    /**
+     * @return The number of cycles for which reads of an address will not change, as
+     *         reported by the device there.
+     * @see Device#cyclesUntilChange(int)
+     */
+    public long cyclesUntilChange(int address) {
+        Mapping m = mappingAt(address);
+        if (m == null) {
+            return Device.UNPREDICTABLE;
+        }
+        return m.device.cyclesUntilChange(address - m.startAddress);
     }
 
     public void write(int address, int value) throws MemoryAccessException {
-        Device d = deviceAddressArray[address - this.startAddress];
-        if (d != null) {
-            MemoryRange range = d.getMemoryRange();
-            int devAddr = address - range.startAddress();
-            d.write(devAddr, value);
+        write(address, value, true);
+    }
+
+    /**
+     * @param cpuAccess False for writes from outside the CPU, such as loading a program or
+     *                  editing memory in a debugger. These are not counted by a profiler,
+     *                  do not trigger watchpoints, and leave the data bus alone.
+     */
+    public void write(int address, int value, boolean cpuAccess) throws MemoryAccessException {
+        if (profiler != null && cpuAccess && address < AccessProfiler.SIZE) {
+            profiler.writes[address]++;
+        }
+
+        int page = address >> 8;
+        if (cpuAccess) {
+            dataBus = value & 0xff;
+        }
+
+        if (page < pageWritable.length && pageWritable[page]) {
+            pageContents[page][pageOffset[page] + (address & 0xff)] = (byte) value;
+            dirtyLines[address >> 11] |= 1L << (address >> 5);
+            if (cpu != null) {
+                cpu.invalidateDecoded(address);
+            }
             return;
         }
 
-        throw new MemoryAccessException("Bus write failed. No device at address " + String.format("$%04X", address));
+        if (watchedPages > 0 && cpuAccess) {
+            watchAccess(address, WATCH_WRITE);
+        }
+
+        Mapping m = mappingAt(address);
+        if (m != null && !(m.readOnly && !strict)) {
+            // The bus records its own writes, so memory is spared notifying it of them
+            if (m.cacheable) {
+                ((Memory) m.device).store(address - m.startAddress, value);
+            } else {
+                m.device.write(address - m.startAddress, value);
+            }
+            dirtyLines[address >> 11] |= 1L << (address >> 5);
+            if (cpu != null) {
+                cpu.invalidateDecoded(address);
+            }
+            return;
+        }
+
+        if (strict) {
+            throw new MemoryAccessException("Bus write failed. No device at address " + String.format("$%04X", address));
+        }
+        openBusFaults++;
     }
 
     public void assertIrq() {
@@ -215,18 +877,14 @@ public class Bus {
         }
     }
 
+    /**
+     * @return Every device on the bus, mapped or not, ordered by start address.
+     */
     public SortedSet<Device> getDevices() {
-        // create an ordered set of devices, ordered by device priorities
         SortedSet<Device> devices = new TreeSet<>();
-
-        List<Integer> priorities = new ArrayList<>(deviceMap.keySet());
-        Collections.sort(priorities);
-
-        for (int priority : priorities) {
-            SortedSet<Device> deviceSet = deviceMap.get(priority);
-            devices.addAll(deviceSet);
+        for (Mapping mapping : mappings) {
+            devices.add(mapping.device);
         }
-
         return devices;
     }
 
@@ -234,11 +892,15 @@ public class Bus {
         return cpu;
     }
 
+    public EventScheduler getScheduler() {
+        return scheduler;
+    }
+
     public void loadProgram(int... program) throws MemoryAccessException {
         int address = getCpu().getProgramCounter();
         int i = 0;
         for (int d : program) {
-            write(address + i++, d);
+            write(address + i++, d, false);
         }
     }
 }
@@ -28,6 +28,8 @@ import com.github.codebje.util.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.locks.LockSupport;
+
 
 /**
  * This class provides a simulation of the MOS 6502 CPU's state machine.
@@ -58,23 +60,135 @@ public class Cpu implements InstructionTable {
     public static final int IRQ_VECTOR_L = 0xfffe;
     public static final int IRQ_VECTOR_H = 0xffff;
 
+    // Clock cycles taken to enter an IRQ or NMI handler, as for BRK
+    public static final int INTERRUPT_CYCLES = 7;
+
     public static final long DEFAULT_CLOCK_PERIOD_IN_NS = 1000;
+    public static final double DEFAULT_CLOCK_FREQUENCY_IN_HZ = 1000000.0;
+
+    // The fastest clock that can be paced; beyond this use turbo mode.
+    public static final double MAX_CLOCK_FREQUENCY_IN_HZ = 1000000000.0;
+
+    // Cycle time is nanoseconds per second divided by the clock rate; both are scaled by
+    // 1000 because the rate is held in millihertz.
+    private static final long NANOS_PER_SECOND_IN_MILLIHZ = 1000000000000L;
+
+    // Cycles are converted to wall-clock time in chunks no larger than this, so that the
+    // product with NANOS_PER_SECOND_IN_MILLIHZ fits in a long.
+    private static final long MAX_PACING_CHUNK = 1000000L;
+
+    // Unless pacing is exact, emulated cycles run at full speed for this long (one 60Hz
+    // video frame) before the thread sleeps until the wall clock catches up.
+    public static final long PACING_SLICE_IN_NS = 16666667L;
+
+    // A slice that ends further behind the wall clock than this restarts pacing instead of
+    // running flat out to catch up, for example after the simulator has been stopped.
+    private static final long MAX_PACING_LAG_IN_NS = 100000000L;
+
+    /**
+     * The wall clock that execution is paced against, and the way the CPU thread sleeps on
+     * it. Tests substitute a clock of their own so that pacing can be checked without
+     * waiting in real time.
+     */
+    interface PacingClock {
+        long nanoTime();
+
+        void parkNanos(long nanos);
+    }
+
+    static final PacingClock SYSTEM_CLOCK = new PacingClock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+
+        @Override
+        public void parkNanos(long nanos) {
+            LockSupport.parkNanos(nanos);
+        }
+    };
+
+    /**
+     * The reason {@link #run(long, StopConditions)} returned.
+     */
+    public enum StopReason {
+        BUDGET_EXHAUSTED,
+        BREAKPOINT,
+        BRK,
+        ILLEGAL_OPCODE,
+        STOP_REQUESTED,
+        HALTED,
+        TRAP,
+        WATCHPOINT
+    }
+
+    /*
+     * Speed settings. They are changed only on the thread running the CPU, for example
+     * through an event posted to the scheduler, and are volatile so that other threads
+     * read them safely.
+     */
+
+    /* Simulated clock speed in thousandths of a hertz (default is 1MHz) */
+    private volatile long clockRateInMilliHz = Math.round(DEFAULT_CLOCK_FREQUENCY_IN_HZ * 1000);
+
+    /* Turbo mode skips wall-clock pacing; emulated cycles are still counted */
+    private volatile boolean turboMode = false;
 
-    /* Simulated clock speed (default is 1MHz) */
-    private long clockPeriodInNs = DEFAULT_CLOCK_PERIOD_IN_NS;
+    /* Exact pacing spins after every instruction rather than sleeping once per slice */
+    private volatile boolean exactPacing = false;
+
+    /*
+     * Wall-clock time by which the cycles up to paceCycles should have elapsed. The
+     * fraction of a nanosecond left over is kept in paceRemainder, in units of
+     * 1 / clockRateInMilliHz ns, so that no time is lost to rounding.
+     */
+    private long paceDeadline;
+    private long paceRemainder;
+    private long paceCycles;
+
+    /* Cycle count at which the current pacing slice ends */
+    private long paceSliceEnd;
+
+    private PacingClock pacingClock = SYSTEM_CLOCK;
+
+    /* Guards the interrupt lines so that an interrupt raised on another thread wakes a CPU halted by WAI */
+    private final Object interruptLock = new Object();
+
+    /* Device events; replaced by the bus's scheduler when the CPU is attached to a bus */
+    private EventScheduler scheduler = new EventScheduler(this::getCycleCount);
 
     /* Simulated behavior */
     private CpuBehavior behavior;
 
+    /* Opcode dispatch table for the simulated behavior */
+    private OperationTable.Operation[] operations;
+
+    /* Decimal mode ALU results for the simulated behavior */
+    private int[] adcDecimalTable;
+    private int[] sbcDecimalTable;
+
+    /* Base clock cycles of each opcode, and the extra cycle 65C02 decimal arithmetic takes */
+    private int[] instructionClocks;
+    private int decimalPenalty;
+
+    /*
+     * Cycles added to the base timing of the instruction being executed by page
+     * crossings, taken branches and decimal mode.
+     */
+    private int penaltyCycles;
+
+    /* Pre-decoded instructions from memory-backed addresses */
+    private final DecodeCache decodeCache = new DecodeCache();
+
+    /* Fast-forwards loops that poll devices, when the run's conditions allow it */
+    private final IdleLoopDetector idleLoopDetector = new IdleLoopDetector(this);
+
     /* The Bus */
     private Bus bus;
 
     /* The CPU state */
     private final CpuState state = new CpuState();
 
-    /* start time of op execution, needed for speed simulation */
-    private long opBeginTime;
-
     /**
      * Construct a new CPU.
      */
@@ -83,7 +197,7 @@ public class Cpu implements InstructionTable {
     }
 
     public Cpu(CpuBehavior behavior) {
-        this.behavior = behavior;
+        setBehavior(behavior);
     }
 
     /**
@@ -91,6 +205,9 @@ public class Cpu implements InstructionTable {
      */
     public void setBus(Bus bus) {
         this.bus = bus;
+        this.scheduler = bus.getScheduler();
+        scheduler.setWakeup(this::wake);
+        flushDecoded();
     }
 
     /**
@@ -102,12 +219,22 @@ public class Cpu implements InstructionTable {
 
     public void setBehavior(CpuBehavior behavior) {
         this.behavior = behavior;
+        this.operations = OperationTable.forBehavior(behavior);
+        this.adcDecimalTable = Alu.adcDecimal(behavior);
+        this.sbcDecimalTable = Alu.sbcDecimal(behavior);
+        this.instructionClocks = isCmos(behavior) ? Cpu.instructionClocksCmos : Cpu.instructionClocksNmos;
+        this.decimalPenalty = isCmos(behavior) ? 1 : 0;
+        flushDecoded();
     }
 
     public CpuBehavior getBehavior() {
         return behavior;
     }
 
+    private static boolean isCmos(CpuBehavior behavior) {
+        return behavior == CpuBehavior.CMOS_6502 || behavior == CpuBehavior.CMOS_65816;
+    }
+
     /**
      * Reset the CPU to known initial values.
      */
@@ -124,28 +251,30 @@ public class Cpu implements InstructionTable {
         state.ir = 0;
 
         // Clear status register bits.
-        state.carryFlag = false;
-        state.zeroFlag = false;
-        state.irqDisableFlag = false;
-        state.decimalModeFlag = false;
-        state.breakFlag = false;
-        state.overflowFlag = false;
-        state.negativeFlag = false;
+        state.p = 0x20;
+        state.nz = 1;
 
         state.irqAsserted = false;
 
+        // Leave any WAI or STP halt
+        state.waiting = false;
+        state.stopped = false;
+
         // Clear illegal opcode trap.
         state.opTrap = false;
 
-        // Reset step counter
+        // Reset step and cycle counters, keeping pending device events the same distance away
+        scheduler.rebase(state.cycleCounter);
         state.stepCounter = 0L;
+        state.cycleCounter = 0L;
+        state.instCycles = 0;
+        resetPacing();
+        idleLoopDetector.reset();
 
         // Reset registers.
         state.a = 0;
         state.x = 0;
         state.y = 0;
-
-        peekAhead();
     }
 
     public void step(int num) throws MemoryAccessException {
@@ -158,1244 +287,675 @@ public class Cpu implements InstructionTable {
      * Performs an individual instruction cycle.
      */
     public void step() throws MemoryAccessException {
-        opBeginTime = System.nanoTime();
+        // WAI is ended by any interrupt, whether or not it is then serviced; STP only by
+        // reset. While halted, each step lets one clock cycle pass.
+        if (state.waiting && (state.nmiAsserted || state.irqAsserted)) {
+            state.waiting = false;
+        }
+        if (state.waiting || state.stopped) {
+            delayCycles(1);
+            return;
+        }
 
         // Store the address from which the IR was read, for debugging
         state.lastPc = state.pc;
 
         // Check for Interrupts before doing anything else.
         // This will set the PC and jump to the interrupt vector.
+        penaltyCycles = 0;
         if (state.nmiAsserted) {
             handleNmi();
+            penaltyCycles = INTERRUPT_CYCLES;
         } else if (state.irqAsserted && !getIrqDisableFlag()) {
             handleIrq(state.pc);
+            penaltyCycles = INTERRUPT_CYCLES;
         }
 
-        // Fetch memory location for this instruction.
-        state.ir = bus.read(state.pc, true);
-        int irAddressMode = (state.ir >> 2) & 0x07;  // Bits 3-5 of IR:  [ | | |X|X|X| | ]
-        int irOpMode = state.ir & 0x03;              // Bits 6-7 of IR:  [ | | | | | |X|X]
-
-        incrementPC();
-
         clearOpTrap();
 
-        // Decode the instruction and operands
-        state.instSize = Cpu.instructionSizes[state.ir];
-        for (int i = 0; i < state.instSize - 1; i++) {
-            state.args[i] = bus.read(state.pc, true);
-            // Increment PC after reading
+        final OperationTable.Operation operation;
+        final int pc = state.pc;
+
+        if (decodeCache.contains(pc)) {
+            // Pre-decoded instruction and operands
+            state.ir = decodeCache.opcode[pc];
+            state.instSize = decodeCache.size[pc];
+            state.arg0 = decodeCache.arg0[pc];
+            state.arg1 = decodeCache.arg1[pc];
+            state.pc = (pc + state.instSize) & 0xffff;
+            operation = decodeCache.handler[pc];
+        } else {
+            // Fetch memory location for this instruction.
+            state.ir = bus.read(state.pc, true);
+
             incrementPC();
+
+            // Decode the instruction and operands
+            state.instSize = Cpu.instructionSizes[state.ir];
+            if (state.instSize > 1) {
+                state.arg0 = bus.read(state.pc, true);
+                incrementPC();
+            }
+            if (state.instSize > 2) {
+                state.arg1 = bus.read(state.pc, true);
+                incrementPC();
+            }
+
+            operation = operations[state.ir];
+
+            if (bus.isCacheable(pc, state.instSize)) {
+                decodeCache.store(pc, state.ir, state.instSize, state.arg0, state.arg1, operation);
+            }
         }
 
         state.stepCounter++;
 
-        // Get the data from the effective address (if any)
-        int effectiveAddress = 0;
-        int tmp; // Temporary storage
-
-        switch (irOpMode) {
-            case 0:
-            case 2:
-                switch (irAddressMode) {
-                    case 0: // #Immediate
-                        break;
-                    case 1: // Zero Page
-                        effectiveAddress = state.args[0];
-                        break;
-                    case 2: // Accumulator - ignored
-                        break;
-                    case 3: // Absolute
-                        effectiveAddress = Utils.address(state.args[0], state.args[1]);
-                        break;
-                    case 4: // 65C02 (Zero Page)
-                        if (behavior == CpuBehavior.CMOS_6502 ||
-                            behavior == CpuBehavior.CMOS_65816) {
-                            effectiveAddress = Utils.address(bus.read(state.args[0], true),
-                                                             bus.read((state.args[0] + 1) & 0xff, true));
-                        }
-                        break;
-                    case 5: // Zero Page,X / Zero Page,Y
-                        if (state.ir == 0x14) { // 65C02 TRB Zero Page
-                            effectiveAddress = state.args[0];
-                        }
-                        else if (state.ir == 0x96 || state.ir == 0xb6) {
-                            effectiveAddress = zpyAddress(state.args[0]);
-                        } else {
-                            effectiveAddress = zpxAddress(state.args[0]);
-                        }
-                        break;
-                    case 7:
-                        if (state.ir == 0x9c || state.ir == 0x1c) { // 65C02 STZ & TRB Absolute
-                            effectiveAddress = Utils.address(state.args[0], state.args[1]);
-                        }
-                        else if (state.ir == 0xbe) { // Absolute,X / Absolute,Y
-                            effectiveAddress = yAddress(state.args[0], state.args[1]);
-                        } else {
-                            effectiveAddress = xAddress(state.args[0], state.args[1]);
-                        }
-                        break;
-                }
-                break;
-            case 3: // Rockwell/WDC 65C02
-                switch (irAddressMode) {
-                    case 1: // Zero Page
-                    case 3:
-                    case 5:
-                    case 7: // Zero Page, Relative
-                        effectiveAddress = state.args[0];
-                        break;
-                }
-                break;
-            case 1:
-                switch (irAddressMode) {
-                    case 0: // (Zero Page,X)
-                        tmp = (state.args[0] + state.x) & 0xff;
-                        effectiveAddress = Utils.address(bus.read(tmp, true), bus.read(tmp + 1, true));
-                        break;
-                    case 1: // Zero Page
-                        effectiveAddress = state.args[0];
-                        break;
-                    case 2: // #Immediate
-                        effectiveAddress = -1;
-                        break;
-                    case 3: // Absolute
-                        effectiveAddress = Utils.address(state.args[0], state.args[1]);
-                        break;
-                    case 4: // (Zero Page),Y
-                        tmp = Utils.address(bus.read(state.args[0], true),
-                                      bus.read((state.args[0] + 1) & 0xff, true));
-                        effectiveAddress = (tmp + state.y) & 0xffff;
-                        break;
-                    case 5: // Zero Page,X
-                        effectiveAddress = zpxAddress(state.args[0]);
-                        break;
-                    case 6: // Absolute, Y
-                        effectiveAddress = yAddress(state.args[0], state.args[1]);
-                        break;
-                    case 7: // Absolute, X
-                        effectiveAddress = xAddress(state.args[0], state.args[1]);
-                        break;
-                }
-                break;
+        AccessProfiler profiler = bus.getProfiler();
+        if (profiler != null) {
+            profiler.executes[pc]++;
         }
 
-        // Execute
-        switch (state.ir) {
-
-            /** Single Byte Instructions; Implied and Relative **/
-            case 0x00: // BRK - Force Interrupt - Implied
-                handleBrk(state.pc + 1);
-                break;
-            case 0x08: // PHP - Push Processor Status - Implied
-                // Break flag is always set in the stack value.
-                stackPush(state.getStatusFlag() | 0x10);
-                break;
-            case 0x10: // BPL - Branch if Positive - Relative
-                if (!getNegativeFlag()) {
-                    state.pc = relAddress(state.args[0]);
-                }
-                break;
-            case 0x18: // CLC - Clear Carry Flag - Implied
-                clearCarryFlag();
-                break;
-            case 0x20: // JSR - Jump to Subroutine - Implied
-                stackPush((state.pc - 1 >> 8) & 0xff); // PC high byte
-                stackPush(state.pc - 1 & 0xff);        // PC low byte
-                state.pc = Utils.address(state.args[0], state.args[1]);
-                break;
-            case 0x28: // PLP - Pull Processor Status - Implied
-                setProcessorStatus(stackPop());
-                break;
-            case 0x30: // BMI - Branch if Minus - Relative
-                if (getNegativeFlag()) {
-                    state.pc = relAddress(state.args[0]);
-                }
-                break;
-            case 0x38: // SEC - Set Carry Flag - Implied
-                setCarryFlag();
-                break;
-            case 0x40: // RTI - Return from Interrupt - Implied
-                setProcessorStatus(stackPop());
-                int lo = stackPop();
-                int hi = stackPop();
-                setProgramCounter(Utils.address(lo, hi));
-                break;
-            case 0x48: // PHA - Push Accumulator - Implied
-                stackPush(state.a);
-                break;
-            case 0x50: // BVC - Branch if Overflow Clear - Relative
-                if (!getOverflowFlag()) {
-                    state.pc = relAddress(state.args[0]);
-                }
-                break;
-            case 0x58: // CLI - Clear Interrupt Disable - Implied
-                clearIrqDisableFlag();
-                break;
-            case 0x5a: // 65C02 PHY - Push Y to stack
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                stackPush(state.y);
-                break;
-            case 0x60: // RTS - Return from Subroutine - Implied
-                lo = stackPop();
-                hi = stackPop();
-                setProgramCounter((Utils.address(lo, hi) + 1) & 0xffff);
-                break;
-            case 0x68: // PLA - Pull Accumulator - Implied
-                state.a = stackPop();
-                setArithmeticFlags(state.a);
-                break;
-            case 0x70: // BVS - Branch if Overflow Set - Relative
-                if (getOverflowFlag()) {
-                    state.pc = relAddress(state.args[0]);
-                }
-                break;
-            case 0x78: // SEI - Set Interrupt Disable - Implied
-                setIrqDisableFlag();
-                break;
-            case 0x7a: // 65C02 PLY - Pull Y from Stack
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                state.y = stackPop();
-                setArithmeticFlags(state.y);
-                break;
-            case 0x80: // 65C02 BRA - Branch Always
-                if (behavior == CpuBehavior.CMOS_6502 ||
-                    behavior == CpuBehavior.CMOS_65816) {
-                        state.pc = relAddress(state.args[0]);
-                }
-                break;
-            case 0x88: // DEY - Decrement Y Register - Implied
-                state.y = --state.y & 0xff;
-                setArithmeticFlags(state.y);
-                break;
-            case 0x8a: // TXA - Transfer X to Accumulator - Implied
-                state.a = state.x;
-                setArithmeticFlags(state.a);
-                break;
-            case 0x90: // BCC - Branch if Carry Clear - Relative
-                if (!getCarryFlag()) {
-                    state.pc = relAddress(state.args[0]);
-                }
-                break;
-            case 0x98: // TYA - Transfer Y to Accumulator - Implied
-                state.a = state.y;
-                setArithmeticFlags(state.a);
-                break;
-            case 0x9a: // TXS - Transfer X to Stack Pointer - Implied
-                setStackPointer(state.x);
-                break;
-            case 0xa8: // TAY - Transfer Accumulator to Y - Implied
-                state.y = state.a;
-                setArithmeticFlags(state.y);
-                break;
-            case 0xaa: // TAX - Transfer Accumulator to X - Implied
-                state.x = state.a;
-                setArithmeticFlags(state.x);
-                break;
-            case 0xb0: // BCS - Branch if Carry Set - Relative
-                if (getCarryFlag()) {
-                    state.pc = relAddress(state.args[0]);
-                }
-                break;
-            case 0xb8: // CLV - Clear Overflow Flag - Implied
-                clearOverflowFlag();
-                break;
-            case 0xba: // TSX - Transfer Stack Pointer to X - Implied
-                state.x = getStackPointer();
-                setArithmeticFlags(state.x);
-                break;
-            case 0xc8: // INY - Increment Y Register - Implied
-                state.y = ++state.y & 0xff;
-                setArithmeticFlags(state.y);
-                break;
-            case 0xca: // DEX - Decrement X Register - Implied
-                state.x = --state.x & 0xff;
-                setArithmeticFlags(state.x);
-                break;
-            case 0xd0: // BNE - Branch if Not Equal to Zero - Relative
-                if (!getZeroFlag()) {
-                    state.pc = relAddress(state.args[0]);
-                }
-                break;
-            case 0xd8: // CLD - Clear Decimal Mode - Implied
-                clearDecimalModeFlag();
-                break;
-            case 0xda: // 65C02 PHX - Push X to stack
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                stackPush(state.x);
-                break;
-            case 0xe8: // INX - Increment X Register - Implied
-                state.x = ++state.x & 0xff;
-                setArithmeticFlags(state.x);
-                break;
-            case 0xea: // NOP
-                // Do nothing.
-                break;
-            case 0xf0: // BEQ - Branch if Equal to Zero - Relative
-                if (getZeroFlag()) {
-                    state.pc = relAddress(state.args[0]);
-                }
-                break;
-            case 0xf8: // SED - Set Decimal Flag - Implied
-                setDecimalModeFlag();
-                break;
-            case 0xfa: // 65C02 PLX - Pull X from Stack
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                state.x = stackPop();
-                setArithmeticFlags(state.x);
-                break;
-
-            /** JMP *****************************************************************/
-            case 0x4c: // JMP - Absolute
-                state.pc = Utils.address(state.args[0], state.args[1]);
-                break;
-            case 0x6c: // JMP - Indirect
-                lo = Utils.address(state.args[0], state.args[1]); // Address of low byte
-
-                if (state.args[0] == 0xff &&
-                    (behavior == CpuBehavior.NMOS_6502 ||
-                     behavior == CpuBehavior.NMOS_WITH_ROR_BUG)) {
-                    hi = Utils.address(0x00, state.args[1]);
-                } else {
-                    hi = lo + 1;
-                }
-
-                state.pc = Utils.address(bus.read(lo, true), bus.read(hi, true));
-                /* TODO: For accuracy, allow a flag to enable broken behavior of early 6502s:
-                 *
-                 * "An original 6502 has does not correctly fetch the target
-                 * address if the indirect vector falls on a page boundary
-                 * (e.g. $xxFF where xx is and value from $00 to $FF). In this
-                 * case fetches the LSB from $xxFF as expected but takes the MSB
-                 * from $xx00. This is fixed in some later chips like the 65SC02
-                 * so for compatibility always ensure the indirect vector is not
-                 * at the end of the page."
-                 * (http://www.obelisk.demon.co.uk/6502/reference.html#JMP)
-                 */
-                break;
-            case 0x7c: // 65C02 JMP - (Absolute Indexed Indirect,X)
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                lo = (((state.args[1] << 8) | state.args[0]) + state.x) & 0xffff;
-                hi = lo + 1;
-                state.pc = Utils.address(bus.read(lo, true), bus.read(hi, true));
-                break;
-
-            /** ORA - Logical Inclusive Or ******************************************/
-            case 0x09: // #Immediate
-                state.a |= state.args[0];
-                setArithmeticFlags(state.a);
-                break;
-            case 0x12: // 65C02 ORA (ZP)
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-            case 0x01: // (Zero Page,X)
-            case 0x05: // Zero Page
-            case 0x0d: // Absolute
-            case 0x11: // (Zero Page),Y
-            case 0x15: // Zero Page,X
-            case 0x19: // Absolute,Y
-            case 0x1d: // Absolute,X
-                state.a |= bus.read(effectiveAddress, true);
-                setArithmeticFlags(state.a);
-                break;
-
-
-            /** ASL - Arithmetic Shift Left *****************************************/
-            case 0x0a: // Accumulator
-                state.a = asl(state.a);
-                setArithmeticFlags(state.a);
-                break;
-            case 0x06: // Zero Page
-            case 0x0e: // Absolute
-            case 0x16: // Zero Page,X
-            case 0x1e: // Absolute,X
-                tmp = asl(bus.read(effectiveAddress, true));
-                bus.write(effectiveAddress, tmp);
-                setArithmeticFlags(tmp);
-                break;
+        // Resolve the addressing mode and execute
+        operation.execute(this);
 
+        state.instCycles = instructionClocks[state.ir] + penaltyCycles;
+        delayCycles(state.instCycles);
+    }
 
-            /** BIT - Bit Test ******************************************************/
-            case 0x89: // 65C02 #Immediate
-                setZeroFlag((state.a & state.args[0]) == 0);
-                break;
-            case 0x34: // 65C02 Zero Page,X
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-            case 0x24: // Zero Page
-            case 0x2c: // Absolute
-            case 0x3c: // Absolute,X
-                tmp = bus.read(effectiveAddress, true);
-                setZeroFlag((state.a & tmp) == 0);
-                setNegativeFlag((tmp & 0x80) != 0);
-                setOverflowFlag((tmp & 0x40) != 0);
-                break;
+    /**
+     * Execute instructions until at least the given number of clock cycles have elapsed
+     * or one of the stop conditions is met. Conditions are checked after each instruction,
+     * so a run started on a breakpoint executes that instruction before checking again.
+     * A watchpoint read or written stops the run once the instruction accessing it
+     * completes; one on execution stops it before the instruction there runs, as a
+     * breakpoint does. While the CPU is halted by WAI or STP the calling thread blocks
+     * until an interrupt arrives or a stop is requested, running device events as they
+     * fall due. Events posted by other threads run at the start of each run. Unless the
+     * conditions, a watchpoint or a profiler rule it out, loops that poll a device are
+     * fast-forwarded to the next change the device can predict, which may take the run
+     * well past its budget.
+     *
+     * @param maxCycles  The cycle budget for this run.
+     * @param conditions The conditions that end the run early.
+     * @return The reason the run stopped.
+     */
+    public StopReason run(long maxCycles, StopConditions conditions) throws MemoryAccessException {
+        final long endCycle = state.cycleCounter + maxCycles;
+
+        scheduler.runPosted();
+
+        // Watchpoints and profilers may have been set by a posted event. Skipping a loop
+        // would skip its accesses, so they rule that out.
+        final boolean watching = bus.hasWatchpoints();
+        final boolean skipIdleLoops = conditions.isIdleLoopsSkipped() && !watching &&
+                                      bus.getProfiler() == null;
+        if (watching) {
+            bus.clearWatchHit();
+        }
 
+        do {
+            if (conditions.isStopRequested()) {
+                return StopReason.STOP_REQUESTED;
+            }
 
-            /** AND - Logical AND ***************************************************/
-            case 0x29: // #Immediate
-                state.a &= state.args[0];
-                setArithmeticFlags(state.a);
-                break;
-            case 0x32: // 65C02 AND (ZP)
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
+            if (state.waiting || state.stopped) {
+                StopReason reason = awaitResume(conditions);
+                if (reason != null) {
+                    return reason;
                 }
-            case 0x21: // (Zero Page,X)
-            case 0x25: // Zero Page
-            case 0x2d: // Absolute
-            case 0x31: // (Zero Page),Y
-            case 0x35: // Zero Page,X
-            case 0x39: // Absolute,Y
-            case 0x3d: // Absolute,X
-                state.a &= bus.read(effectiveAddress, true);
-                setArithmeticFlags(state.a);
-                break;
+            }
 
+            step();
 
-            /** ROL - Rotate Left ***************************************************/
-            case 0x2a: // Accumulator
-                state.a = rol(state.a);
-                setArithmeticFlags(state.a);
-                break;
-            case 0x26: // Zero Page
-            case 0x2e: // Absolute
-            case 0x36: // Zero Page,X
-            case 0x3e: // Absolute,X
-                tmp = rol(bus.read(effectiveAddress, true));
-                bus.write(effectiveAddress, tmp);
-                setArithmeticFlags(tmp);
-                break;
-
-
-            /** EOR - Exclusive OR **************************************************/
-            case 0x49: // #Immediate
-                state.a ^= state.args[0];
-                setArithmeticFlags(state.a);
-                break;
-            case 0x52: // 65C02 EOR (ZP)
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-            case 0x41: // (Zero Page,X)
-            case 0x45: // Zero Page
-            case 0x4d: // Absolute
-            case 0x51: // (Zero Page,Y)
-            case 0x55: // Zero Page,X
-            case 0x59: // Absolute,Y
-            case 0x5d: // Absolute,X
-                state.a ^= bus.read(effectiveAddress, true);
-                setArithmeticFlags(state.a);
-                break;
-
-
-            /** LSR - Logical Shift Right *******************************************/
-            case 0x4a: // Accumulator
-                state.a = lsr(state.a);
-                setArithmeticFlags(state.a);
-                break;
-            case 0x46: // Zero Page
-            case 0x4e: // Absolute
-            case 0x56: // Zero Page,X
-            case 0x5e: // Absolute,X
-                tmp = lsr(bus.read(effectiveAddress, true));
-                bus.write(effectiveAddress, tmp);
-                setArithmeticFlags(tmp);
-                break;
-
+            if (skipIdleLoops && state.pc < state.lastPc && IdleLoopDetector.closesLoop(state.ir)) {
+                idleLoopDetector.branchTaken(state.lastPc, state.pc);
+            }
+
+            if (state.opTrap && conditions.isHaltOnIllegalOpcode()) {
+                return StopReason.ILLEGAL_OPCODE;
+            }
+            if (state.ir == 0x00 && conditions.isHaltOnBrk()) {
+                return StopReason.BRK;
+            }
+            if (conditions.isBreakpoint(state.pc)) {
+                return StopReason.BREAKPOINT;
+            }
+            if (state.pc == state.lastPc && conditions.isHaltOnTrap()) {
+                return StopReason.TRAP;
+            }
+            if (watching && (bus.getWatchHitKind() != 0 || bus.watchExecute(state.pc))) {
+                return StopReason.WATCHPOINT;
+            }
+        } while (state.cycleCounter - endCycle < 0);
+
+        return StopReason.BUDGET_EXHAUSTED;
+    }
 
-            /** ADC - Add with Carry ************************************************/
-            case 0x69: // #Immediate
-                if (state.decimalModeFlag) {
-                    state.a = adcDecimal(state.a, state.args[0]);
-                } else {
-                    state.a = adc(state.a, state.args[0]);
-                }
-                break;
-            case 0x72: // 65C02 ADC (ZP)
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-            case 0x61: // (Zero Page,X)
-            case 0x65: // Zero Page
-            case 0x6d: // Absolute
-            case 0x71: // (Zero Page),Y
-            case 0x75: // Zero Page,X
-            case 0x79: // Absolute,Y
-            case 0x7d: // Absolute,X
-                if (state.decimalModeFlag) {
-                    state.a = adcDecimal(state.a, bus.read(effectiveAddress, true));
-                } else {
-                    state.a = adc(state.a, bus.read(effectiveAddress, true));
+    /*
+     * Wait while the CPU is halted, until an interrupt ends a WAI or a stop is requested.
+     * Device events run as they fall due, and in turbo mode the clock skips straight to
+     * each one. Stop requests are normally accompanied by interrupting the thread; one
+     * made only through the conditions is noticed within a pacing slice.
+     *
+     * @return null if the CPU can resume, or the reason the run must stop instead.
+     */
+    private StopReason awaitResume(StopConditions conditions) {
+        while (!canResume()) {
+            if (conditions.isStopRequested() || Thread.currentThread().isInterrupted()) {
+                return StopReason.STOP_REQUESTED;
+            }
+            if (conditions.isStopWhenBlocked() && (state.stopped ||
+                    (scheduler.nextDeadline() == EventScheduler.NEVER && !scheduler.hasPosted()))) {
+                return StopReason.HALTED;
+            }
+
+            long deadline = scheduler.nextDeadline();
+            if (turboMode && deadline != EventScheduler.NEVER) {
+                state.cycleCounter = Math.max(state.cycleCounter, deadline);
+            } else {
+                synchronized (interruptLock) {
+                    if (!canResume() && !scheduler.hasPosted()) {
+                        try {
+                            interruptLock.wait(haltedWaitMillis(deadline));
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
                 }
-                break;
-
-
-            /** ROR - Rotate Right **************************************************/
-            case 0x6a: // Accumulator
-                state.a = ror(state.a);
-                setArithmeticFlags(state.a);
-                break;
-            case 0x66: // Zero Page
-            case 0x6e: // Absolute
-            case 0x76: // Zero Page,X
-            case 0x7e: // Absolute,X
-                tmp = ror(bus.read(effectiveAddress, true));
-                bus.write(effectiveAddress, tmp);
-                setArithmeticFlags(tmp);
-                break;
-
+                countIdleCycles();
+            }
 
-            /** STA - Store Accumulator *********************************************/
-            case 0x92: // 65C02 STA (ZP)
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-            case 0x81: // (Zero Page,X)
-            case 0x85: // Zero Page
-            case 0x8d: // Absolute
-            case 0x91: // (Zero Page),Y
-            case 0x95: // Zero Page,X
-            case 0x99: // Absolute,Y
-            case 0x9d: // Absolute,X
-                bus.write(effectiveAddress, state.a);
-                break;
+            scheduler.runPosted();
+            scheduler.runDue(state.cycleCounter);
+        }
+        return null;
+    }
 
+    private boolean canResume() {
+        return state.waiting && (state.nmiAsserted || state.irqAsserted);
+    }
 
-            /** STY - Store Y Register **********************************************/
-            case 0x84: // Zero Page
-            case 0x8c: // Absolute
-            case 0x94: // Zero Page,X
-                bus.write(effectiveAddress, state.y);
-                break;
+    /*
+     * How long a halted CPU waits before checking again: until the next device event is
+     * due on the paced clock, and no longer than a pacing slice.
+     */
+    private long haltedWaitMillis(long deadline) {
+        long nanos = PACING_SLICE_IN_NS;
+        if (!turboMode && deadline != EventScheduler.NEVER) {
+            double cycleNanos = (double) NANOS_PER_SECOND_IN_MILLIHZ / clockRateInMilliHz;
+            long due = paceDeadline + (long) ((deadline - paceCycles) * cycleNanos);
+            nanos = Math.min(nanos, due - pacingClock.nanoTime());
+        }
+        return Math.max(1L, nanos / 1000000L);
+    }
 
+    /*
+     * Wake a halted CPU, for example to run an event posted by another thread.
+     */
+    private void wake() {
+        synchronized (interruptLock) {
+            interruptLock.notifyAll();
+        }
+    }
 
-            /** STX - Store X Register **********************************************/
-            case 0x86: // Zero Page
-            case 0x8e: // Absolute
-            case 0x96: // Zero Page,Y
-                bus.write(effectiveAddress, state.x);
-                break;
+    /*
+     * Count the clock cycles that passed on the wall clock while the CPU was halted, so
+     * that pacing carries on from the present instead of running flat out to catch up. In
+     * turbo mode idle time is skipped entirely.
+     */
+    private void countIdleCycles() {
+        if (turboMode) {
+            return;
+        }
 
-            /** STZ - 65C02 Store Zero ****************************************************/
-            case 0x64: // Zero Page
-            case 0x74: // Zero Page,X
-            case 0x9c: // Absolute
-            case 0x9e: // Absolute,X
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                bus.write(effectiveAddress, 0);
-                break;
+        long elapsed = pacingClock.nanoTime() - paceDeadline;
+        long idle = (long) (elapsed * ((double) clockRateInMilliHz / NANOS_PER_SECOND_IN_MILLIHZ)) -
+                    (state.cycleCounter - paceCycles);
+        if (idle > 0) {
+            state.cycleCounter += idle;
+            advancePaceDeadline();
+            paceSliceEnd = state.cycleCounter + pacingSliceCycles();
+        }
+    }
 
-            /** LDY - Load Y Register ***********************************************/
-            case 0xa0: // #Immediate
-                state.y = state.args[0];
-                setArithmeticFlags(state.y);
-                break;
-            case 0xa4: // Zero Page
-            case 0xac: // Absolute
-            case 0xb4: // Zero Page,X
-            case 0xbc: // Absolute,X
-                state.y = bus.read(effectiveAddress, true);
-                setArithmeticFlags(state.y);
-                break;
+    /*
+     * Account for instructions the idle loop detector has skipped, and the cycles they
+     * would have taken.
+     */
+    void skipCycles(long cycles, long instructions) {
+        state.stepCounter += instructions;
+        delayCycles(cycles);
+    }
 
+    private void handleBrk(int returnPc) throws MemoryAccessException {
+        handleInterrupt(returnPc, IRQ_VECTOR_L, IRQ_VECTOR_H, true);
+        clearIrq();
+    }
 
-            /** LDX - Load X Register ***********************************************/
-            case 0xa2: // #Immediate
-                state.x = state.args[0];
-                setArithmeticFlags(state.x);
-                break;
-            case 0xa6: // Zero Page
-            case 0xae: // Absolute
-            case 0xb6: // Zero Page,Y
-            case 0xbe: // Absolute,Y
-                state.x = bus.read(effectiveAddress, true);
-                setArithmeticFlags(state.x);
-                break;
+    private void handleIrq(int returnPc) throws MemoryAccessException {
+        handleInterrupt(returnPc, IRQ_VECTOR_L, IRQ_VECTOR_H, false);
+        clearIrq();
+    }
 
+    private void handleNmi() throws MemoryAccessException {
+        handleInterrupt(state.pc, NMI_VECTOR_L, NMI_VECTOR_H, false);
+        clearNmi();
+    }
 
-            /** LDA - Load Accumulator **********************************************/
-            case 0xa9: // #Immediate
-                state.a = state.args[0];
-                setArithmeticFlags(state.a);
-                break;
-            case 0xb2: // 65C02 LDA (ZP)
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-            case 0xa1: // (Zero Page,X)
-            case 0xa5: // Zero Page
-            case 0xad: // Absolute
-            case 0xb1: // (Zero Page),Y
-            case 0xb5: // Zero Page,X
-            case 0xb9: // Absolute,Y
-            case 0xbd: // Absolute,X
-                state.a = bus.read(effectiveAddress, true);
-                setArithmeticFlags(state.a);
-                break;
+    /**
+     * Handle the common behavior of BRK, /IRQ, and /NMI
+     *
+     * @throws MemoryAccessException
+     */
+    private void handleInterrupt(int returnPc, int vectorLow, int vectorHigh, boolean isBreak) throws MemoryAccessException {
 
+        if (isBreak)
+        {
+            // Set the break flag before pushing.
+            setBreakFlag();
+        }
+        else
+        {
+            // IRQ & NMI clear break flag
+            clearBreakFlag();
+        }
 
-            /** CPY - Compare Y Register ********************************************/
-            case 0xc0: // #Immediate
-                cmp(state.y, state.args[0]);
-                break;
-            case 0xc4: // Zero Page
-            case 0xcc: // Absolute
-                cmp(state.y, bus.read(effectiveAddress, true));
-                break;
+        // Push program counter + 1 onto the stack
+        stackPush((returnPc >> 8) & 0xff); // PC high byte
+        stackPush(returnPc & 0xff);        // PC low byte
+        stackPush(state.getStatusFlag());
+        // Set the Interrupt Disabled flag.  RTI will clear it.
+        setIrqDisableFlag();
 
+        // 65C02 & 65816 clear Decimal flag after pushing Processor status to the stack
+        if (isCmos(behavior)) {
+            clearDecimalModeFlag();
+        }
 
-            /** CMP - Compare Accumulator *******************************************/
-            case 0xc9: // #Immediate
-                cmp(state.a, state.args[0]);
-                break;
-            case 0xd2: // 65C02 CMP (ZP)
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-            case 0xc1: // (Zero Page,X)
-            case 0xc5: // Zero Page
-            case 0xcd: // Absolute
-            case 0xd1: // (Zero Page),Y
-            case 0xd5: // Zero Page,X
-            case 0xd9: // Absolute,Y
-            case 0xdd: // Absolute,X
-                cmp(state.a, bus.read(effectiveAddress, true));
-                break;
+        // Load interrupt vector address into PC
+        state.pc = Utils.address(bus.read(vectorLow, true), bus.read(vectorHigh, true));
+    }
 
+    /*
+     * Operand and effective address resolution, used by the dispatch table. Each
+     * addressing mode reads the operand bytes fetched into the CPU state by step().
+     */
 
-            /** DEC - Decrement Memory **********************************************/
-            case 0x3a: // 65C02 Immediate
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                state.a = --state.a & 0xFF;
-                setArithmeticFlags(state.a);
-                break;
-            case 0xc6: // Zero Page
-            case 0xce: // Absolute
-            case 0xd6: // Zero Page,X
-            case 0xde: // Absolute,X
-                tmp = (bus.read(effectiveAddress, true) - 1) & 0xff;
-                bus.write(effectiveAddress, tmp);
-                setArithmeticFlags(tmp);
-                break;
+    /**
+     * @return The #Immediate operand.
+     */
+    int immediate() {
+        return state.arg0;
+    }
 
+    /**
+     * @return The Zero Page effective address.
+     */
+    int zeroPageAddress() {
+        return state.arg0;
+    }
 
-            /** CPX - Compare X Register ********************************************/
-            case 0xe0: // #Immediate
-                cmp(state.x, state.args[0]);
-                break;
-            case 0xe4: // Zero Page
-            case 0xec: // Absolute
-                cmp(state.x, bus.read(effectiveAddress, true));
-                break;
+    /**
+     * @return The Zero Page,X effective address.
+     */
+    int zeroPageXAddress() {
+        return zpxAddress(state.arg0);
+    }
 
+    /**
+     * @return The Zero Page,Y effective address.
+     */
+    int zeroPageYAddress() {
+        return zpyAddress(state.arg0);
+    }
 
-            /** SBC - Subtract with Carry (Borrow) **********************************/
-            case 0xe9: // #Immediate
-                if (state.decimalModeFlag) {
-                    state.a = sbcDecimal(state.a, state.args[0]);
-                } else {
-                    state.a = sbc(state.a, state.args[0]);
-                }
-                break;
-            case 0xf2: // 65C02 SBC (ZP)
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-            case 0xe1: // (Zero Page,X)
-            case 0xe5: // Zero Page
-            case 0xed: // Absolute
-            case 0xf1: // (Zero Page),Y
-            case 0xf5: // Zero Page,X
-            case 0xf9: // Absolute,Y
-            case 0xfd: // Absolute,X
-                if (state.decimalModeFlag) {
-                    state.a = sbcDecimal(state.a, bus.read(effectiveAddress, true));
-                } else {
-                    state.a = sbc(state.a, bus.read(effectiveAddress, true));
-                }
-                break;
+    /**
+     * @return The Absolute effective address.
+     */
+    int absoluteAddress() {
+        return Utils.address(state.arg0, state.arg1);
+    }
 
+    /**
+     * @return The Absolute,X effective address.
+     */
+    int absoluteXAddress() {
+        return xAddress(state.arg0, state.arg1);
+    }
 
-            /** INC - Increment Memory **********************************************/
-            case 0x1a: // 65C02 Increment Immediate
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                state.a = ++state.a & 0xff;
-                setArithmeticFlags(state.a);
-                break;
-            case 0xe6: // Zero Page
-            case 0xee: // Absolute
-            case 0xf6: // Zero Page,X
-            case 0xfe: // Absolute,X
-                tmp = (bus.read(effectiveAddress, true) + 1) & 0xff;
-                bus.write(effectiveAddress, tmp);
-                setArithmeticFlags(tmp);
-                break;
+    /**
+     * @return The Absolute,Y effective address.
+     */
+    int absoluteYAddress() {
+        return yAddress(state.arg0, state.arg1);
+    }
 
+    /**
+     * @return The Absolute,X effective address, for an instruction that takes an extra
+     *         cycle when adding X carries into the high byte.
+     */
+    int absoluteXReadAddress() {
+        return indexed(absoluteAddress(), state.x);
+    }
 
-            /** 65C02 RMB - Reset Memory Bit **************************************/
-            case 0x07: // 65C02 RMB0 - Zero Page
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                tmp = bus.read(effectiveAddress, true) & 0xff;
-                tmp &= ~(1 << 0);
-                bus.write(effectiveAddress, tmp);
-                break;
-            case 0x17: // 65C02 RMB1 - Zero Page
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                tmp = bus.read(effectiveAddress, true) & 0xff;
-                tmp &= ~(1 << 1);
-                bus.write(effectiveAddress, tmp);
-                break;
-            case 0x27: // 65C02 RMB2 - Zero Page
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                tmp = bus.read(effectiveAddress, true) & 0xff;
-                tmp &= ~(1 << 2);
-                bus.write(effectiveAddress, tmp);
-                break;
-            case 0x37: // 65C02 RMB3 - Zero Page
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                tmp = bus.read(effectiveAddress, true) & 0xff;
-                tmp &= ~(1 << 3);
-                bus.write(effectiveAddress, tmp);
-                break;
-            case 0x47: // 65C02 RMB4 - Zero Page
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                tmp = bus.read(effectiveAddress, true) & 0xff;
-                tmp &= ~(1 << 4);
-                bus.write(effectiveAddress, tmp);
-                break;
-            case 0x57: // 65C02 RMB5 - Zero Page
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                tmp = bus.read(effectiveAddress, true) & 0xff;
-                tmp &= ~(1 << 5);
-                bus.write(effectiveAddress, tmp);
-                break;
-            case 0x67: // 65C02 RMB6 - Zero Page
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                tmp = bus.read(effectiveAddress, true) & 0xff;
-                tmp &= ~(1 << 6);
-                bus.write(effectiveAddress, tmp);
-                break;
-            case 0x77: // 65C02 RMB7 - Zero Page
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                tmp = bus.read(effectiveAddress, true) & 0xff;
-                tmp &= ~(1 << 7);
-                bus.write(effectiveAddress, tmp);
-                break;
+    /**
+     * @return The Absolute,Y effective address, for an instruction that takes an extra
+     *         cycle when adding Y carries into the high byte.
+     */
+    int absoluteYReadAddress() {
+        return indexed(absoluteAddress(), state.y);
+    }
 
+    /**
+     * @return The (Zero Page,X) effective address.
+     */
+    int indexedIndirectAddress() throws MemoryAccessException {
+        int tmp = (state.arg0 + state.x) & 0xff;
+        return Utils.address(bus.read(tmp, true), bus.read(tmp + 1, true));
+    }
 
-            /** 65C02 SMB - Set Memory Bit **************************************/
-            case 0x87: // 65C02 SMB0 - Zero Page
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                tmp = bus.read(effectiveAddress, true) & 0xff;
-                tmp |= (1);
-                bus.write(effectiveAddress, tmp);
-                break;
-            case 0x97: // 65C02 SMB1 - Zero Page
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                tmp = bus.read(effectiveAddress, true) & 0xff;
-                tmp |= (1 << 1);
-                bus.write(effectiveAddress, tmp);
-                break;
-            case 0xa7: // 65C02 SMB2 - Zero Page
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                tmp = bus.read(effectiveAddress, true) & 0xff;
-                tmp |= (1 << 2);
-                bus.write(effectiveAddress, tmp);
-                break;
-            case 0xb7: // 65C02 SMB3 - Zero Page
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                tmp = bus.read(effectiveAddress, true) & 0xff;
-                tmp |= (1 << 3);
-                bus.write(effectiveAddress, tmp);
-                break;
-            case 0xc7: // 65C02 SMB4 - Zero Page
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                tmp = bus.read(effectiveAddress, true) & 0xff;
-                tmp |= (1 << 4);
-                bus.write(effectiveAddress, tmp);
-                break;
-            case 0xd7: // 65C02 SMB5 - Zero Page
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                tmp = bus.read(effectiveAddress, true) & 0xff;
-                tmp |= (1 << 5);
-                bus.write(effectiveAddress, tmp);
-                break;
-            case 0xe7: // 65C02 SMB6 - Zero Page
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                tmp = bus.read(effectiveAddress, true) & 0xff;
-                tmp |= (1 << 6);
-                bus.write(effectiveAddress, tmp);
-                break;
-            case 0xf7: // 65C02 SMB7 - Zero Page
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                tmp = bus.read(effectiveAddress, true) & 0xff;
-                tmp |= (1 << 7);
-                bus.write(effectiveAddress, tmp);
-                break;
+    /**
+     * @return The (Zero Page),Y effective address.
+     */
+    int indirectIndexedAddress() throws MemoryAccessException {
+        int tmp = Utils.address(bus.read(state.arg0, true),
+                                bus.read((state.arg0 + 1) & 0xff, true));
+        return (tmp + state.y) & 0xffff;
+    }
 
-            /** 65C02 TRB/TSB - Test and Reset Bit/Test and Set Bit ***************/
-            case 0x14: // 65C02 TRB - Test and Reset bit - Zero Page
-            case 0x1c: // 65C02 TRB - Test and Reset bit - Absolute
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                tmp = bus.read(effectiveAddress, true);
-                setZeroFlag((state.a & tmp) == 0);
-                tmp = (tmp &= ~(state.a)) & 0xff;
-                bus.write(effectiveAddress,tmp);
-                break;
+    /**
+     * @return The (Zero Page),Y effective address, for an instruction that takes an extra
+     *         cycle when adding Y carries into the high byte.
+     */
+    int indirectIndexedReadAddress() throws MemoryAccessException {
+        return indexed(zeroPageIndirectAddress(), state.y);
+    }
 
-            case 0x04: // 65C02 TSB - Test and Set bit - Zero Page
-            case 0x0c: // 65C02 TSB - Test and Set bit - Absolute
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                tmp = bus.read(effectiveAddress, true);
-                setZeroFlag((state.a & tmp) == 0);
-                tmp = (tmp |= (state.a)) & 0xff;
-                bus.write(effectiveAddress,tmp);
-                break;
+    /**
+     * Index a base address, counting the cycle taken to fix up the high byte if the index
+     * crosses a page.
+     */
+    private int indexed(int base, int index) {
+        int address = (base + index) & 0xffff;
+        if (((base ^ address) & 0xff00) != 0) {
+            penaltyCycles++;
+        }
+        return address;
+    }
 
-            /** 65C02 BBR - Branch if Bit Reset *************************************/
-            case 0x0f: // 65C02 BBR - Branch if bit 0 reset - Zero Page
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                tmp = bus.read(effectiveAddress, true);
-                if ((tmp & 1 << 0) == 0) {
-                    state.pc = relAddress(state.args[1]);
-                }
-                break;
+    /**
+     * @return The 65C02 (Zero Page) effective address.
+     */
+    int zeroPageIndirectAddress() throws MemoryAccessException {
+        return Utils.address(bus.read(state.arg0, true),
+                             bus.read((state.arg0 + 1) & 0xff, true));
+    }
 
-            case 0x1f: // 65C02 BBR - Branch if bit 1 reset - Zero Page
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                tmp = bus.read(effectiveAddress, true);
-                if ((tmp & 1 << 1) == 0) {
-                    state.pc = relAddress(state.args[1]);
-                }
-                break;
+    int read(int address) throws MemoryAccessException {
+        return bus.read(address, true);
+    }
 
-            case 0x2f: // 65C02 BBR - Branch if bit 2 reset - Zero Page
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                tmp = bus.read(effectiveAddress, true);
-                if ((tmp & 1 << 2) == 0) {
-                    state.pc = relAddress(state.args[1]);
-                }
-                break;
+    void write(int address, int data) throws MemoryAccessException {
+        bus.write(address, data);
+    }
 
-            case 0x3f: // 65C02 BBR - Branch if bit 3 reset - Zero Page
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                tmp = bus.read(effectiveAddress, true);
-                if ((tmp & 1 << 3) == 0) {
-                    state.pc = relAddress(state.args[1]);
-                }
-                break;
+    /*
+     * Instruction implementations shared by several opcodes, used by the dispatch table.
+     */
 
-            case 0x4f: // 65C02 BBR - Branch if bit 4 reset - Zero Page
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                tmp = bus.read(effectiveAddress, true);
-                if ((tmp & 1 << 4) == 0) {
-                    state.pc = relAddress(state.args[1]);
-                }
-                break;
+    void brk() throws MemoryAccessException {
+        handleBrk(state.pc + 1);
+    }
 
+    void wai() {
+        state.waiting = true;
+    }
 
-            case 0x5f: // 65C02 BBR - Branch if bit 5 reset - Zero Page
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                tmp = bus.read(effectiveAddress, true);
-                if ((tmp & 1 << 5) == 0) {
-                    state.pc = relAddress(state.args[1]);
-                }
-                break;
+    void stp() {
+        state.stopped = true;
+    }
 
-            case 0x6f: // 65C02 BBR - Branch if bit 6 reset - Zero Page
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                tmp = bus.read(effectiveAddress, true);
-                if ((tmp & 1 << 6) == 0) {
-                    state.pc = relAddress(state.args[1]);
-                }
-                break;
+    void php() throws MemoryAccessException {
+        // Break flag is always set in the stack value.
+        stackPush(state.getStatusFlag() | 0x10);
+    }
 
-            case 0x7f: // 65C02 BBR - Branch if bit 5 reset - Zero Page
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                tmp = bus.read(effectiveAddress, true);
-                if ((tmp & 1 << 7) == 0) {
-                    state.pc = relAddress(state.args[1]);
-                }
-                break;
+    void jsr() throws MemoryAccessException {
+        stackPush((state.pc - 1 >> 8) & 0xff); // PC high byte
+        stackPush(state.pc - 1 & 0xff);        // PC low byte
+        state.pc = Utils.address(state.arg0, state.arg1);
+    }
 
+    void rti() throws MemoryAccessException {
+        setProcessorStatus(stackPop());
+        int lo = stackPop();
+        int hi = stackPop();
+        setProgramCounter(Utils.address(lo, hi));
+    }
 
-            /** 65C02 BBS - Branch if Bit Set  ************************************/
-            case 0x8f: // 65C02 BBS - Branch if bit 0 set - Zero Page
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                tmp = bus.read(effectiveAddress, true);
-                if ((tmp & 1 << 0) > 0) {
-                    state.pc = relAddress(state.args[1]);
-                }
-                break;
+    void rts() throws MemoryAccessException {
+        int lo = stackPop();
+        int hi = stackPop();
+        setProgramCounter((Utils.address(lo, hi) + 1) & 0xffff);
+    }
 
-            case 0x9f: // 65C02 BBS - Branch if bit 1 set - Zero Page
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                tmp = bus.read(effectiveAddress, true);
-                if ((tmp & 1 << 1) > 0) {
-                    state.pc = relAddress(state.args[1]);
-                }
-                break;
+    void jump(int address) {
+        state.pc = address;
+    }
 
-            case 0xaf: // 65C02 BBS - Branch if bit 2 set - Zero Page
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                tmp = bus.read(effectiveAddress, true);
-                if ((tmp & 1 << 2) > 0) {
-                    state.pc = relAddress(state.args[1]);
-                }
-                break;
+    /**
+     * JMP (Indirect) as implemented by the 65C02, which correctly fetches the high
+     * byte of the target from the next page when the vector is at $xxFF.
+     */
+    void jmpIndirect() throws MemoryAccessException {
+        int lo = Utils.address(state.arg0, state.arg1);
+        state.pc = Utils.address(bus.read(lo, true), bus.read(lo + 1, true));
+    }
 
-            case 0xbf: // 65C02 BBS - Branch if bit 3 set - Zero Page
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                tmp = bus.read(effectiveAddress, true);
-                if ((tmp & 1 << 3) > 0) {
-                    state.pc = relAddress(state.args[1]);
-                }
-                break;
+    /**
+     * JMP (Indirect) as implemented by the NMOS 6502:
+     *
+     * "An original 6502 has does not correctly fetch the target
+     * address if the indirect vector falls on a page boundary
+     * (e.g. $xxFF where xx is and value from $00 to $FF). In this
+     * case fetches the LSB from $xxFF as expected but takes the MSB
+     * from $xx00. This is fixed in some later chips like the 65SC02
+     * so for compatibility always ensure the indirect vector is not
+     * at the end of the page."
+     * (http://www.obelisk.demon.co.uk/6502/reference.html#JMP)
+     */
+    void jmpIndirectWithPageBug() throws MemoryAccessException {
+        int lo = Utils.address(state.arg0, state.arg1);
+        int hi = (state.arg0 == 0xff) ? Utils.address(0x00, state.arg1) : lo + 1;
+        state.pc = Utils.address(bus.read(lo, true), bus.read(hi, true));
+    }
 
+    void jmpIndexedIndirect() throws MemoryAccessException {
+        int lo = (((state.arg1 << 8) | state.arg0) + state.x) & 0xffff;
+        state.pc = Utils.address(bus.read(lo, true), bus.read(lo + 1, true));
+    }
 
-            case 0xcf: // 65C02 BBS - Branch if bit 4 set - Zero Page
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                tmp = bus.read(effectiveAddress, true);
-                if ((tmp & 1 << 4) > 0) {
-                    state.pc = relAddress(state.args[1]);
-                }
-                break;
+    /**
+     * Conditional branch. Taking the branch costs a cycle, and another if the target is
+     * on a different page from the next instruction.
+     */
+    void branch(boolean condition) {
+        if (condition) {
+            penaltyCycles++;
+            branchTo(state.arg0);
+        }
+    }
 
+    /**
+     * 65C02 BRA, whose base timing already includes taking the branch.
+     */
+    void branchAlways() {
+        branchTo(state.arg0);
+    }
 
-            case 0xdf: // 65C02 BBS - Branch if bit 5 set - Zero Page
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                tmp = bus.read(effectiveAddress, true);
-                if ((tmp & 1 << 5) > 0) {
-                    state.pc = relAddress(state.args[1]);
-                }
-                break;
+    /**
+     * 65C02 BBR/BBS: test a bit at a zero page address and branch with the second operand.
+     * The branch costs cycles as a conditional branch does.
+     */
+    void branchOnBit(int address, int bit, boolean set) throws MemoryAccessException {
+        int tmp = bus.read(address, true);
+        if (((tmp & (1 << bit)) != 0) == set) {
+            penaltyCycles++;
+            branchTo(state.arg1);
+        }
+    }
 
-            case 0xef: // 65C02 BBS - Branch if bit 6 set - Zero Page
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                tmp = bus.read(effectiveAddress, true);
-                if ((tmp & 1 << 6) > 0) {
-                    state.pc = relAddress(state.args[1]);
-                }
-                break;
+    private void branchTo(int offset) {
+        int target = relAddress(offset);
+        if (((state.pc ^ target) & 0xff00) != 0) {
+            penaltyCycles++;
+        }
+        state.pc = target;
+    }
 
-            case 0xff: // 65C02 BBS - Branch if bit 5 set - Zero Page
-                if (behavior == CpuBehavior.NMOS_6502 ||
-                    behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                    break;
-                }
-                tmp = bus.read(effectiveAddress, true);
-                if ((tmp & 1 << 7) > 0) {
-                    state.pc = relAddress(state.args[1]);
-                }
-                break;
+    void lda(int value) {
+        state.a = value;
+        setArithmeticFlags(state.a);
+    }
 
+    void ldx(int value) {
+        state.x = value;
+        setArithmeticFlags(state.x);
+    }
 
-            /** Unimplemented Instructions ****************************************/
-            // TODO: Create a flag to enable highly-accurate emulation of unimplemented instructions.
-            default:
-                setOpTrap();
-                break;
-        }
+    void ldy(int value) {
+        state.y = value;
+        setArithmeticFlags(state.y);
+    }
 
-        delayLoop(state.ir);
+    void ora(int operand) {
+        state.a |= operand;
+        setArithmeticFlags(state.a);
+    }
 
-        // Peek ahead to the next insturction and arguments
-        peekAhead();
+    void and(int operand) {
+        state.a &= operand;
+        setArithmeticFlags(state.a);
     }
 
-    private void peekAhead() throws MemoryAccessException {
-        state.nextIr = bus.read(state.pc, true);
-        int nextInstSize = Cpu.instructionSizes[state.nextIr];
-        for (int i = 1; i < nextInstSize; i++) {
-            int nextRead = (state.pc + i) % bus.endAddress();
-            state.nextArgs[i-1] = bus.read(nextRead, true);
-        }
+    void eor(int operand) {
+        state.a ^= operand;
+        setArithmeticFlags(state.a);
     }
 
-    private void handleBrk(int returnPc) throws MemoryAccessException {
-        handleInterrupt(returnPc, IRQ_VECTOR_L, IRQ_VECTOR_H, true);
-        clearIrq();
+    void bit(int operand) {
+        state.setNZ((operand & 0x80) != 0, (state.a & operand) == 0);
+        setOverflowFlag((operand & 0x40) != 0);
     }
 
-    private void handleIrq(int returnPc) throws MemoryAccessException {
-        handleInterrupt(returnPc, IRQ_VECTOR_L, IRQ_VECTOR_H, false);
-        clearIrq();
+    void addWithCarry(int operand) {
+        if ((state.p & P_DECIMAL) != 0) {
+            penaltyCycles += decimalPenalty;
+            state.a = applyAlu(adcDecimalTable[Alu.index(state.p & P_CARRY, state.a, operand)]);
+        } else {
+            state.a = applyAlu(Alu.ADC[Alu.index(state.p & P_CARRY, state.a, operand)]);
+        }
     }
 
-    private void handleNmi() throws MemoryAccessException {
-        handleInterrupt(state.pc, NMI_VECTOR_L, NMI_VECTOR_H, false);
-        clearNmi();
+    void subtractWithCarry(int operand) {
+        if ((state.p & P_DECIMAL) != 0) {
+            penaltyCycles += decimalPenalty;
+            state.a = applyAlu(sbcDecimalTable[Alu.index(state.p & P_CARRY, state.a, operand)]);
+        } else {
+            // Binary subtraction is addition of the one's complement of the operand
+            state.a = applyAlu(Alu.ADC[Alu.index(state.p & P_CARRY, state.a, ~operand)]);
+        }
     }
 
     /**
-     * Handle the common behavior of BRK, /IRQ, and /NMI
+     * Load the flags from a packed {@link Alu} table entry.
      *
-     * @throws MemoryAccessException
+     * @return The result byte of the entry.
      */
-    private void handleInterrupt(int returnPc, int vectorLow, int vectorHigh, boolean isBreak) throws MemoryAccessException {
+    private int applyAlu(int entry) {
+        state.p = (state.p & ~Alu.FLAGS_MASK) | (entry >>> Alu.FLAGS_SHIFT);
+        state.nz = (entry >> 8) & 0xff;
+        return entry & 0xff;
+    }
 
-        if (isBreak)
-        {
-            // Set the break flag before pushing.
-            setBreakFlag();
-        }
-        else
-        {
-            // IRQ & NMI clear break flag
-            clearBreakFlag();
-        }
+    void aslMemory(int address) throws MemoryAccessException {
+        storeWithFlags(address, asl(bus.read(address, true)));
+    }
 
-        // Push program counter + 1 onto the stack
-        stackPush((returnPc >> 8) & 0xff); // PC high byte
-        stackPush(returnPc & 0xff);        // PC low byte
-        stackPush(state.getStatusFlag());
-        // Set the Interrupt Disabled flag.  RTI will clear it.
-        setIrqDisableFlag();
+    void lsrMemory(int address) throws MemoryAccessException {
+        storeWithFlags(address, lsr(bus.read(address, true)));
+    }
 
-        // 65C02 & 65816 clear Decimal flag after pushing Processor status to the stack
-        if (behavior == CpuBehavior.CMOS_6502||
-            behavior == CpuBehavior.CMOS_65816) {
-            clearDecimalModeFlag();
-        }
+    void rolMemory(int address) throws MemoryAccessException {
+        storeWithFlags(address, rol(bus.read(address, true)));
+    }
 
-        // Load interrupt vector address into PC
-        state.pc = Utils.address(bus.read(vectorLow, true), bus.read(vectorHigh, true));
+    void rorMemory(int address) throws MemoryAccessException {
+        storeWithFlags(address, ror(bus.read(address, true)));
     }
 
-    /**
-     * Add with Carry, used by all addressing mode implementations of ADC.
-     * As a side effect, this will set the overflow and carry flags as
-     * needed.
-     *
-     * @param acc     The current value of the accumulator
-     * @param operand The operand
-     * @return The sum of the accumulator and the operand
-     */
-    private int adc(int acc, int operand) {
-        int result = (operand & 0xff) + (acc & 0xff) + getCarryBit();
-        int carry6 = (operand & 0x7f) + (acc & 0x7f) + getCarryBit();
-        setCarryFlag((result & 0x100) != 0);
-        setOverflowFlag(state.carryFlag ^ ((carry6 & 0x80) != 0));
-        result &= 0xff;
-        setArithmeticFlags(result);
-        return result;
+    void incMemory(int address) throws MemoryAccessException {
+        storeWithFlags(address, (bus.read(address, true) + 1) & 0xff);
     }
 
-    /**
-     * Add with Carry (BCD).
-     */
+    void decMemory(int address) throws MemoryAccessException {
+        storeWithFlags(address, (bus.read(address, true) - 1) & 0xff);
+    }
 
-    private int adcDecimal(int acc, int operand) {
-        int l, h, result;
-        l = (acc & 0x0f) + (operand & 0x0f) + getCarryBit();
-        if ((l & 0xff) > 9) l += 6;
-        h = (acc >> 4) + (operand >> 4) + (l > 15 ? 1 : 0);
-        if ((h & 0xff) > 9) h += 6;
-        result = (l & 0x0f) | (h << 4);
-        result &= 0xff;
-        setCarryFlag(h > 15);
-        setZeroFlag(result == 0);
-        setOverflowFlag(false); // BCD never sets overflow flag
+    private void storeWithFlags(int address, int value) throws MemoryAccessException {
+        bus.write(address, value);
+        setArithmeticFlags(value);
+    }
 
-        if (behavior == CpuBehavior.NMOS_6502||
-            behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                setNegativeFlag(false); // BCD is never negative on NMOS 6502
-        }
-        else {
-            state.negativeFlag = (result & 0x80) != 0; // N Flag is valid on CMOS 6502/65816
-        }
-        return result;
+    /**
+     * 65C02 TRB - Test and Reset Bits
+     */
+    void trb(int address) throws MemoryAccessException {
+        int tmp = bus.read(address, true);
+        setZeroFlag((state.a & tmp) == 0);
+        bus.write(address, tmp & ~state.a & 0xff);
     }
 
     /**
-     * Common code for Subtract with Carry.  Just calls ADC of the
-     * one's complement of the operand.  This lets the N, V, C, and Z
-     * flags work out nicely without any additional logic.
+     * 65C02 TSB - Test and Set Bits
      */
-    private int sbc(int acc, int operand) {
-        int result;
-        result = adc(acc, ~operand);
-        setArithmeticFlags(result);
-        return result;
+    void tsb(int address) throws MemoryAccessException {
+        int tmp = bus.read(address, true);
+        setZeroFlag((state.a & tmp) == 0);
+        bus.write(address, (tmp | state.a) & 0xff);
     }
 
     /**
-     * Subtract with Carry, BCD mode.
+     * 65C02 RMB - Reset Memory Bit
      */
-    private int sbcDecimal(int acc, int operand) {
-        int l, h, result;
-        l = (acc & 0x0f) - (operand & 0x0f) - (state.carryFlag ? 0 : 1);
-        if ((l & 0x10) != 0) l -= 6;
-        h = (acc >> 4) - (operand >> 4) - ((l & 0x10) != 0 ? 1 : 0);
-        if ((h & 0x10) != 0) h -= 6;
-        result = (l & 0x0f) | (h << 4) & 0xff;
-        setCarryFlag((h & 0xff) < 15);
-        setZeroFlag(result == 0);
-        setOverflowFlag(false); // BCD never sets overflow flag
+    void rmb(int address, int bit) throws MemoryAccessException {
+        bus.write(address, bus.read(address, true) & ~(1 << bit) & 0xff);
+    }
 
-        if (behavior == CpuBehavior.NMOS_6502||
-            behavior == CpuBehavior.NMOS_WITH_ROR_BUG) {
-                setNegativeFlag(false); // BCD is never negative on NMOS 6502
-        }
-        else {
-            state.negativeFlag = (result & 0x80) != 0; // N Flag is valid on CMOS 6502/65816
-        }
-        return (result & 0xff);
+    /**
+     * 65C02 SMB - Set Memory Bit
+     */
+    void smb(int address, int bit) throws MemoryAccessException {
+        bus.write(address, (bus.read(address, true) | (1 << bit)) & 0xff);
     }
 
     /**
      * Compare two values, and set carry, zero, and negative flags
      * appropriately.
      */
-    private void cmp(int reg, int operand) {
-        int tmp = (reg - operand) & 0xff;
-        setCarryFlag(reg >= operand);
-        setZeroFlag(tmp == 0);
-        setNegativeFlag((tmp & 0x80) != 0); // Negative bit set
+    void cmp(int reg, int operand) {
+        // reg - operand, as reg + ~operand + 1, leaving the overflow flag alone
+        int entry = Alu.ADC[Alu.index(1, reg, ~operand)];
+        state.p = (state.p & ~P_CARRY) | ((entry >>> Alu.FLAGS_SHIFT) & P_CARRY);
+        state.nz = (entry >> 8) & 0xff;
     }
 
     /**
      * Set the Negative and Zero flags based on the current value of the
      * register operand.
      */
-    private void setArithmeticFlags(int reg) {
-        state.zeroFlag = (reg == 0);
-        state.negativeFlag = (reg & 0x80) != 0;
+    void setArithmeticFlags(int reg) {
+        state.nz = reg & 0xff;
     }
 
     /**
@@ -1405,8 +965,8 @@ public class Cpu implements InstructionTable {
      * @param m The value to shift left.
      * @return the left shifted value (m * 2).
      */
-    private int asl(int m) {
-        setCarryFlag((m & 0x80) != 0);
+    int asl(int m) {
+        state.p = (state.p & ~P_CARRY) | ((m >> 7) & P_CARRY);
         return (m << 1) & 0xff;
     }
 
@@ -1414,8 +974,8 @@ public class Cpu implements InstructionTable {
      * Shifts the given value right by one bit, filling with zeros,
      * and sets the carry flag to the low bit of the initial value.
      */
-    private int lsr(int m) {
-        setCarryFlag((m & 0x01) != 0);
+    int lsr(int m) {
+        state.p = (state.p & ~P_CARRY) | (m & P_CARRY);
         return (m & 0xff) >>> 1;
     }
 
@@ -1424,9 +984,9 @@ public class Cpu implements InstructionTable {
      * of the carry flag, and setting the carry flag to the original value
      * of bit 7.
      */
-    private int rol(int m) {
+    int rol(int m) {
         int result = ((m << 1) | getCarryBit()) & 0xff;
-        setCarryFlag((m & 0x80) != 0);
+        state.p = (state.p & ~P_CARRY) | ((m >> 7) & P_CARRY);
         return result;
     }
 
@@ -1435,9 +995,9 @@ public class Cpu implements InstructionTable {
      * of the carry flag, and setting the carry flag to the original value
      * of bit 1.
      */
-    private int ror(int m) {
+    int ror(int m) {
         int result = ((m >>> 1) | (getCarryBit() << 7)) & 0xff;
-        setCarryFlag((m & 0x01) != 0);
+        state.p = (state.p & ~P_CARRY) | (m & P_CARRY);
         return result;
     }
 
@@ -1445,8 +1005,90 @@ public class Cpu implements InstructionTable {
      * @param clockPeriodInNs The simulated clock period, in nanoseconds
      */
     public void setClockPeriodInNs(long clockPeriodInNs) {
-        logger.debug("Setting simulated clock period to {} ns.", clockPeriodInNs);
-        this.clockPeriodInNs = clockPeriodInNs;
+        if (clockPeriodInNs <= 0) {
+            throw new IllegalArgumentException("Clock period must be positive");
+        }
+        setClockFrequencyInHz(1000000000.0 / clockPeriodInNs);
+    }
+
+    /**
+     * Set the simulated clock frequency. Any frequency up to {@link #MAX_CLOCK_FREQUENCY_IN_HZ}
+     * is allowed, to a resolution of one thousandth of a hertz.
+     *
+     * @param frequencyInHz The simulated clock frequency, in hertz
+     */
+    public void setClockFrequencyInHz(double frequencyInHz) {
+        if (!(frequencyInHz >= 0.001 && frequencyInHz <= MAX_CLOCK_FREQUENCY_IN_HZ)) {
+            throw new IllegalArgumentException("Clock frequency out of range: " + frequencyInHz);
+        }
+        logger.debug("Setting simulated clock frequency to {} Hz.", frequencyInHz);
+        this.clockRateInMilliHz = Math.round(frequencyInHz * 1000);
+        resetPacing();
+    }
+
+    /**
+     * @return The simulated clock frequency, in hertz
+     */
+    public double getClockFrequencyInHz() {
+        return clockRateInMilliHz / 1000.0;
+    }
+
+    /**
+     * @param turboMode true to run as fast as the host allows, false to pace
+     *                  execution to the simulated clock period.
+     */
+    public void setTurboMode(boolean turboMode) {
+        logger.debug("Turbo mode {}.", turboMode ? "enabled" : "disabled");
+        this.turboMode = turboMode;
+        resetPacing();
+    }
+
+    /**
+     * @return true if wall-clock pacing is disabled.
+     */
+    public boolean isTurboMode() {
+        return turboMode;
+    }
+
+    /**
+     * @param exactPacing true to spin after every instruction until its cycles have elapsed,
+     *                    false to run a slice of cycles at full speed and then sleep until
+     *                    the wall clock catches up. Exact pacing keeps a host core busy.
+     */
+    public void setExactPacing(boolean exactPacing) {
+        logger.debug("Exact pacing {}.", exactPacing ? "enabled" : "disabled");
+        this.exactPacing = exactPacing;
+        resetPacing();
+    }
+
+    /**
+     * @return true if pacing is done after every instruction.
+     */
+    public boolean isExactPacing() {
+        return exactPacing;
+    }
+
+    /**
+     * @return the number of emulated clock cycles executed since the last reset.
+     */
+    public long getCycleCount() {
+        return state.cycleCounter;
+    }
+
+    /**
+     * @return The clock cycles since reset that were fast-forwarded through idle loops
+     *         rather than executed. They are included in {@link #getCycleCount()}.
+     */
+    public long getSkippedIdleCycles() {
+        return idleLoopDetector.getSkippedCycles();
+    }
+
+    /**
+     * @return The instructions since reset that were fast-forwarded through idle loops
+     *         rather than executed. They are included in the step counter.
+     */
+    public long getSkippedIdleInstructions() {
+        return idleLoopDetector.getSkippedInstructions();
     }
 
     /**
@@ -1462,100 +1104,104 @@ public class Cpu implements InstructionTable {
      * @return the negative flag
      */
     public boolean getNegativeFlag() {
-        return state.negativeFlag;
+        return state.isNegative();
     }
 
     /**
      * @param negativeFlag the negative flag to set
      */
     public void setNegativeFlag(boolean negativeFlag) {
-        state.negativeFlag = negativeFlag;
+        state.setNZ(negativeFlag, state.isZero());
     }
 
     public void setNegativeFlag() {
-        state.negativeFlag = true;
+        state.setNZ(true, state.isZero());
     }
 
     public void clearNegativeFlag() {
-        state.negativeFlag = false;
+        state.setNZ(false, state.isZero());
     }
 
     /**
      * @return the carry flag
      */
     public boolean getCarryFlag() {
-        return state.carryFlag;
+        return (state.p & P_CARRY) != 0;
     }
 
     /**
      * @return 1 if the carry flag is set, 0 if it is clear.
      */
     public int getCarryBit() {
-        return (state.carryFlag ? 1 : 0);
+        return state.p & P_CARRY;
     }
 
     /**
      * @param carryFlag the carry flag to set
      */
     public void setCarryFlag(boolean carryFlag) {
-        state.carryFlag = carryFlag;
+        if (carryFlag) {
+            state.p |= P_CARRY;
+        } else {
+            state.p &= ~P_CARRY;
+        }
     }
 
     /**
      * Sets the Carry Flag
      */
     public void setCarryFlag() {
-        state.carryFlag = true;
+        state.p |= P_CARRY;
     }
 
     /**
      * Clears the Carry Flag
      */
     public void clearCarryFlag() {
-        state.carryFlag = false;
+        state.p &= ~P_CARRY;
     }
 
     /**
      * @return the zero flag
      */
     public boolean getZeroFlag() {
-        return state.zeroFlag;
+        return state.isZero();
     }
 
     /**
      * @param zeroFlag the zero flag to set
      */
     public void setZeroFlag(boolean zeroFlag) {
-        state.zeroFlag = zeroFlag;
+        state.setNZ(state.isNegative(), zeroFlag);
     }
 
     /**
      * Sets the Zero Flag
      */
     public void setZeroFlag() {
-        state.zeroFlag = true;
+        state.setNZ(state.isNegative(), true);
     }
 
     /**
      * Clears the Zero Flag
      */
     public void clearZeroFlag() {
-        state.zeroFlag = false;
+        state.setNZ(state.isNegative(), false);
     }
 
     /**
      * @return the irq disable flag
      */
     public boolean getIrqDisableFlag() {
-        return state.irqDisableFlag;
+        return (state.p & P_IRQ_DISABLE) != 0;
     }
 
     public void setIrqDisableFlag() {
-        state.irqDisableFlag = true;
+        state.p |= P_IRQ_DISABLE;
     }
 
     public void clearIrqDisableFlag() {
-        state.irqDisableFlag = false;
+        state.p &= ~P_IRQ_DISABLE;
     }
 
 
@@ -1563,70 +1209,88 @@ public class Cpu implements InstructionTable {
      * @return the decimal mode flag
      */
     public boolean getDecimalModeFlag() {
-        return state.decimalModeFlag;
+        return (state.p & P_DECIMAL) != 0;
     }
 
     /**
      * Sets the Decimal Mode Flag to true.
      */
     public void setDecimalModeFlag() {
-        state.decimalModeFlag = true;
+        state.p |= P_DECIMAL;
     }
 
     /**
      * Clears the Decimal Mode Flag.
      */
     public void clearDecimalModeFlag() {
-        state.decimalModeFlag = false;
+        state.p &= ~P_DECIMAL;
     }
 
     /**
      * @return the break flag
      */
     public boolean getBreakFlag() {
-        return state.breakFlag;
+        return (state.p & P_BREAK) != 0;
     }
 
     /**
      * Sets the Break Flag
      */
     public void setBreakFlag() {
-        state.breakFlag = true;
+        state.p |= P_BREAK;
     }
 
     /**
      * Clears the Break Flag
      */
     public void clearBreakFlag() {
-        state.breakFlag = false;
+        state.p &= ~P_BREAK;
     }
 
     /**
      * @return the overflow flag
      */
     public boolean getOverflowFlag() {
-        return state.overflowFlag;
+        return (state.p & P_OVERFLOW) != 0;
     }
 
     /**
      * @param overflowFlag the overflow flag to set
      */
     public void setOverflowFlag(boolean overflowFlag) {
-        state.overflowFlag = overflowFlag;
+        if (overflowFlag) {
+            state.p |= P_OVERFLOW;
+        } else {
+            state.p &= ~P_OVERFLOW;
+        }
     }
 
     /**
      * Sets the Overflow Flag
      */
     public void setOverflowFlag() {
-        state.overflowFlag = true;
+        state.p |= P_OVERFLOW;
     }
 
     /**
      * Clears the Overflow Flag
      */
     public void clearOverflowFlag() {
-        state.overflowFlag = false;
+        state.p &= ~P_OVERFLOW;
+    }
+
+    /**
+     * @return True if the CPU is halted by WAI until the next interrupt.
+     */
+    public boolean isWaitingForInterrupt() {
+        return state.waiting;
+    }
+
+    /**
+     * @return True if the CPU is halted by STP until the next reset.
+     */
+    public boolean isStopped() {
+        return state.stopped;
     }
 
     /**
@@ -1673,14 +1337,6 @@ public class Cpu implements InstructionTable {
 
     public void setProgramCounter(int addr) {
         state.pc = addr;
-
-        // As a side-effect of setting the program counter,
-        // we want to peek ahead at the next state.
-        try {
-            peekAhead();
-        } catch (MemoryAccessException ex) {
-            logger.error("Could not peek ahead at next instruction state.");
-        }
     }
 
     public int getStackPointer() {
@@ -1699,40 +1355,7 @@ public class Cpu implements InstructionTable {
      * @value The value of the Process Status Register bits to be set.
      */
     public void setProcessorStatus(int value) {
-        if ((value & P_CARRY) != 0)
-            setCarryFlag();
-        else
-            clearCarryFlag();
-
-        if ((value & P_ZERO) != 0)
-            setZeroFlag();
-        else
-            clearZeroFlag();
-
-        if ((value & P_IRQ_DISABLE) != 0)
-            setIrqDisableFlag();
-        else
-            clearIrqDisableFlag();
-
-        if ((value & P_DECIMAL) != 0)
-            setDecimalModeFlag();
-        else
-            clearDecimalModeFlag();
-
-        if ((value & P_BREAK) != 0)
-            setBreakFlag();
-        else
-            clearBreakFlag();
-
-        if ((value & P_OVERFLOW) != 0)
-            setOverflowFlag();
-        else
-            clearOverflowFlag();
-
-        if ((value & P_NEGATIVE) != 0)
-            setNegativeFlag();
-        else
-            clearNegativeFlag();
+        state.setStatusFlag(value);
     }
 
     public String getAccumulatorStatus() {
@@ -1759,11 +1382,41 @@ public class Cpu implements InstructionTable {
         return state.getStatusFlag();
     }
 
+    /**
+     * Discard any pre-decoded instruction that includes the byte at the given address.
+     * Called by the bus after a successful write.
+     */
+    void invalidateDecoded(int address) {
+        decodeCache.invalidate(address);
+    }
+
+    /**
+     * Discard any pre-decoded instruction that includes a byte in the given range. Called
+     * by the bus when the devices seen in that range change.
+     */
+    void invalidateDecoded(int first, int last) {
+        // Nothing beyond the CPU's 64K is ever decoded
+        for (int address = first; address <= Math.min(last, 0xffff); address++) {
+            invalidateDecoded(address);
+        }
+    }
+
+    /**
+     * Discard all pre-decoded instructions. Called by the bus when the contents of a device
+     * change other than through a bus write.
+     */
+    void flushDecoded() {
+        decodeCache.flush();
+    }
+
     /**
      * Simulate transition from logic-high to logic-low on the INT line.
      */
     public void assertIrq() {
-       state.irqAsserted = true;
+        synchronized (interruptLock) {
+            state.irqAsserted = true;
+            interruptLock.notifyAll();
+        }
     }
 
     /**
@@ -1777,7 +1430,10 @@ public class Cpu implements InstructionTable {
      * Simulate transition from logic-high to logic-low on the NMI line.
      */
     public void assertNmi() {
-        state.nmiAsserted = true;
+        synchronized (interruptLock) {
+            state.nmiAsserted = true;
+            interruptLock.notifyAll();
+        }
     }
 
     /**
@@ -1875,29 +1531,90 @@ public class Cpu implements InstructionTable {
     }
 
     /*
-     * Perform a busy-loop until the instruction should complete on the wall clock
+     * Account for a number of clock cycles and run any device events that have fallen due.
+     * With exact pacing, busy-loop until the cycles should have elapsed on the wall clock;
+     * otherwise pace once at the end of each slice. In turbo mode only the accounting is
+     * done.
      */
-    private void delayLoop(int opcode) {
-        final int clockSteps;
+    private void delayCycles(long clockSteps) {
+        state.cycleCounter += clockSteps;
 
-        if (behavior == CpuBehavior.NMOS_WITH_ROR_BUG ||
-            behavior == CpuBehavior.NMOS_6502) {
-            clockSteps = Cpu.instructionClocksNmos[0xff & opcode];
-        } else {
-            clockSteps = Cpu.instructionClocksCmos[0xff & opcode];
+        if (state.cycleCounter >= scheduler.nextDeadline()) {
+            scheduler.runDue(state.cycleCounter);
         }
 
-        if (clockSteps == 0) {
-            logger.warn("Opcode {} has clock step of 0!", String.format("0x%02x", opcode));
+        if (turboMode) {
             return;
         }
 
-        long interval = clockSteps * clockPeriodInNs;
-        long end;
+        if (exactPacing) {
+            if (advancePaceDeadline()) {
+                while (paceDeadline - pacingClock.nanoTime() > 0 &&
+                       !Thread.currentThread().isInterrupted()) {
+                    // Spin
+                }
+            }
+        } else if (state.cycleCounter >= paceSliceEnd) {
+            if (advancePaceDeadline()) {
+                // An interrupt means the run loop is being stopped, so stop waiting for it
+                long remaining;
+                while ((remaining = paceDeadline - pacingClock.nanoTime()) > 0 &&
+                       !Thread.currentThread().isInterrupted()) {
+                    pacingClock.parkNanos(remaining);
+                }
+            }
+            paceSliceEnd = state.cycleCounter + pacingSliceCycles();
+        }
+    }
 
-        do {
-            end = System.nanoTime();
-        } while (opBeginTime + interval >= end);
+    /*
+     * Move the pacing deadline on by the cycles executed since it was last advanced.
+     * Deadlines accumulate from the last reset rather than from the time of the previous
+     * wait, so oversleeping in one wait is made up in the next.
+     *
+     * @return false if the deadline had fallen so far behind the wall clock that pacing
+     *         was restarted instead, for example after the simulator was stopped.
+     */
+    boolean advancePaceDeadline() {
+        long cycles = state.cycleCounter - paceCycles;
+        paceCycles = state.cycleCounter;
+
+        while (cycles > 0) {
+            long chunk = Math.min(cycles, MAX_PACING_CHUNK);
+            long scaled = chunk * NANOS_PER_SECOND_IN_MILLIHZ + paceRemainder;
+            paceDeadline += scaled / clockRateInMilliHz;
+            paceRemainder = scaled % clockRateInMilliHz;
+            cycles -= chunk;
+        }
+
+        if (pacingClock.nanoTime() - paceDeadline > MAX_PACING_LAG_IN_NS) {
+            resetPacing();
+            return false;
+        }
+        return true;
+    }
+
+    private long pacingSliceCycles() {
+        return Math.max(1, clockRateInMilliHz / 1000 * PACING_SLICE_IN_NS / 1000000000L);
+    }
+
+    /*
+     * The wall-clock time by which the cycles counted so far should have elapsed.
+     */
+    long getPaceDeadline() {
+        return paceDeadline;
+    }
+
+    void setPacingClock(PacingClock pacingClock) {
+        this.pacingClock = pacingClock;
+        resetPacing();
+    }
+
+    private void resetPacing() {
+        paceDeadline = pacingClock.nanoTime();
+        paceRemainder = 0;
+        paceCycles = state.cycleCounter;
+        paceSliceEnd = state.cycleCounter + pacingSliceCycles();
     }
 
     /**
@@ -1906,7 +1623,7 @@ public class Cpu implements InstructionTable {
      *
      * @return A string representing the mnemonic and operands of the instruction
      */
-    public static String disassembleOp(int opCode, int[] args) {
+    public static String disassembleOp(int opCode, int arg0, int arg1) {
         String mnemonic = opcodeNames[opCode];
 
         if (mnemonic == null) {
@@ -1917,38 +1634,38 @@ public class Cpu implements InstructionTable {
 
         switch (instructionModes[opCode]) {
             case ABS:
-                sb.append(" $").append(Utils.wordToHex(Utils.address(args[0], args[1])));
+                sb.append(" $").append(Utils.wordToHex(Utils.address(arg0, arg1)));
                 break;
             case AIX:
-                sb.append(" ($").append(Utils.wordToHex(Utils.address(args[0], args[1]))).append(",X)");
+                sb.append(" ($").append(Utils.wordToHex(Utils.address(arg0, arg1))).append(",X)");
             case ABX:
-                sb.append(" $").append(Utils.wordToHex(Utils.address(args[0], args[1]))).append(",X");
+                sb.append(" $").append(Utils.wordToHex(Utils.address(arg0, arg1))).append(",X");
                 break;
             case ABY:
-                sb.append(" $").append(Utils.wordToHex(Utils.address(args[0], args[1]))).append(",Y");
+                sb.append(" $").append(Utils.wordToHex(Utils.address(arg0, arg1))).append(",Y");
                 break;
             case IMM:
-                sb.append(" #$").append(Utils.byteToHex(args[0]));
+                sb.append(" #$").append(Utils.byteToHex(arg0));
                 break;
             case IND:
-                sb.append(" ($").append(Utils.wordToHex(Utils.address(args[0], args[1]))).append(")");
+                sb.append(" ($").append(Utils.wordToHex(Utils.address(arg0, arg1))).append(")");
                 break;
             case XIN:
-                sb.append(" ($").append(Utils.byteToHex(args[0])).append(",X)");
+                sb.append(" ($").append(Utils.byteToHex(arg0)).append(",X)");
                 break;
             case INY:
-                sb.append(" ($").append(Utils.byteToHex(args[0])).append("),Y");
+                sb.append(" ($").append(Utils.byteToHex(arg0)).append("),Y");
                 break;
             case REL:
             case ZPR:
             case ZPG:
-                sb.append(" $").append(Utils.byteToHex(args[0]));
+                sb.append(" $").append(Utils.byteToHex(arg0));
                 break;
             case ZPX:
-                sb.append(" $").append(Utils.byteToHex(args[0])).append(",X");
+                sb.append(" $").append(Utils.byteToHex(arg0)).append(",X");
                 break;
             case ZPY:
-                sb.append(" $").append(Utils.byteToHex(args[0])).append(",Y");
+                sb.append(" $").append(Utils.byteToHex(arg0)).append(",Y");
                 break;
         }
 
@@ -1957,12 +1674,17 @@ public class Cpu implements InstructionTable {
 
     /**
      * Return a formatted string representing the next instruction and
-     * operands to be executed.
+     * operands to be executed. The instruction is decoded on request, with
+     * non-CPU reads so that I/O registers are not disturbed.
      *
      * @return A string representing the mnemonic and operands of the instruction
      */
     public String disassembleNextOp() {
-        return Cpu.disassembleOp(state.nextIr, state.nextArgs);
+        try {
+            return disassembleOpAtAddress(state.pc);
+        } catch (MemoryAccessException ex) {
+            return "???";
+        }
     }
 
     /**
@@ -1970,14 +1692,16 @@ public class Cpu implements InstructionTable {
      * @return String containing the disassembled instruction and operands.
      */
     public String disassembleOpAtAddress(int address) throws MemoryAccessException {
-        int opCode = bus.read(address, true);
-        int args[] = new int[2];
+        int opCode = bus.read(address, false);
+        int arg0 = 0, arg1 = 0;
         int size = Cpu.instructionSizes[opCode];
-        for (int i = 1; i < size; i++) {
-            int nextRead = (address + i) % bus.endAddress();
-            args[i-1] = bus.read(nextRead, true);
+        if (size > 1) {
+            arg0 = bus.read((address + 1) % bus.endAddress(), false);
+        }
+        if (size > 2) {
+            arg1 = bus.read((address + 2) % bus.endAddress(), false);
         }
 
-        return disassembleOp(opCode, args);
+        return disassembleOp(opCode, arg0, arg1);
     }
 }
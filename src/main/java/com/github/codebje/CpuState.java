@@ -36,28 +36,48 @@ public class CpuState {
      */
     public int ir;
 
-    /**
-     * Peek-Ahead to next IR
-     */
-    public int nextIr;
-    public int[] args = new int[2];
-    public int[] nextArgs = new int[2];
+    /* Operands of the last loaded instruction */
+    public int arg0;
+    public int arg1;
+
     public int instSize;
     public boolean opTrap;
     public boolean irqAsserted;
     public boolean nmiAsserted;
     public int lastPc;
 
-    /* Status Flag Register bits */
-    public boolean carryFlag;
-    public boolean negativeFlag;
-    public boolean zeroFlag;
-    public boolean irqDisableFlag;
-    public boolean decimalModeFlag;
-    public boolean breakFlag;
-    public boolean overflowFlag;
+    /**
+     * Set by WAI until the next IRQ or NMI, and by STP until the next reset.
+     */
+    public boolean waiting;
+    public boolean stopped;
+
+    /**
+     * Status Register, with bit 5 always set. The N and Z bits are not held here; see
+     * {@link #nz}.
+     */
+    public int p = 0x20;
+
+    /**
+     * The value the N and Z flags are derived from, so instructions that set them from a
+     * result only need to store it. Z is set when the low byte is zero, and N when bit 7
+     * or bit 8 is set; bit 8 allows N and Z to be set together.
+     */
+    public int nz = 1;
+
     public long stepCounter = 0L;
 
+    /**
+     * Emulated clock cycles executed since reset
+     */
+    public long cycleCounter = 0L;
+
+    /**
+     * Clock cycles taken by the last instruction, including any page crossing, branch and
+     * decimal mode penalties, and the entry to an interrupt serviced just before it.
+     */
+    public int instCycles = 0;
+
     public CpuState() {}
 
     /**
@@ -75,23 +95,20 @@ public class CpuState {
         this.sp = s.sp;
         this.pc = s.pc;
         this.ir = s.ir;
-        this.nextIr = s.nextIr;
         this.lastPc = s.lastPc;
-        this.args[0] = s.args[0];
-        this.args[1] = s.args[1];
-        this.nextArgs[0] = s.nextArgs[0];
-        this.nextArgs[1] = s.nextArgs[1];
+        this.arg0 = s.arg0;
+        this.arg1 = s.arg1;
         this.instSize = s.instSize;
         this.opTrap = s.opTrap;
         this.irqAsserted = s.irqAsserted;
-        this.carryFlag = s.carryFlag;
-        this.negativeFlag = s.negativeFlag;
-        this.zeroFlag = s.zeroFlag;
-        this.irqDisableFlag = s.irqDisableFlag;
-        this.decimalModeFlag = s.decimalModeFlag;
-        this.breakFlag = s.breakFlag;
-        this.overflowFlag = s.overflowFlag;
+        this.nmiAsserted = s.nmiAsserted;
+        this.waiting = s.waiting;
+        this.stopped = s.stopped;
+        this.p = s.p;
+        this.nz = s.nz;
         this.stepCounter = s.stepCounter;
+        this.cycleCounter = s.cycleCounter;
+        this.instCycles = s.instCycles;
     }
 
     /**
@@ -100,7 +117,7 @@ public class CpuState {
      * @return a string formatted for the trace log.
      */
     public String toTraceEvent() {
-        String opcode = Cpu.disassembleOp(ir, args);
+        String opcode = Cpu.disassembleOp(ir, arg0, arg1);
         return getInstructionByteStatus() + "  " +
                 String.format("%-14s", opcode) +
                 "A:" + Utils.byteToHex(a) + " " +
@@ -115,29 +132,30 @@ public class CpuState {
      * @return The value of the Process Status Register, as a byte.
      */
     public int getStatusFlag() {
-        int status = 0x20;
-        if (carryFlag) {
-            status |= Cpu.P_CARRY;
-        }
-        if (zeroFlag) {
-            status |= Cpu.P_ZERO;
-        }
-        if (irqDisableFlag) {
-            status |= Cpu.P_IRQ_DISABLE;
-        }
-        if (decimalModeFlag) {
-            status |= Cpu.P_DECIMAL;
-        }
-        if (breakFlag) {
-            status |= Cpu.P_BREAK;
-        }
-        if (overflowFlag) {
-            status |= Cpu.P_OVERFLOW;
-        }
-        if (negativeFlag) {
-            status |= Cpu.P_NEGATIVE;
-        }
-        return status;
+        return p | (isNegative() ? Cpu.P_NEGATIVE : 0) | (isZero() ? Cpu.P_ZERO : 0);
+    }
+
+    /**
+     * Load every bit of the Process Status Register from a byte. Bit 5 always reads as set.
+     */
+    public void setStatusFlag(int value) {
+        p = (value & ~(Cpu.P_NEGATIVE | Cpu.P_ZERO) & 0xff) | 0x20;
+        setNZ((value & Cpu.P_NEGATIVE) != 0, (value & Cpu.P_ZERO) != 0);
+    }
+
+    public boolean isNegative() {
+        return (nz & 0x180) != 0;
+    }
+
+    public boolean isZero() {
+        return (nz & 0xff) == 0;
+    }
+
+    /**
+     * Set the N and Z flags independently of any result value.
+     */
+    public void setNZ(boolean negative, boolean zero) {
+        nz = (negative ? 0x100 : 0) | (zero ? 0 : 1);
     }
 
     public String getInstructionByteStatus() {
@@ -149,12 +167,12 @@ public class CpuState {
             case 2:
                 return Utils.wordToHex(lastPc) + "  " +
                        Utils.byteToHex(ir) + " " +
-                       Utils.byteToHex(args[0]) + "   ";
+                       Utils.byteToHex(arg0) + "   ";
             case 3:
                 return Utils.wordToHex(lastPc) + "  " +
                        Utils.byteToHex(ir) + " " +
-                       Utils.byteToHex(args[0]) + " " +
-                       Utils.byteToHex(args[1]);
+                       Utils.byteToHex(arg0) + " " +
+                       Utils.byteToHex(arg1);
             default:
                 return null;
         }
@@ -164,14 +182,15 @@ public class CpuState {
      * @return A string representing the current status register state.
      */
     public String getProcessorStatusString() {
-        return "[" + (negativeFlag ? 'N' : '.') +
-                (overflowFlag ? 'V' : '.') +
+        int status = getStatusFlag();
+        return "[" + ((status & Cpu.P_NEGATIVE) != 0 ? 'N' : '.') +
+                ((status & Cpu.P_OVERFLOW) != 0 ? 'V' : '.') +
                 "-" +
-                (breakFlag ? 'B' : '.') +
-                (decimalModeFlag ? 'D' : '.') +
-                (irqDisableFlag ? 'I' : '.') +
-                (zeroFlag ? 'Z' : '.') +
-                (carryFlag ? 'C' : '.') +
+                ((status & Cpu.P_BREAK) != 0 ? 'B' : '.') +
+                ((status & Cpu.P_DECIMAL) != 0 ? 'D' : '.') +
+                ((status & Cpu.P_IRQ_DISABLE) != 0 ? 'I' : '.') +
+                ((status & Cpu.P_ZERO) != 0 ? 'Z' : '.') +
+                ((status & Cpu.P_CARRY) != 0 ? 'C' : '.') +
                 "]";
     }
 }
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2016 Seth J. Morabito <web@loomcom.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.codebje;
+
+import java.util.Arrays;
+
+/**
+ * Pre-decoded instructions for the 64K CPU address space, keyed by the address of the
+ * opcode. Each entry holds the opcode, instruction size, operands and the resolved
+ * dispatch handler, so a cache hit replaces the opcode and operand bus reads with
+ * array loads.
+ *
+ * Only instructions whose bytes are all backed by {@link com.github.codebje.devices.Memory}
+ * are cached; reads from I/O devices can have side effects and must always go to the bus.
+ * Entries are invalidated when the bus writes to any byte they were decoded from.
+ */
+final class DecodeCache {
+
+    private static final int SIZE = 0x10000;
+    private static final int MASK = 0xffff;
+
+    /* The longest instruction is three bytes, so a byte can belong to at most three entries. */
+    private static final int MAX_INSTRUCTION_SIZE = 3;
+
+    /* Opcode at each address, or -1 if there is no valid entry */
+    final int[] opcode = new int[SIZE];
+    final int[] size = new int[SIZE];
+    final int[] arg0 = new int[SIZE];
+    final int[] arg1 = new int[SIZE];
+    final OperationTable.Operation[] handler = new OperationTable.Operation[SIZE];
+
+    /* Bytes that have been read into an entry since the last flush */
+    private final boolean[] covered = new boolean[SIZE];
+
+    DecodeCache() {
+        flush();
+    }
+
+    boolean contains(int address) {
+        return opcode[address] >= 0;
+    }
+
+    void store(int address, int ir, int instSize, int a0, int a1, OperationTable.Operation operation) {
+        opcode[address] = ir;
+        size[address] = instSize;
+        arg0[address] = a0;
+        arg1[address] = a1;
+        handler[address] = operation;
+        for (int i = 0; i < instSize; i++) {
+            covered[(address + i) & MASK] = true;
+        }
+    }
+
+    /**
+     * Drop any entry decoded from the byte at the given address.
+     */
+    void invalidate(int address) {
+        address &= MASK;
+        if (!covered[address]) {
+            return;
+        }
+        covered[address] = false;
+        for (int offset = 0; offset < MAX_INSTRUCTION_SIZE; offset++) {
+            int start = (address - offset) & MASK;
+            if (opcode[start] >= 0 && size[start] > offset) {
+                opcode[start] = -1;
+            }
+        }
+    }
+
+    /**
+     * Drop all entries.
+     */
+    void flush() {
+        Arrays.fill(opcode, -1);
+        Arrays.fill(handler, null);
+        Arrays.fill(covered, false);
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (c) 2016 Seth J. Morabito <web@loomcom.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.codebje;
+
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.LongSupplier;
+
+/**
+ * Device events timed by the emulated clock. Devices schedule events for a future cycle
+ * count, and the CPU runs them once its cycle counter reaches that count, so device timing
+ * is the same whether the clock is paced or in turbo mode.
+ *
+ * Scheduling and running events happens on the thread running the CPU, which is also the
+ * thread that calls device reads and writes. Other threads, such as the AWT event thread
+ * delivering key presses, hand work to it with {@link #post(Event)}.
+ */
+public class EventScheduler {
+
+    /**
+     * Returned by {@link #nextDeadline()} when nothing is scheduled.
+     */
+    public static final long NEVER = Long.MAX_VALUE;
+
+    /**
+     * An action to take at a given cycle.
+     */
+    @FunctionalInterface
+    public interface Event {
+        /**
+         * @param cycle The cycle the event was scheduled for. The clock may be a few
+         *              cycles past it, as events only run between instructions.
+         */
+        void fire(long cycle);
+    }
+
+    private static final class Entry implements Comparable<Entry> {
+        final long cycle;
+        final long sequence;
+        final Event event;
+
+        Entry(long cycle, long sequence, Event event) {
+            this.cycle = cycle;
+            this.sequence = sequence;
+            this.event = event;
+        }
+
+        /* Events due on the same cycle run in the order they were scheduled */
+        @Override
+        public int compareTo(Entry other) {
+            int order = Long.compare(cycle, other.cycle);
+            return order != 0 ? order : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    private final PriorityQueue<Entry> queue = new PriorityQueue<>();
+    private final Queue<Event> posted = new ConcurrentLinkedQueue<>();
+    private final LongSupplier clock;
+
+    private long sequence = 0L;
+    private long nextDeadline = NEVER;
+
+    /* Called when an event is posted, so that a halted CPU can wake to run it */
+    private Runnable wakeup = () -> { };
+
+    /**
+     * @param clock The current emulated cycle count.
+     */
+    public EventScheduler(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * @return The current emulated cycle count.
+     */
+    public long now() {
+        return clock.getAsLong();
+    }
+
+    /**
+     * Schedule an event for a given cycle. An event scheduled for the past runs at the
+     * next instruction boundary.
+     */
+    public void schedule(long cycle, Event event) {
+        queue.add(new Entry(cycle, sequence++, event));
+        nextDeadline = queue.peek().cycle;
+    }
+
+    /**
+     * Schedule an event for a number of cycles from now.
+     */
+    public void scheduleIn(long cycles, Event event) {
+        schedule(now() + cycles, event);
+    }
+
+    /**
+     * Remove every scheduled occurrence of an event.
+     */
+    public void cancel(Event event) {
+        queue.removeIf(entry -> entry.event == event);
+        updateDeadline();
+    }
+
+    /**
+     * @return The cycle at which the next event is due, or {@link #NEVER}.
+     */
+    public long nextDeadline() {
+        return nextDeadline;
+    }
+
+    /**
+     * Run every event due at or before the given cycle, in order. Events may schedule
+     * further events, which also run if they are due.
+     */
+    public void runDue(long cycle) {
+        while (nextDeadline <= cycle) {
+            Entry entry = queue.poll();
+            updateDeadline();
+            entry.event.fire(entry.cycle);
+        }
+    }
+
+    /**
+     * Hand an event to the CPU thread, to run as soon as it can. Safe to call from any
+     * thread.
+     */
+    public void post(Event event) {
+        posted.add(event);
+        wakeup.run();
+    }
+
+    /**
+     * @return True if events have been posted and not yet run.
+     */
+    public boolean hasPosted() {
+        return !posted.isEmpty();
+    }
+
+    /**
+     * Run the events posted by other threads, as of the current cycle.
+     */
+    public void runPosted() {
+        Event event;
+        while ((event = posted.poll()) != null) {
+            event.fire(now());
+        }
+    }
+
+    /**
+     * Move every scheduled event earlier by a number of cycles, keeping their spacing, for
+     * when the cycle counter restarts from zero. Events that would fall before cycle 0 are
+     * due immediately.
+     */
+    void rebase(long cycles) {
+        if (queue.isEmpty() || cycles == 0) {
+            return;
+        }
+
+        Entry[] entries = queue.toArray(new Entry[0]);
+        queue.clear();
+        for (Entry entry : entries) {
+            queue.add(new Entry(Math.max(0, entry.cycle - cycles), entry.sequence, entry.event));
+        }
+        updateDeadline();
+    }
+
+    void setWakeup(Runnable wakeup) {
+        this.wakeup = wakeup;
+    }
+
+    private void updateDeadline() {
+        Entry next = queue.peek();
+        nextDeadline = (next == null) ? NEVER : next.cycle;
+    }
+}
@@ -0,0 +1,516 @@
+/*
+ * Copyright (c) 2016 Seth J. Morabito <web@loomcom.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.codebje;
+
+import com.github.codebje.devices.Memory;
+import com.github.codebje.exceptions.MemoryAccessException;
+import com.github.codebje.exceptions.MemoryRangeException;
+import com.github.codebje.machines.Veronica;
+import com.github.codebje.util.Utils;
+
+import javax.imageio.ImageIO;
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a ROM or program on the Veronica machine without a display, for automated tests and
+ * batch jobs. The CPU runs in turbo mode until a stop condition is met or the budget is
+ * spent, and the exit status reports which. No windows are created, so the runner works
+ * on hosts with no display.
+ */
+public class HeadlessRunner {
+
+    /* Exit statuses */
+    public static final int EXIT_STOPPED = 0;
+    public static final int EXIT_BUDGET_EXHAUSTED = 1;
+    public static final int EXIT_ILLEGAL_OPCODE = 2;
+    public static final int EXIT_HALTED = 3;
+    public static final int EXIT_USAGE = 64;
+    public static final int EXIT_IO_ERROR = 74;
+
+    public static final long DEFAULT_CYCLE_BUDGET = 100000000L;
+
+    /* Cycles run between checks for the end of the budget when nothing needs checking sooner */
+    private static final long SLICE_CYCLES = 1000000L;
+
+    private static final String USAGE =
+            "Usage: HeadlessRunner [options] [program]\n" +
+            "\n" +
+            "Loads an optional ROM and program into a Veronica machine and runs it without a\n" +
+            "display. Numbers may be decimal, or hexadecimal with a $ or 0x prefix.\n" +
+            "\n" +
+            "  --rom FILE              ROM image, exactly the size of the ROM area\n" +
+            "  --load ADDR             where to load the program (default $0300)\n" +
+            "  --start ADDR            initial PC (default: the load address if there is a\n" +
+            "                          program, otherwise the reset vector)\n" +
+            "  --cpu 6502|65C02        CPU to emulate (default 65C02)\n" +
+            "  --strict-bus            fail on accesses no device answers, rather than\n" +
+            "                          reading the last value on the data bus\n" +
+            "  --cycles N              stop after N clock cycles (default 100000000)\n" +
+            "  --instructions N        stop after exactly N instructions instead\n" +
+            "  --until-pc ADDR         stop when the PC reaches ADDR\n" +
+            "  --until-brk             stop after a BRK instruction\n" +
+            "  --until-mem ADDR=VALUE  stop when the byte at ADDR equals VALUE\n" +
+            "  --until-trap            stop at an instruction that jumps to itself\n" +
+            "  --watch-read RANGE      stop after an instruction reads from RANGE, which is\n" +
+            "                          ADDR or START:END; may be repeated\n" +
+            "  --watch-write RANGE     stop after an instruction writes to RANGE\n" +
+            "  --watch-exec RANGE      stop before executing an instruction in RANGE\n" +
+            "  --dump-regs             print the registers when the run ends\n" +
+            "  --dump-mem START:END    print memory from START to END; may be repeated\n" +
+            "  --dump-framebuffer FILE write the GPU framebuffer to FILE as a PNG image\n" +
+            "  --profile FILE          count reads, writes and executions at each address,\n" +
+            "                          and write them to FILE as CSV, or in binary if its\n" +
+            "                          name has an extension other than .csv\n" +
+            "\n" +
+            "Exit status: 0 if a stop condition was met, or the budget was spent with no stop\n" +
+            "condition given; 1 if the budget was spent first; 2 on an illegal opcode; 3 if the\n" +
+            "CPU halted with nothing to wake it; 64 for bad arguments; 74 for I/O errors.\n";
+
+    private final PrintStream out;
+    private final PrintStream err;
+
+    private File romFile;
+    private File programFile;
+    private int loadAddress = Preferences.DEFAULT_PROGRAM_LOAD_ADDRESS;
+    private int startAddress = -1;
+    private InstructionTable.CpuBehavior behavior = InstructionTable.CpuBehavior.CMOS_6502;
+    private boolean strictBus;
+    private long cycleBudget = DEFAULT_CYCLE_BUDGET;
+    private long instructionBudget = -1;
+    private int untilPc = -1;
+    private boolean untilBrk;
+    private int untilMemAddress = -1;
+    private int untilMemValue;
+    private boolean untilTrap;
+    private final List<int[]> watchpoints = new ArrayList<>();
+    private boolean dumpRegisters;
+    private final List<int[]> memoryDumps = new ArrayList<>();
+    private File framebufferFile;
+    private File profileFile;
+    private boolean helpRequested;
+
+    private Veronica machine;
+
+    public HeadlessRunner(PrintStream out, PrintStream err) {
+        this.out = out;
+        this.err = err;
+    }
+
+    public static void main(String[] args) {
+        System.exit(new HeadlessRunner(System.out, System.err).run(args));
+    }
+
+    /**
+     * Parse the arguments, run the machine, and report the result.
+     *
+     * @param args Command line arguments.
+     * @return The exit status.
+     */
+    public int run(String[] args) {
+        // Keep AWT, used only for the offscreen framebuffer, from looking for a display
+        System.setProperty("java.awt.headless", "true");
+
+        try {
+            parse(args);
+            if (helpRequested) {
+                out.print(USAGE);
+                return EXIT_STOPPED;
+            }
+        } catch (IllegalArgumentException ex) {
+            err.println(ex.getMessage());
+            err.print(USAGE);
+            return EXIT_USAGE;
+        }
+
+        try {
+            load();
+            int status = execute();
+            dump();
+            return status;
+        } catch (IOException | MemoryRangeException ex) {
+            err.println(ex.getMessage());
+            return EXIT_IO_ERROR;
+        } catch (MemoryAccessException ex) {
+            err.println("Memory access error: " + ex.getMessage());
+            return EXIT_IO_ERROR;
+        }
+    }
+
+    /**
+     * @return The machine of the last run, for inspection after it ends.
+     */
+    Veronica getMachine() {
+        return machine;
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--rom":
+                    romFile = new File(value(args, ++i, arg));
+                    break;
+                case "--load":
+                    loadAddress = address(value(args, ++i, arg));
+                    break;
+                case "--start":
+                    startAddress = address(value(args, ++i, arg));
+                    break;
+                case "--cpu":
+                    behavior = cpu(value(args, ++i, arg));
+                    break;
+                case "--strict-bus":
+                    strictBus = true;
+                    break;
+                case "--cycles":
+                    cycleBudget = count(value(args, ++i, arg));
+                    break;
+                case "--instructions":
+                    instructionBudget = count(value(args, ++i, arg));
+                    break;
+                case "--until-pc":
+                    untilPc = address(value(args, ++i, arg));
+                    break;
+                case "--until-brk":
+                    untilBrk = true;
+                    break;
+                case "--until-mem": {
+                    String[] parts = value(args, ++i, arg).split("=", 2);
+                    if (parts.length != 2) {
+                        throw new IllegalArgumentException("--until-mem needs ADDR=VALUE");
+                    }
+                    untilMemAddress = address(parts[0]);
+                    untilMemValue = (int) number(parts[1], 0xff);
+                    break;
+                }
+                case "--until-trap":
+                    untilTrap = true;
+                    break;
+                case "--watch-read":
+                    watchpoints.add(watchpoint(value(args, ++i, arg), arg, Bus.WATCH_READ));
+                    break;
+                case "--watch-write":
+                    watchpoints.add(watchpoint(value(args, ++i, arg), arg, Bus.WATCH_WRITE));
+                    break;
+                case "--watch-exec":
+                    watchpoints.add(watchpoint(value(args, ++i, arg), arg, Bus.WATCH_EXECUTE));
+                    break;
+                case "--dump-regs":
+                    dumpRegisters = true;
+                    break;
+                case "--dump-mem": {
+                    String[] parts = value(args, ++i, arg).split(":", 2);
+                    if (parts.length != 2) {
+                        throw new IllegalArgumentException("--dump-mem needs START:END");
+                    }
+                    memoryDumps.add(range(parts[0], parts[1], arg));
+                    break;
+                }
+                case "--dump-framebuffer":
+                    framebufferFile = new File(value(args, ++i, arg));
+                    break;
+                case "--profile":
+                    profileFile = new File(value(args, ++i, arg));
+                    break;
+                case "--help":
+                    helpRequested = true;
+                    return;
+                default:
+                    if (arg.startsWith("-") || programFile != null) {
+                        throw new IllegalArgumentException("Unexpected argument: " + arg);
+                    }
+                    programFile = new File(arg);
+                    break;
+            }
+        }
+
+        if (romFile == null && programFile == null) {
+            throw new IllegalArgumentException("Nothing to run: give a ROM, a program, or both");
+        }
+    }
+
+    private static String value(String[] args, int i, String option) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException(option + " needs a value");
+        }
+        return args[i];
+    }
+
+    private static int address(String text) {
+        return (int) number(text, 0xffff);
+    }
+
+    private static int[] range(String start, String end, String option) {
+        int first = address(start);
+        int last = address(end);
+        if (last < first) {
+            throw new IllegalArgumentException(option + " range ends before it starts");
+        }
+        return new int[] {first, last};
+    }
+
+    /*
+     * A watchpoint's first and last address, and kind, from either ADDR or START:END.
+     */
+    private static int[] watchpoint(String text, String option, int kind) {
+        String[] parts = text.split(":", 2);
+        int[] range = range(parts[0], parts[parts.length - 1], option);
+        return new int[] {range[0], range[1], kind};
+    }
+
+    private static String watchKind(int kind) {
+        switch (kind) {
+            case Bus.WATCH_READ:
+                return "read";
+            case Bus.WATCH_WRITE:
+                return "write";
+            default:
+                return "execute";
+        }
+    }
+
+    private static long count(String text) {
+        long value = number(text, Long.MAX_VALUE);
+        if (value == 0) {
+            throw new IllegalArgumentException("Budget must be greater than zero");
+        }
+        return value;
+    }
+
+    private static long number(String text, long max) {
+        long value;
+        try {
+            if (text.startsWith("$")) {
+                value = Long.parseLong(text.substring(1), 16);
+            } else if (text.startsWith("0x") || text.startsWith("0X")) {
+                value = Long.parseLong(text.substring(2), 16);
+            } else {
+                value = Long.parseLong(text);
+            }
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Not a number: " + text);
+        }
+        if (value < 0 || value > max) {
+            throw new IllegalArgumentException("Out of range: " + text);
+        }
+        return value;
+    }
+
+    private static InstructionTable.CpuBehavior cpu(String name) {
+        switch (name.toUpperCase()) {
+            case "6502":
+                return InstructionTable.CpuBehavior.NMOS_6502;
+            case "65C02":
+                return InstructionTable.CpuBehavior.CMOS_6502;
+            default:
+                throw new IllegalArgumentException("Unknown CPU: " + name);
+        }
+    }
+
+    private void load() throws IOException, MemoryRangeException, MemoryAccessException {
+        machine = new Veronica();
+        machine.getBus().setStrict(strictBus);
+        Cpu cpu = machine.getCpu();
+        cpu.setBehavior(behavior);
+
+        if (romFile != null) {
+            if (romFile.length() != machine.getRomSize()) {
+                throw new IOException("ROM file must be exactly " + machine.getRomSize() + " bytes.");
+            }
+            machine.setRom(Memory.makeROM(machine.getRomBase(),
+                    machine.getRomBase() + machine.getRomSize() - 1, romFile));
+        }
+
+        machine.reset();
+
+        if (programFile != null) {
+            byte[] program = Files.readAllBytes(programFile.toPath());
+            if (loadAddress + program.length > machine.getMemorySize()) {
+                throw new IOException("Program will not fit in memory at $" + Utils.wordToHex(loadAddress));
+            }
+            for (int i = 0; i < program.length; i++) {
+                machine.getBus().write(loadAddress + i, program[i] & 0xff, false);
+            }
+            if (startAddress < 0) {
+                startAddress = loadAddress;
+            }
+        }
+
+        if (startAddress >= 0) {
+            cpu.setProgramCounter(startAddress);
+        }
+
+        cpu.setTurboMode(true);
+    }
+
+    private int execute() throws MemoryAccessException {
+        Cpu cpu = machine.getCpu();
+        CpuState state = cpu.getCpuState();
+
+        StopConditions conditions = new StopConditions();
+        conditions.setHaltOnIllegalOpcode(true);
+        conditions.setStopWhenBlocked(true);
+        conditions.setHaltOnBrk(untilBrk);
+        conditions.setHaltOnTrap(untilTrap);
+        if (untilPc >= 0) {
+            conditions.addBreakpoint(untilPc);
+        }
+        for (int[] watchpoint : watchpoints) {
+            machine.getBus().addWatchpoint(watchpoint[0], watchpoint[1], watchpoint[2]);
+        }
+        if (profileFile != null) {
+            machine.getBus().setProfiler(new AccessProfiler());
+        }
+
+        // An exact instruction count, or checking memory after every instruction, rules out
+        // skipping several at once
+        boolean countInstructions = instructionBudget > 0;
+        boolean checkEachInstruction = countInstructions || untilMemAddress >= 0;
+        if (checkEachInstruction) {
+            conditions.setIdleLoopsSkipped(false);
+        }
+
+        long endCycle = state.cycleCounter + cycleBudget;
+        long endStep = state.stepCounter + instructionBudget;
+        boolean memoryMatched = false;
+        Cpu.StopReason reason;
+
+        do {
+            long slice = checkEachInstruction ? 1 : Math.min(SLICE_CYCLES, endCycle - state.cycleCounter);
+            reason = cpu.run(slice, conditions);
+
+            if (untilMemAddress >= 0 && machine.getBus().read(untilMemAddress, false) == untilMemValue) {
+                memoryMatched = true;
+                break;
+            }
+        } while (reason == Cpu.StopReason.BUDGET_EXHAUSTED &&
+                 (countInstructions ? state.stepCounter < endStep : state.cycleCounter < endCycle));
+
+        boolean hasStopCondition = untilPc >= 0 || untilBrk || untilMemAddress >= 0 || untilTrap ||
+                                   !watchpoints.isEmpty();
+        final String outcome;
+        final int status;
+
+        if (memoryMatched) {
+            outcome = "memory at $" + Utils.wordToHex(untilMemAddress) + " is $" + Utils.byteToHex(untilMemValue);
+            status = EXIT_STOPPED;
+        } else {
+            switch (reason) {
+                case BREAKPOINT:
+                    outcome = "PC reached $" + Utils.wordToHex(untilPc);
+                    status = EXIT_STOPPED;
+                    break;
+                case BRK:
+                    outcome = "BRK at $" + Utils.wordToHex(state.lastPc);
+                    status = EXIT_STOPPED;
+                    break;
+                case TRAP:
+                    outcome = "trapped at $" + Utils.wordToHex(state.pc);
+                    status = EXIT_STOPPED;
+                    break;
+                case WATCHPOINT: {
+                    Bus bus = machine.getBus();
+                    outcome = watchKind(bus.getWatchHitKind()) + " watchpoint at $" +
+                              Utils.wordToHex(bus.getWatchHitAddress());
+                    status = EXIT_STOPPED;
+                    break;
+                }
+                case ILLEGAL_OPCODE:
+                    outcome = "illegal opcode $" + Utils.byteToHex(state.ir) + " at $" + Utils.wordToHex(state.lastPc);
+                    status = EXIT_ILLEGAL_OPCODE;
+                    break;
+                case HALTED:
+                    outcome = (state.stopped ? "stopped by STP" : "waiting for an interrupt") +
+                              " at $" + Utils.wordToHex(state.pc);
+                    status = EXIT_HALTED;
+                    break;
+                default:
+                    outcome = "budget exhausted";
+                    status = hasStopCondition ? EXIT_BUDGET_EXHAUSTED : EXIT_STOPPED;
+                    break;
+            }
+        }
+
+        out.println("Stopped: " + outcome + " after " + state.cycleCounter + " cycles, " +
+                    state.stepCounter + " instructions");
+        long openBusFaults = machine.getBus().getOpenBusFaults();
+        if (openBusFaults > 0) {
+            out.println("Open bus accesses: " + openBusFaults);
+        }
+        return status;
+    }
+
+    private void dump() throws IOException, MemoryAccessException {
+        CpuState state = machine.getCpu().getCpuState();
+
+        if (dumpRegisters) {
+            out.println("PC:" + Utils.wordToHex(state.pc) + " " +
+                        "A:" + Utils.byteToHex(state.a) + " " +
+                        "X:" + Utils.byteToHex(state.x) + " " +
+                        "Y:" + Utils.byteToHex(state.y) + " " +
+                        "F:" + Utils.byteToHex(state.getStatusFlag()) + " " +
+                        "S:1" + Utils.byteToHex(state.sp) + " " +
+                        state.getProcessorStatusString());
+        }
+
+        for (int[] range : memoryDumps) {
+            dumpMemory(range[0], range[1]);
+        }
+
+        if (framebufferFile != null) {
+            RenderedImage image = (RenderedImage) machine.getGPU().getImage();
+            if (!ImageIO.write(image, "png", framebufferFile)) {
+                throw new IOException("Cannot write PNG image " + framebufferFile);
+            }
+        }
+
+        if (profileFile != null) {
+            machine.getBus().getProfiler().export(profileFile);
+        }
+    }
+
+    private void dumpMemory(int start, int end) throws MemoryAccessException {
+        Bus bus = machine.getBus();
+        StringBuilder line = new StringBuilder();
+
+        for (int row = start & ~0x0f; row <= end; row += 16) {
+            line.setLength(0);
+            line.append(Utils.wordToHex(row)).append(':');
+            for (int address = row; address < row + 16; address++) {
+                if (address < start || address > end) {
+                    line.append("   ");
+                } else {
+                    line.append(' ').append(Utils.byteToHex(bus.read(address, false)));
+                }
+            }
+            out.println(line);
+        }
+    }
+}
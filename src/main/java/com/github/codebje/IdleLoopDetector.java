@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2016 Seth J. Morabito <web@loomcom.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.codebje;
+
+import com.github.codebje.exceptions.MemoryAccessException;
+import com.github.codebje.util.Utils;
+
+/**
+ * Recognises loops that poll a device register and fast-forwards the clock through them.
+ *
+ * A candidate loop is closed by a taken backward conditional branch, and its body only
+ * loads, tests and compares values from fixed addresses or immediates. Such a loop has no
+ * side effects, so once an iteration ends with the same registers and flags as the one
+ * before it, every following iteration does the same until a value it reads changes. The
+ * devices it reads report how many cycles that is certain to take, and all the whole
+ * iterations that fit in that time are skipped: their cycles and instructions are counted
+ * but not executed. The loop then carries on normally, and sees the change on the same
+ * iteration it would have without skipping.
+ */
+final class IdleLoopDetector {
+
+    /* Longest loop body, in bytes from the branch target to the branch, that is considered */
+    static final int MAX_LOOP_BYTES = 16;
+
+    private static final boolean[] CLOSES_LOOP = new boolean[256];
+    private static final boolean[] POLLS = new boolean[256];
+
+    static {
+        for (int opcode = 0; opcode < 256; opcode++) {
+            String name = Cpu.opcodeNames[opcode];
+            InstructionTable.Mode mode = Cpu.instructionModes[opcode];
+
+            switch (name) {
+                case "LDA": case "LDX": case "LDY": case "BIT":
+                case "AND": case "ORA": case "EOR": case "CMP": case "CPX": case "CPY":
+                    POLLS[opcode] = mode == InstructionTable.Mode.IMM ||
+                                    mode == InstructionTable.Mode.ZPG ||
+                                    mode == InstructionTable.Mode.ABS;
+                    break;
+                case "NOP": case "TAX": case "TAY": case "TXA": case "TYA":
+                case "CLC": case "SEC": case "CLV":
+                    POLLS[opcode] = mode == InstructionTable.Mode.IMP;
+                    break;
+                case "BRA":
+                    break;
+                default:
+                    CLOSES_LOOP[opcode] = mode == InstructionTable.Mode.REL;
+                    break;
+            }
+        }
+    }
+
+    private final Cpu cpu;
+
+    /* The loop last analysed, from its first instruction to its closing branch */
+    private int loopStart = -1;
+    private int loopEnd = -1;
+    private boolean polling;
+    private int instructions;
+    private final int[] reads = new int[MAX_LOOP_BYTES];
+    private int readCount;
+
+    /* State at the end of the previous iteration */
+    private long lastCycles;
+    private long lastSteps;
+    private int a, x, y, p, nz;
+
+    private long skippedCycles;
+    private long skippedInstructions;
+
+    IdleLoopDetector(Cpu cpu) {
+        this.cpu = cpu;
+    }
+
+    void reset() {
+        loopStart = loopEnd = -1;
+        skippedCycles = 0;
+        skippedInstructions = 0;
+    }
+
+    /**
+     * @return True if the opcode is a conditional branch that may close a polling loop.
+     */
+    static boolean closesLoop(int opcode) {
+        return CLOSES_LOOP[opcode];
+    }
+
+    /**
+     * Called after a conditional branch has been taken backwards. Skips iterations of the
+     * loop it closes if the loop is polling and has settled.
+     *
+     * @param branchPc The address of the branch instruction.
+     * @param target   The address branched to.
+     */
+    void branchTaken(int branchPc, int target) throws MemoryAccessException {
+        CpuState state = cpu.getCpuState();
+
+        if (branchPc != loopEnd || target != loopStart) {
+            analyse(branchPc, target);
+        } else if (polling && state.stepCounter - lastSteps == instructions &&
+                   state.a == a && state.x == x && state.y == y && state.p == p && state.nz == nz) {
+            skip(state.cycleCounter - lastCycles);
+        }
+
+        lastCycles = state.cycleCounter;
+        lastSteps = state.stepCounter;
+        a = state.a;
+        x = state.x;
+        y = state.y;
+        p = state.p;
+        nz = state.nz;
+    }
+
+    private void analyse(int branchPc, int target) throws MemoryAccessException {
+        Bus bus = cpu.getBus();
+        int length = branchPc - target;
+
+        loopStart = target;
+        loopEnd = branchPc;
+        polling = false;
+        instructions = 0;
+        readCount = 0;
+
+        if (length <= 0 || length > MAX_LOOP_BYTES || !bus.isCacheable(target, length + 2)) {
+            return;
+        }
+
+        // The branch must be the one that closes the loop, and not, say, the first
+        // instruction of an interrupt handler
+        int branch = bus.read(branchPc, false);
+        if (!CLOSES_LOOP[branch] || ((branchPc + 2 + (byte) bus.read(branchPc + 1, false)) & 0xffff) != target) {
+            return;
+        }
+
+        int address = target;
+        while (address < branchPc) {
+            int opcode = bus.read(address, false);
+            if (!POLLS[opcode] || !OperationTable.isImplemented(cpu.getBehavior(), opcode)) {
+                return;
+            }
+
+            switch (Cpu.instructionModes[opcode]) {
+                case ZPG:
+                    reads[readCount++] = bus.read(address + 1, false);
+                    break;
+                case ABS:
+                    reads[readCount++] = Utils.address(bus.read(address + 1, false), bus.read(address + 2, false));
+                    break;
+                default:
+                    break;
+            }
+
+            address += Cpu.instructionSizes[opcode];
+            instructions++;
+        }
+
+        // Count the closing branch as part of each iteration
+        instructions++;
+        polling = address == branchPc && readCount > 0;
+    }
+
+    private void skip(long iterationCycles) {
+        Bus bus = cpu.getBus();
+        long stable = Long.MAX_VALUE;
+
+        for (int i = 0; i < readCount; i++) {
+            long cycles = bus.cyclesUntilChange(reads[i]);
+            if (cycles < 0) {
+                return;
+            }
+            stable = Math.min(stable, cycles);
+        }
+
+        // Nothing the loop reads changes before the next device event, though the event
+        // itself might change it or raise an interrupt. A loop that only reads memory can
+        // only be ended by an interrupt, so without an event there's no telling when.
+        long deadline = cpu.getBus().getScheduler().nextDeadline();
+        if (deadline != EventScheduler.NEVER) {
+            stable = Math.min(stable, deadline - cpu.getCycleCount());
+        }
+        if (stable == Long.MAX_VALUE || iterationCycles <= 0) {
+            return;
+        }
+
+        long iterations = stable / iterationCycles;
+        if (iterations > 0) {
+            skippedCycles += iterations * iterationCycles;
+            skippedInstructions += iterations * instructions;
+            cpu.skipCycles(iterations * iterationCycles, iterations * instructions);
+        }
+    }
+
+    long getSkippedCycles() {
+        return skippedCycles;
+    }
+
+    long getSkippedInstructions() {
+        return skippedInstructions;
+    }
+}
@@ -29,16 +29,23 @@ import com.github.codebje.machines.Veronica;
 
 import javax.swing.SwingUtilities;
 import javax.swing.UIManager;
+import java.util.Arrays;
 
 public class Main {
     
      /**
      * Main entry point to the simulator. Creates a simulator and shows the main
-     * window.
+     * window, or with --headless as the first argument, runs a ROM or program
+     * without one; see {@link HeadlessRunner}.
      *
      * @param args Program arguments
      */
     public static void main(String args[]) throws Exception {
+
+        if (args.length > 0 && args[0].equals("--headless")) {
+            HeadlessRunner.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
         
         Class machineClass = Veronica.class;
 
@@ -0,0 +1,407 @@
+/*
+ * Copyright (c) 2016 Seth J. Morabito <web@loomcom.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.codebje;
+
+import com.github.codebje.exceptions.MemoryAccessException;
+
+import java.util.EnumMap;
+
+/**
+ * Opcode dispatch tables. Each table maps all 256 opcodes to an {@link Operation} that
+ * resolves the instruction's addressing mode and executes it. The tables are built once
+ * per {@link InstructionTable.CpuBehavior}, so opcodes that are only valid on the CMOS
+ * parts are decided when the table is built rather than on every step.
+ */
+final class OperationTable {
+
+    /**
+     * A pre-bound handler for a single opcode. The opcode's operands have already been
+     * fetched into the CPU state when the operation is executed.
+     */
+    @FunctionalInterface
+    interface Operation {
+        void execute(Cpu cpu) throws MemoryAccessException;
+    }
+
+    private static final Operation NOP = cpu -> { };
+    private static final Operation TRAP = Cpu::setOpTrap;
+
+    private static final EnumMap<InstructionTable.CpuBehavior, Operation[]> TABLES =
+            new EnumMap<>(InstructionTable.CpuBehavior.class);
+
+    static {
+        for (InstructionTable.CpuBehavior behavior : InstructionTable.CpuBehavior.values()) {
+            TABLES.put(behavior, build(behavior));
+        }
+    }
+
+    private OperationTable() {}
+
+    /**
+     * @param behavior The CPU behavior to dispatch for.
+     * @return The shared dispatch table for the behavior. Callers must not modify it.
+     */
+    static Operation[] forBehavior(InstructionTable.CpuBehavior behavior) {
+        return TABLES.get(behavior);
+    }
+
+    /**
+     * @return True if the opcode is an implemented instruction, rather than an illegal
+     *         opcode trap, for the behavior.
+     */
+    static boolean isImplemented(InstructionTable.CpuBehavior behavior, int opcode) {
+        return TABLES.get(behavior)[opcode] != TRAP;
+    }
+
+    private static Operation[] build(InstructionTable.CpuBehavior behavior) {
+        boolean cmos = behavior == InstructionTable.CpuBehavior.CMOS_6502 ||
+                       behavior == InstructionTable.CpuBehavior.CMOS_65816;
+
+        Operation[] table = new Operation[256];
+        for (int opcode = 0; opcode < 256; opcode++) {
+            Operation operation = operation(opcode, cmos);
+            table[opcode] = (operation == null) ? TRAP : operation;
+        }
+        return table;
+    }
+
+    /**
+     * Select the handler for an opcode.
+     *
+     * @param opcode The opcode.
+     * @param cmos   True if 65C02 instructions and addressing modes are available.
+     * @return The handler, or null if the opcode is not implemented.
+     */
+    private static Operation operation(int opcode, boolean cmos) {
+        switch (opcode) {
+
+            /** Single Byte Instructions; Implied and Relative **/
+            case 0x00: // BRK - Force Interrupt - Implied
+                return Cpu::brk;
+            case 0x08: // PHP - Push Processor Status - Implied
+                return Cpu::php;
+            case 0x10: // BPL - Branch if Positive - Relative
+                return cpu -> cpu.branch(!cpu.getNegativeFlag());
+            case 0x18: // CLC - Clear Carry Flag - Implied
+                return Cpu::clearCarryFlag;
+            case 0x20: // JSR - Jump to Subroutine - Implied
+                return Cpu::jsr;
+            case 0x28: // PLP - Pull Processor Status - Implied
+                return cpu -> cpu.setProcessorStatus(cpu.stackPop());
+            case 0x30: // BMI - Branch if Minus - Relative
+                return cpu -> cpu.branch(cpu.getNegativeFlag());
+            case 0x38: // SEC - Set Carry Flag - Implied
+                return Cpu::setCarryFlag;
+            case 0x40: // RTI - Return from Interrupt - Implied
+                return Cpu::rti;
+            case 0x48: // PHA - Push Accumulator - Implied
+                return cpu -> cpu.stackPush(cpu.getAccumulator());
+            case 0x50: // BVC - Branch if Overflow Clear - Relative
+                return cpu -> cpu.branch(!cpu.getOverflowFlag());
+            case 0x58: // CLI - Clear Interrupt Disable - Implied
+                return Cpu::clearIrqDisableFlag;
+            case 0x5a: // 65C02 PHY - Push Y to stack
+                return cmos ? cpu -> cpu.stackPush(cpu.getYRegister()) : NOP;
+            case 0x60: // RTS - Return from Subroutine - Implied
+                return Cpu::rts;
+            case 0x68: // PLA - Pull Accumulator - Implied
+                return cpu -> cpu.lda(cpu.stackPop());
+            case 0x70: // BVS - Branch if Overflow Set - Relative
+                return cpu -> cpu.branch(cpu.getOverflowFlag());
+            case 0x78: // SEI - Set Interrupt Disable - Implied
+                return Cpu::setIrqDisableFlag;
+            case 0x7a: // 65C02 PLY - Pull Y from Stack
+                return cmos ? cpu -> cpu.ldy(cpu.stackPop()) : NOP;
+            case 0x80: // 65C02 BRA - Branch Always
+                return cmos ? Cpu::branchAlways : NOP;
+            case 0x88: // DEY - Decrement Y Register - Implied
+                return cpu -> cpu.ldy((cpu.getYRegister() - 1) & 0xff);
+            case 0x8a: // TXA - Transfer X to Accumulator - Implied
+                return cpu -> cpu.lda(cpu.getXRegister());
+            case 0x90: // BCC - Branch if Carry Clear - Relative
+                return cpu -> cpu.branch(!cpu.getCarryFlag());
+            case 0x98: // TYA - Transfer Y to Accumulator - Implied
+                return cpu -> cpu.lda(cpu.getYRegister());
+            case 0x9a: // TXS - Transfer X to Stack Pointer - Implied
+                return cpu -> cpu.setStackPointer(cpu.getXRegister());
+            case 0xa8: // TAY - Transfer Accumulator to Y - Implied
+                return cpu -> cpu.ldy(cpu.getAccumulator());
+            case 0xaa: // TAX - Transfer Accumulator to X - Implied
+                return cpu -> cpu.ldx(cpu.getAccumulator());
+            case 0xb0: // BCS - Branch if Carry Set - Relative
+                return cpu -> cpu.branch(cpu.getCarryFlag());
+            case 0xb8: // CLV - Clear Overflow Flag - Implied
+                return Cpu::clearOverflowFlag;
+            case 0xba: // TSX - Transfer Stack Pointer to X - Implied
+                return cpu -> cpu.ldx(cpu.getStackPointer());
+            case 0xc8: // INY - Increment Y Register - Implied
+                return cpu -> cpu.ldy((cpu.getYRegister() + 1) & 0xff);
+            case 0xca: // DEX - Decrement X Register - Implied
+                return cpu -> cpu.ldx((cpu.getXRegister() - 1) & 0xff);
+            case 0xcb: // 65C02 WAI - Wait for Interrupt
+                return cmos ? Cpu::wai : null;
+            case 0xd0: // BNE - Branch if Not Equal to Zero - Relative
+                return cpu -> cpu.branch(!cpu.getZeroFlag());
+            case 0xd8: // CLD - Clear Decimal Mode - Implied
+                return Cpu::clearDecimalModeFlag;
+            case 0xda: // 65C02 PHX - Push X to stack
+                return cmos ? cpu -> cpu.stackPush(cpu.getXRegister()) : NOP;
+            case 0xdb: // 65C02 STP - Stop the Clock
+                return cmos ? Cpu::stp : null;
+            case 0xe8: // INX - Increment X Register - Implied
+                return cpu -> cpu.ldx((cpu.getXRegister() + 1) & 0xff);
+            case 0xea: // NOP
+                return NOP;
+            case 0xf0: // BEQ - Branch if Equal to Zero - Relative
+                return cpu -> cpu.branch(cpu.getZeroFlag());
+            case 0xf8: // SED - Set Decimal Flag - Implied
+                return Cpu::setDecimalModeFlag;
+            case 0xfa: // 65C02 PLX - Pull X from Stack
+                return cmos ? cpu -> cpu.ldx(cpu.stackPop()) : NOP;
+
+            /** JMP *****************************************************************/
+            case 0x4c: // JMP - Absolute
+                return cpu -> cpu.jump(cpu.absoluteAddress());
+            case 0x6c: // JMP - Indirect
+                return cmos ? Cpu::jmpIndirect : Cpu::jmpIndirectWithPageBug;
+            case 0x7c: // 65C02 JMP - (Absolute Indexed Indirect,X)
+                return cmos ? Cpu::jmpIndexedIndirect : NOP;
+
+            /** ORA - Logical Inclusive Or ******************************************/
+            case 0x09: return cpu -> cpu.ora(cpu.immediate());
+            case 0x01: return cpu -> cpu.ora(cpu.read(cpu.indexedIndirectAddress()));
+            case 0x05: return cpu -> cpu.ora(cpu.read(cpu.zeroPageAddress()));
+            case 0x0d: return cpu -> cpu.ora(cpu.read(cpu.absoluteAddress()));
+            case 0x11: return cpu -> cpu.ora(cpu.read(cpu.indirectIndexedReadAddress()));
+            case 0x12: return cmos ? cpu -> cpu.ora(cpu.read(cpu.zeroPageIndirectAddress())) : NOP;
+            case 0x15: return cpu -> cpu.ora(cpu.read(cpu.zeroPageXAddress()));
+            case 0x19: return cpu -> cpu.ora(cpu.read(cpu.absoluteYReadAddress()));
+            case 0x1d: return cpu -> cpu.ora(cpu.read(cpu.absoluteXReadAddress()));
+
+            /** ASL - Arithmetic Shift Left *****************************************/
+            case 0x0a: return cpu -> cpu.lda(cpu.asl(cpu.getAccumulator()));
+            case 0x06: return cpu -> cpu.aslMemory(cpu.zeroPageAddress());
+            case 0x0e: return cpu -> cpu.aslMemory(cpu.absoluteAddress());
+            case 0x16: return cpu -> cpu.aslMemory(cpu.zeroPageXAddress());
+            // The 65C02 saves a cycle on Absolute,X shifts and rotates unless X crosses a page
+            case 0x1e: return cmos ? cpu -> cpu.aslMemory(cpu.absoluteXReadAddress())
+                                   : cpu -> cpu.aslMemory(cpu.absoluteXAddress());
+
+            /** BIT - Bit Test ******************************************************/
+            case 0x89: return cpu -> cpu.setZeroFlag((cpu.getAccumulator() & cpu.immediate()) == 0);
+            case 0x24: return cpu -> cpu.bit(cpu.read(cpu.zeroPageAddress()));
+            case 0x2c: return cpu -> cpu.bit(cpu.read(cpu.absoluteAddress()));
+            case 0x34: return cmos ? cpu -> cpu.bit(cpu.read(cpu.zeroPageXAddress())) : NOP;
+            case 0x3c: return cpu -> cpu.bit(cpu.read(cpu.absoluteXReadAddress()));
+
+            /** AND - Logical AND ***************************************************/
+            case 0x29: return cpu -> cpu.and(cpu.immediate());
+            case 0x21: return cpu -> cpu.and(cpu.read(cpu.indexedIndirectAddress()));
+            case 0x25: return cpu -> cpu.and(cpu.read(cpu.zeroPageAddress()));
+            case 0x2d: return cpu -> cpu.and(cpu.read(cpu.absoluteAddress()));
+            case 0x31: return cpu -> cpu.and(cpu.read(cpu.indirectIndexedReadAddress()));
+            case 0x32: return cmos ? cpu -> cpu.and(cpu.read(cpu.zeroPageIndirectAddress())) : NOP;
+            case 0x35: return cpu -> cpu.and(cpu.read(cpu.zeroPageXAddress()));
+            case 0x39: return cpu -> cpu.and(cpu.read(cpu.absoluteYReadAddress()));
+            case 0x3d: return cpu -> cpu.and(cpu.read(cpu.absoluteXReadAddress()));
+
+            /** ROL - Rotate Left ***************************************************/
+            case 0x2a: return cpu -> cpu.lda(cpu.rol(cpu.getAccumulator()));
+            case 0x26: return cpu -> cpu.rolMemory(cpu.zeroPageAddress());
+            case 0x2e: return cpu -> cpu.rolMemory(cpu.absoluteAddress());
+            case 0x36: return cpu -> cpu.rolMemory(cpu.zeroPageXAddress());
+            case 0x3e: return cmos ? cpu -> cpu.rolMemory(cpu.absoluteXReadAddress())
+                                   : cpu -> cpu.rolMemory(cpu.absoluteXAddress());
+
+            /** EOR - Exclusive OR **************************************************/
+            case 0x49: return cpu -> cpu.eor(cpu.immediate());
+            case 0x41: return cpu -> cpu.eor(cpu.read(cpu.indexedIndirectAddress()));
+            case 0x45: return cpu -> cpu.eor(cpu.read(cpu.zeroPageAddress()));
+            case 0x4d: return cpu -> cpu.eor(cpu.read(cpu.absoluteAddress()));
+            case 0x51: return cpu -> cpu.eor(cpu.read(cpu.indirectIndexedReadAddress()));
+            case 0x52: return cmos ? cpu -> cpu.eor(cpu.read(cpu.zeroPageIndirectAddress())) : NOP;
+            case 0x55: return cpu -> cpu.eor(cpu.read(cpu.zeroPageXAddress()));
+            case 0x59: return cpu -> cpu.eor(cpu.read(cpu.absoluteYReadAddress()));
+            case 0x5d: return cpu -> cpu.eor(cpu.read(cpu.absoluteXReadAddress()));
+
+            /** LSR - Logical Shift Right *******************************************/
+            case 0x4a: return cpu -> cpu.lda(cpu.lsr(cpu.getAccumulator()));
+            case 0x46: return cpu -> cpu.lsrMemory(cpu.zeroPageAddress());
+            case 0x4e: return cpu -> cpu.lsrMemory(cpu.absoluteAddress());
+            case 0x56: return cpu -> cpu.lsrMemory(cpu.zeroPageXAddress());
+            case 0x5e: return cmos ? cpu -> cpu.lsrMemory(cpu.absoluteXReadAddress())
+                                   : cpu -> cpu.lsrMemory(cpu.absoluteXAddress());
+
+            /** ADC - Add with Carry ************************************************/
+            case 0x69: return cpu -> cpu.addWithCarry(cpu.immediate());
+            case 0x61: return cpu -> cpu.addWithCarry(cpu.read(cpu.indexedIndirectAddress()));
+            case 0x65: return cpu -> cpu.addWithCarry(cpu.read(cpu.zeroPageAddress()));
+            case 0x6d: return cpu -> cpu.addWithCarry(cpu.read(cpu.absoluteAddress()));
+            case 0x71: return cpu -> cpu.addWithCarry(cpu.read(cpu.indirectIndexedReadAddress()));
+            case 0x72: return cmos ? cpu -> cpu.addWithCarry(cpu.read(cpu.zeroPageIndirectAddress())) : NOP;
+            case 0x75: return cpu -> cpu.addWithCarry(cpu.read(cpu.zeroPageXAddress()));
+            case 0x79: return cpu -> cpu.addWithCarry(cpu.read(cpu.absoluteYReadAddress()));
+            case 0x7d: return cpu -> cpu.addWithCarry(cpu.read(cpu.absoluteXReadAddress()));
+
+            /** ROR - Rotate Right **************************************************/
+            case 0x6a: return cpu -> cpu.lda(cpu.ror(cpu.getAccumulator()));
+            case 0x66: return cpu -> cpu.rorMemory(cpu.zeroPageAddress());
+            case 0x6e: return cpu -> cpu.rorMemory(cpu.absoluteAddress());
+            case 0x76: return cpu -> cpu.rorMemory(cpu.zeroPageXAddress());
+            case 0x7e: return cmos ? cpu -> cpu.rorMemory(cpu.absoluteXReadAddress())
+                                   : cpu -> cpu.rorMemory(cpu.absoluteXAddress());
+
+            /** STA - Store Accumulator *********************************************/
+            case 0x81: return cpu -> cpu.write(cpu.indexedIndirectAddress(), cpu.getAccumulator());
+            case 0x85: return cpu -> cpu.write(cpu.zeroPageAddress(), cpu.getAccumulator());
+            case 0x8d: return cpu -> cpu.write(cpu.absoluteAddress(), cpu.getAccumulator());
+            case 0x91: return cpu -> cpu.write(cpu.indirectIndexedAddress(), cpu.getAccumulator());
+            case 0x92: return cmos ? cpu -> cpu.write(cpu.zeroPageIndirectAddress(), cpu.getAccumulator()) : NOP;
+            case 0x95: return cpu -> cpu.write(cpu.zeroPageXAddress(), cpu.getAccumulator());
+            case 0x99: return cpu -> cpu.write(cpu.absoluteYAddress(), cpu.getAccumulator());
+            case 0x9d: return cpu -> cpu.write(cpu.absoluteXAddress(), cpu.getAccumulator());
+
+            /** STY - Store Y Register **********************************************/
+            case 0x84: return cpu -> cpu.write(cpu.zeroPageAddress(), cpu.getYRegister());
+            case 0x8c: return cpu -> cpu.write(cpu.absoluteAddress(), cpu.getYRegister());
+            case 0x94: return cpu -> cpu.write(cpu.zeroPageXAddress(), cpu.getYRegister());
+
+            /** STX - Store X Register **********************************************/
+            case 0x86: return cpu -> cpu.write(cpu.zeroPageAddress(), cpu.getXRegister());
+            case 0x8e: return cpu -> cpu.write(cpu.absoluteAddress(), cpu.getXRegister());
+            case 0x96: return cpu -> cpu.write(cpu.zeroPageYAddress(), cpu.getXRegister());
+
+            /** STZ - 65C02 Store Zero **********************************************/
+            case 0x64: return cmos ? cpu -> cpu.write(cpu.zeroPageAddress(), 0) : NOP;
+            case 0x74: return cmos ? cpu -> cpu.write(cpu.zeroPageXAddress(), 0) : NOP;
+            case 0x9c: return cmos ? cpu -> cpu.write(cpu.absoluteAddress(), 0) : NOP;
+            case 0x9e: return cmos ? cpu -> cpu.write(cpu.absoluteXAddress(), 0) : NOP;
+
+            /** LDY - Load Y Register ***********************************************/
+            case 0xa0: return cpu -> cpu.ldy(cpu.immediate());
+            case 0xa4: return cpu -> cpu.ldy(cpu.read(cpu.zeroPageAddress()));
+            case 0xac: return cpu -> cpu.ldy(cpu.read(cpu.absoluteAddress()));
+            case 0xb4: return cpu -> cpu.ldy(cpu.read(cpu.zeroPageXAddress()));
+            case 0xbc: return cpu -> cpu.ldy(cpu.read(cpu.absoluteXReadAddress()));
+
+            /** LDX - Load X Register ***********************************************/
+            case 0xa2: return cpu -> cpu.ldx(cpu.immediate());
+            case 0xa6: return cpu -> cpu.ldx(cpu.read(cpu.zeroPageAddress()));
+            case 0xae: return cpu -> cpu.ldx(cpu.read(cpu.absoluteAddress()));
+            case 0xb6: return cpu -> cpu.ldx(cpu.read(cpu.zeroPageYAddress()));
+            case 0xbe: return cpu -> cpu.ldx(cpu.read(cpu.absoluteYReadAddress()));
+
+            /** LDA - Load Accumulator **********************************************/
+            case 0xa9: return cpu -> cpu.lda(cpu.immediate());
+            case 0xa1: return cpu -> cpu.lda(cpu.read(cpu.indexedIndirectAddress()));
+            case 0xa5: return cpu -> cpu.lda(cpu.read(cpu.zeroPageAddress()));
+            case 0xad: return cpu -> cpu.lda(cpu.read(cpu.absoluteAddress()));
+            case 0xb1: return cpu -> cpu.lda(cpu.read(cpu.indirectIndexedReadAddress()));
+            case 0xb2: return cmos ? cpu -> cpu.lda(cpu.read(cpu.zeroPageIndirectAddress())) : NOP;
+            case 0xb5: return cpu -> cpu.lda(cpu.read(cpu.zeroPageXAddress()));
+            case 0xb9: return cpu -> cpu.lda(cpu.read(cpu.absoluteYReadAddress()));
+            case 0xbd: return cpu -> cpu.lda(cpu.read(cpu.absoluteXReadAddress()));
+
+            /** CPY - Compare Y Register ********************************************/
+            case 0xc0: return cpu -> cpu.cmp(cpu.getYRegister(), cpu.immediate());
+            case 0xc4: return cpu -> cpu.cmp(cpu.getYRegister(), cpu.read(cpu.zeroPageAddress()));
+            case 0xcc: return cpu -> cpu.cmp(cpu.getYRegister(), cpu.read(cpu.absoluteAddress()));
+
+            /** CMP - Compare Accumulator *******************************************/
+            case 0xc9: return cpu -> cpu.cmp(cpu.getAccumulator(), cpu.immediate());
+            case 0xc1: return cpu -> cpu.cmp(cpu.getAccumulator(), cpu.read(cpu.indexedIndirectAddress()));
+            case 0xc5: return cpu -> cpu.cmp(cpu.getAccumulator(), cpu.read(cpu.zeroPageAddress()));
+            case 0xcd: return cpu -> cpu.cmp(cpu.getAccumulator(), cpu.read(cpu.absoluteAddress()));
+            case 0xd1: return cpu -> cpu.cmp(cpu.getAccumulator(), cpu.read(cpu.indirectIndexedReadAddress()));
+            case 0xd2: return cmos ? cpu -> cpu.cmp(cpu.getAccumulator(), cpu.read(cpu.zeroPageIndirectAddress())) : NOP;
+            case 0xd5: return cpu -> cpu.cmp(cpu.getAccumulator(), cpu.read(cpu.zeroPageXAddress()));
+            case 0xd9: return cpu -> cpu.cmp(cpu.getAccumulator(), cpu.read(cpu.absoluteYReadAddress()));
+            case 0xdd: return cpu -> cpu.cmp(cpu.getAccumulator(), cpu.read(cpu.absoluteXReadAddress()));
+
+            /** DEC - Decrement Memory **********************************************/
+            case 0x3a: return cmos ? cpu -> cpu.lda((cpu.getAccumulator() - 1) & 0xff) : NOP;
+            case 0xc6: return cpu -> cpu.decMemory(cpu.zeroPageAddress());
+            case 0xce: return cpu -> cpu.decMemory(cpu.absoluteAddress());
+            case 0xd6: return cpu -> cpu.decMemory(cpu.zeroPageXAddress());
+            case 0xde: return cpu -> cpu.decMemory(cpu.absoluteXAddress());
+
+            /** CPX - Compare X Register ********************************************/
+            case 0xe0: return cpu -> cpu.cmp(cpu.getXRegister(), cpu.immediate());
+            case 0xe4: return cpu -> cpu.cmp(cpu.getXRegister(), cpu.read(cpu.zeroPageAddress()));
+            case 0xec: return cpu -> cpu.cmp(cpu.getXRegister(), cpu.read(cpu.absoluteAddress()));
+
+            /** SBC - Subtract with Carry (Borrow) **********************************/
+            case 0xe9: return cpu -> cpu.subtractWithCarry(cpu.immediate());
+            case 0xe1: return cpu -> cpu.subtractWithCarry(cpu.read(cpu.indexedIndirectAddress()));
+            case 0xe5: return cpu -> cpu.subtractWithCarry(cpu.read(cpu.zeroPageAddress()));
+            case 0xed: return cpu -> cpu.subtractWithCarry(cpu.read(cpu.absoluteAddress()));
+            case 0xf1: return cpu -> cpu.subtractWithCarry(cpu.read(cpu.indirectIndexedReadAddress()));
+            case 0xf2: return cmos ? cpu -> cpu.subtractWithCarry(cpu.read(cpu.zeroPageIndirectAddress())) : NOP;
+            case 0xf5: return cpu -> cpu.subtractWithCarry(cpu.read(cpu.zeroPageXAddress()));
+            case 0xf9: return cpu -> cpu.subtractWithCarry(cpu.read(cpu.absoluteYReadAddress()));
+            case 0xfd: return cpu -> cpu.subtractWithCarry(cpu.read(cpu.absoluteXReadAddress()));
+
+            /** INC - Increment Memory **********************************************/
+            case 0x1a: return cmos ? cpu -> cpu.lda((cpu.getAccumulator() + 1) & 0xff) : NOP;
+            case 0xe6: return cpu -> cpu.incMemory(cpu.zeroPageAddress());
+            case 0xee: return cpu -> cpu.incMemory(cpu.absoluteAddress());
+            case 0xf6: return cpu -> cpu.incMemory(cpu.zeroPageXAddress());
+            case 0xfe: return cpu -> cpu.incMemory(cpu.absoluteXAddress());
+
+            /** 65C02 TRB/TSB - Test and Reset Bit/Test and Set Bit ***************/
+            case 0x14: return cmos ? cpu -> cpu.trb(cpu.zeroPageAddress()) : NOP;
+            case 0x1c: return cmos ? cpu -> cpu.trb(cpu.absoluteAddress()) : NOP;
+            case 0x04: return cmos ? cpu -> cpu.tsb(cpu.zeroPageAddress()) : NOP;
+            case 0x0c: return cmos ? cpu -> cpu.tsb(cpu.absoluteAddress()) : NOP;
+
+            /** 65C02 RMB/SMB - Reset/Set Memory Bit, BBR/BBS - Branch on Bit ****/
+            default:
+                return bitOperation(opcode, cmos);
+        }
+    }
+
+    /**
+     * The 65C02 Rockwell bit instructions occupy columns 7 and F of the opcode map,
+     * with the bit number encoded in bits 4-6 of the opcode.
+     */
+    private static Operation bitOperation(int opcode, boolean cmos) {
+        if ((opcode & 0x07) != 0x07) {
+            return null;
+        }
+
+        if (!cmos) {
+            return NOP;
+        }
+
+        final int bit = (opcode >> 4) & 0x07;
+        final boolean set = (opcode & 0x80) != 0;
+
+        if ((opcode & 0x08) == 0) {
+            return set ? cpu -> cpu.smb(cpu.zeroPageAddress(), bit)
+                       : cpu -> cpu.rmb(cpu.zeroPageAddress(), bit);
+        } else {
+            return cpu -> cpu.branchOnBit(cpu.zeroPageAddress(), bit, set);
+        }
+    }
+}
@@ -30,6 +30,7 @@ import com.github.codebje.exceptions.SymonException;
 import com.github.codebje.ui.*;
 import com.github.codebje.devices.Memory;
 import com.github.codebje.machines.Machine;
+import com.github.codebje.util.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -38,6 +39,9 @@ import javax.swing.border.EmptyBorder;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.function.Consumer;
 
 /**
  * Symon Simulator Interface and Control.
@@ -51,19 +55,25 @@ public class Simulator {
 
     private final static Logger logger = LoggerFactory.getLogger(Simulator.class.getName());
 
-    // Clock periods, in NS, for each speed. 0MHz, 1MHz, 2MHz, 3MHz, 4MHz, 5MHz, 6MHz, 7MHz, 8MHz.
-    private static final long[] CLOCK_PERIODS = {0, 1000, 500, 333, 250, 200, 167, 143, 125};
+    // Clock speeds, in MHz, offered in the "Clock Speed" menu. Any other speed can be entered.
+    private static final double[] CLOCK_SPEEDS = {1, 2, 4, 8};
 
     // Since it is very expensive to update the UI with Swing's Event Dispatch Thread, we can't afford
-    // to refresh the status view on every simulated clock cycle. Instead, we will only refresh the status view
-    // after this number of steps when running normally.
-    //
-    // Since we're simulating a 1MHz 6502 here, we have a 1 us delay between steps. Setting this to 20000
-    // should give us a status update about every 100 ms.
+    // to refresh the status view on every simulated clock cycle. Instead, while running, a timer
+    // refreshes the status view and the effective speed this many milliseconds apart. Timing the
+    // updates by the wall clock keeps them regular at any clock speed, including turbo.
     //
     // TODO: Work around the event dispatch thread with custom painting code instead of relying on Swing.
     //
-    private static final int MAX_STEPS_BETWEEN_UPDATES = 20000;
+    private static final int MILLIS_BETWEEN_UPDATES = 100;
+
+    // The run loop executes this many emulated clock cycles per call into the CPU, checking
+    // breakpoints and stop requests inside the CPU. At 1MHz this is 10 ms.
+    private static final long CYCLES_PER_SLICE = 10000L;
+
+    // At a fixed clock speed slices are this many per emulated second instead, so that
+    // events posted to the CPU thread, such as speed changes, wait no longer at slow speeds.
+    private static final double SLICES_PER_SECOND = 100.0;
 
     // The simulated machine
     private Machine machine;
@@ -71,9 +81,17 @@ public class Simulator {
     // The current ROM image
     private File currentRomFile;
 
-    // A counter to keep track of the number of UI updates that have been
-    // requested
-    private int stepsSinceLastUpdate = 0;
+    // Fires on the event thread while the simulator is running
+    private final Timer updateTimer = new Timer(MILLIS_BETWEEN_UPDATES, e -> updateRunningState());
+
+    // Wall-clock time of the last UI update, and the emulated cycle count at that time,
+    // used to measure the effective clock speed.
+    private long lastUpdateTime = 0L;
+    private long lastUpdateCycles = 0L;
+    private long lastUpdateSkippedCycles = 0L;
+
+    // Whether the run loop fast-forwards through loops polling a device
+    private boolean idleLoopsSkipped = true;
 
     // The number of steps to run per click of the "Step" button
     private int stepsPerClick = 1;
@@ -94,6 +112,7 @@ public class Simulator {
      * The Memory Window shows the contents of one page of memory.
      */
     private final MemoryWindow memoryWindow;
+    private final HeatmapWindow heatmapWindow;
 
     /**
      * The Source Window shows the source file.
@@ -119,6 +138,9 @@ public class Simulator {
     private PreferencesDialog preferences;
 
     private Breakpoints breakpoints;
+    private Watchpoints watchpoints;
+
+    private final StopConditions stopConditions = new StopConditions();
 
     private final Object commandMonitorObject = new Object();
 
@@ -135,14 +157,16 @@ public class Simulator {
     private static final String[] STEPS = {"1", "5", "10", "20", "50", "100"};
 
     public Simulator(Class machineClass) throws Exception {
-        this.breakpoints = new Breakpoints(this);
+        this.breakpoints = new Breakpoints(this, stopConditions);
 
         this.machine = (Machine) machineClass.getConstructors()[0].newInstance();
 
         // Initialize final fields in the constructor.
         this.traceLog = new TraceLog();
         this.memoryWindow = new MemoryWindow(machine.getBus());
-        this.breakpointsWindow = new BreakpointsWindow(breakpoints, mainWindow);
+        this.heatmapWindow = new HeatmapWindow(machine.getBus());
+        this.watchpoints = new Watchpoints(machine.getBus());
+        this.breakpointsWindow = new BreakpointsWindow(breakpoints, watchpoints, mainWindow);
         this.sourceWindow = null;
 
         if (machine.getGPU() != null) {
@@ -274,28 +298,46 @@ public class Simulator {
         // Shift focus to the video.
         videoPanel.requestFocus();
         // Spin up the new run loop
+        stopConditions.clearStopRequest();
         runLoop = new RunLoop();
+        lastUpdateTime = System.nanoTime();
+        lastUpdateCycles = machine.getCpu().getCycleCount();
+        lastUpdateSkippedCycles = machine.getCpu().getSkippedIdleCycles();
         runLoop.start();
+        updateTimer.start();
         traceLog.simulatorDidStart();
         statusLabel.setText("Simulator running");
     }
 
     private void handleStop() {
+        stopRunLoop();
+        statusLabel.setText("Simulator stopped");
+    }
+
+    /*
+     * Stop the run loop and wait for its thread to finish, so that the machine and its
+     * event scheduler are only touched by the event thread afterwards.
+     */
+    private void stopRunLoop() {
+        if (runLoop == null) {
+            return;
+        }
+        updateTimer.stop();
         runLoop.requestStop();
         runLoop.interrupt();
+        try {
+            runLoop.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
         runLoop = null;
-        statusLabel.setText("Simulator stopped");
     }
 
     /*
      * Perform a reset.
      */
     private void handleReset(boolean isColdReset) {
-        if (runLoop != null && runLoop.isRunning()) {
-            runLoop.requestStop();
-            runLoop.interrupt();
-            runLoop = null;
-        }
+        stopRunLoop();
 
         try {
             logger.debug("Reset requested. Resetting CPU.");
@@ -328,7 +370,9 @@ public class Simulator {
     private void handleStep(int numSteps) {
         try {
             for (int i = 0; i < numSteps; i++) {
-                step();
+                if (!step()) {
+                    break;
+                }
             }
             updateVisibleState();
         } catch (SymonException ex) {
@@ -339,19 +383,90 @@ public class Simulator {
 
     /**
      * Perform a single step of the simulated system.
+     *
+     * @return False if a watchpoint was hit, so further steps should not be taken.
      */
-    private void step() throws MemoryAccessException {
-        machine.getCpu().step();
+    private boolean step() throws MemoryAccessException {
+        Cpu cpu = machine.getCpu();
+        Bus bus = machine.getBus();
+
+        // Watchpoint changes are posted to the CPU thread, which is idle while stepping
+        bus.getScheduler().runPosted();
+        boolean watching = bus.hasWatchpoints();
+        if (watching) {
+            bus.clearWatchHit();
+        }
 
-        traceLog.append(machine.getCpu().getCpuState());
+        cpu.step();
+        stepCompleted();
 
-        // This is a very expensive update, and we're doing it without
-        // a delay, so we don't want to overwhelm the Swing event processing thread
-        // with requests. Limit the number of ui updates that can be performed.
-        if (stepsSinceLastUpdate++ > MAX_STEPS_BETWEEN_UPDATES) {
-            updateVisibleState();
-            stepsSinceLastUpdate = 0;
+        if (watching && (bus.getWatchHitKind() != 0 || bus.watchExecute(cpu.getProgramCounter()))) {
+            logWatchHit();
+            return false;
         }
+        return true;
+    }
+
+    private void logWatchHit() {
+        Bus bus = machine.getBus();
+        logger.info("Stopped by {} watchpoint at ${}", Watchpoints.describe(bus.getWatchHitKind()),
+                    Utils.wordToHex(bus.getWatchHitAddress()));
+    }
+
+    /**
+     * Run one slice of the run loop. While the trace log is visible every instruction is
+     * recorded, so slices are a single instruction long.
+     */
+    private Cpu.StopReason runSlice() throws MemoryAccessException {
+        Cpu cpu = machine.getCpu();
+        boolean tracing = traceLog.isVisible();
+
+        stopConditions.setHaltOnBrk(preferences.getHaltOnBreak());
+        stopConditions.setIdleLoopsSkipped(idleLoopsSkipped && !tracing);
+
+        long sliceCycles = cpu.isTurboMode() ? CYCLES_PER_SLICE :
+                           Math.max(1, (long) (cpu.getClockFrequencyInHz() / SLICES_PER_SECOND));
+        Cpu.StopReason reason = cpu.run(tracing ? 1 : sliceCycles, stopConditions);
+        stepCompleted();
+
+        return reason;
+    }
+
+    private void stepCompleted() {
+        traceLog.append(machine.getCpu().getCpuState());
+    }
+
+    /*
+     * Called by the update timer on the event thread while the simulator is running.
+     */
+    private void updateRunningState() {
+        updateEffectiveSpeed(System.nanoTime());
+        updateVisibleState();
+    }
+
+    /**
+     * Report the emulated clock speed achieved since the last UI update. The counters are
+     * read while the run thread is changing them; a reading a few instructions old only
+     * moves a little of the count into the next update.
+     */
+    private void updateEffectiveSpeed(long now) {
+        Cpu cpu = machine.getCpu();
+        long cycles = cpu.getCycleCount();
+        long skippedCycles = cpu.getSkippedIdleCycles();
+        double mhz = (cycles - lastUpdateCycles) * 1000.0 / (now - lastUpdateTime);
+        double skippedPercent = (cycles == lastUpdateCycles) ? 0.0 :
+                100.0 * (skippedCycles - lastUpdateSkippedCycles) / (cycles - lastUpdateCycles);
+        String mode = cpu.isTurboMode() ? "turbo" :
+                      formatMegahertz(cpu.getClockFrequencyInHz() / 1000000.0) + " MHz" +
+                      (cpu.isExactPacing() ? ", exact" : "");
+
+        lastUpdateTime = now;
+        lastUpdateCycles = cycles;
+        lastUpdateSkippedCycles = skippedCycles;
+
+        statusLabel.setText(String.format("Simulator running (%s): %.2f MHz effective, %.0f%% idle skipped",
+                                          mode, mhz, skippedPercent));
+        statusPane.updateEffectiveSpeed(mhz);
     }
 
     /**
@@ -360,7 +475,7 @@ public class Simulator {
     private void loadProgram(byte[] program, int startAddress) throws MemoryAccessException {
         int addr = startAddress, i;
         for (i = 0; i < program.length; i++) {
-            machine.getBus().write(addr++, program[i] & 0xff);
+            machine.getBus().write(addr++, program[i] & 0xff, false);
         }
 
         logger.info("Loaded {} bytes at address 0x{}", i, Integer.toString(startAddress, 16));
@@ -388,6 +503,7 @@ public class Simulator {
 
         void requestStop() {
             isRunning = false;
+            stopConditions.requestStop();
         }
 
         public void run() {
@@ -404,16 +520,26 @@ public class Simulator {
             });
 
             try {
+                Cpu.StopReason reason;
                 do {
-                    step();
-                } while (shouldContinue());
+                    reason = runSlice();
+                } while (isRunning && reason == Cpu.StopReason.BUDGET_EXHAUSTED);
+                logger.debug("Run loop stopped: {}", reason);
+                if (reason == Cpu.StopReason.WATCHPOINT) {
+                    logWatchHit();
+                }
             } catch (SymonException ex) {
                 logger.error("Exception in main simulator run thread. Exiting run.", ex);
             }
 
             SwingUtilities.invokeLater(() -> {
+                // A run started since this one ended has its own updates
+                if (runLoop == RunLoop.this) {
+                    updateTimer.stop();
+                }
                 statusPane.updateState();
-                memoryWindow.updateState();
+                // Writes made while the view was polled may have been missed
+                memoryWindow.refresh();
                 runStopButton.setText("Run");
                 stepButton.setEnabled(true);
                 stepCountBox.setEnabled(true);
@@ -427,14 +553,6 @@ public class Simulator {
             isRunning = false;
         }
 
-        /**
-         * @return True if the run loop should proceed to the next step.
-         */
-        private boolean shouldContinue() {
-            return !breakpoints.contains(machine.getCpu().getProgramCounter()) &&
-                    isRunning &&
-                    !(preferences.getHaltOnBreak() && machine.getCpu().getInstruction() == 0x00);
-        }
     }
 
     String disassembleOpAtAddress(int address) throws MemoryAccessException {
@@ -583,21 +701,109 @@ public class Simulator {
     }
 
     class SetSpeedAction extends AbstractAction {
-        private int speed;
+        private double megahertz;
 
-        SetSpeedAction(int speed) {
-            super(Integer.toString(speed) + " MHz", null);
-            this.speed = speed;
-            putValue(SHORT_DESCRIPTION, "Set simulated speed to " + speed + " MHz.");
+        SetSpeedAction(double megahertz) {
+            super(formatMegahertz(megahertz) + " MHz", null);
+            this.megahertz = megahertz;
+            putValue(SHORT_DESCRIPTION, "Set simulated speed to " + formatMegahertz(megahertz) + " MHz.");
         }
 
         @Override
         public void actionPerformed(ActionEvent actionEvent) {
-            if (speed < 1 || speed > CLOCK_PERIODS.length - 1) {
+            postToCpu(cpu -> {
+                cpu.setTurboMode(false);
+                cpu.setClockFrequencyInHz(megahertz * 1000000.0);
+            });
+        }
+    }
+
+    class SetOtherSpeedAction extends AbstractAction {
+        SetOtherSpeedAction() {
+            super("Other...", null);
+            putValue(SHORT_DESCRIPTION, "Set any simulated speed, such as a crystal frequency.");
+        }
+
+        @Override
+        public void actionPerformed(ActionEvent actionEvent) {
+            String current = formatMegahertz(machine.getCpu().getClockFrequencyInHz() / 1000000.0);
+            String input = JOptionPane.showInputDialog(mainWindow, "Clock speed in MHz:", current);
+            if (input == null) {
                 return;
             }
 
-            machine.getCpu().setClockPeriodInNs(CLOCK_PERIODS[speed]);
+            double frequencyInHz;
+            try {
+                frequencyInHz = Double.parseDouble(input.trim()) * 1000000.0;
+            } catch (NumberFormatException ex) {
+                frequencyInHz = Double.NaN;
+            }
+            if (!(frequencyInHz >= 0.001 && frequencyInHz <= Cpu.MAX_CLOCK_FREQUENCY_IN_HZ)) {
+                JOptionPane.showMessageDialog(mainWindow, "Not a valid clock speed: " + input,
+                                              "Failure", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+
+            final double hz = frequencyInHz;
+            postToCpu(cpu -> {
+                cpu.setClockFrequencyInHz(hz);
+                cpu.setTurboMode(false);
+            });
+            putValue(NAME, "Other (" + formatMegahertz(hz / 1000000.0) + " MHz)...");
+        }
+    }
+
+    /*
+     * Speed settings are changed on the CPU thread, between instructions, so that they
+     * never race its pacing. While the simulator is stopped they take effect on the next
+     * step or run.
+     */
+    private void postToCpu(Consumer<Cpu> change) {
+        Cpu cpu = machine.getCpu();
+        machine.getBus().getScheduler().post(cycle -> change.accept(cpu));
+    }
+
+    private static String formatMegahertz(double megahertz) {
+        return new BigDecimal(megahertz).round(new MathContext(10)).stripTrailingZeros().toPlainString();
+    }
+
+    class SetTurboAction extends AbstractAction {
+        SetTurboAction() {
+            super("Turbo", null);
+            putValue(SHORT_DESCRIPTION, "Run as fast as the host allows.");
+        }
+
+        @Override
+        public void actionPerformed(ActionEvent actionEvent) {
+            postToCpu(cpu -> cpu.setTurboMode(true));
+        }
+    }
+
+    class ToggleExactPacingAction extends AbstractAction {
+        ToggleExactPacingAction() {
+            super("Exact Pacing", null);
+            putValue(SHORT_DESCRIPTION, "Pace every instruction to the clock speed. " +
+                                        "Keeps a host core busy.");
+        }
+
+        @Override
+        public void actionPerformed(ActionEvent actionEvent) {
+            // A toggle still waiting on the CPU thread is not yet visible in the CPU
+            boolean exact = ((AbstractButton) actionEvent.getSource()).isSelected();
+            postToCpu(cpu -> cpu.setExactPacing(exact));
+        }
+    }
+
+    class ToggleIdleLoopSkippingAction extends AbstractAction {
+        ToggleIdleLoopSkippingAction() {
+            super("Skip Idle Loops", null);
+            putValue(SHORT_DESCRIPTION, "Fast-forward loops that poll a device until the device can next change. " +
+                                        "Not used while the trace log is open.");
+        }
+
+        @Override
+        public void actionPerformed(ActionEvent actionEvent) {
+            idleLoopsSkipped = !idleLoopsSkipped;
         }
     }
 
@@ -651,6 +857,17 @@ public class Simulator {
         }
     }
 
+    class ToggleHeatmapWindowAction extends AbstractAction {
+        ToggleHeatmapWindowAction() {
+            super("Memory Heatmap", null);
+            putValue(SHORT_DESCRIPTION, "Show or Hide the Memory Heatmap");
+        }
+
+        public void actionPerformed(ActionEvent actionEvent) {
+            heatmapWindow.setVisible(!heatmapWindow.isVisible());
+        }
+    }
+
     class ToggleSourceWindowAction extends AbstractAction {
         ToggleSourceWindowAction() {
             super("Source Window", null);
@@ -803,6 +1020,15 @@ public class Simulator {
             });
             viewMenu.add(showMemoryTable);
 
+            final JCheckBoxMenuItem showHeatmap = new JCheckBoxMenuItem(new ToggleHeatmapWindowAction());
+            heatmapWindow.addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowClosing(WindowEvent e) {
+                    showHeatmap.setSelected(false);
+                }
+            });
+            viewMenu.add(showHeatmap);
+
             showSourceView = new JCheckBoxMenuItem(new ToggleSourceWindowAction());
             viewMenu.add(showSourceView);
 
@@ -826,14 +1052,27 @@ public class Simulator {
             JMenu speedSubMenu = new JMenu("Clock Speed");
             ButtonGroup speedGroup = new ButtonGroup();
 
-            makeSpeedMenuItem(1, speedSubMenu, speedGroup);
-            makeSpeedMenuItem(2, speedSubMenu, speedGroup);
-            makeSpeedMenuItem(4, speedSubMenu, speedGroup);
-            makeSpeedMenuItem(8, speedSubMenu, speedGroup);
+            for (double speed : CLOCK_SPEEDS) {
+                makeSpeedMenuItem(speed, speedSubMenu, speedGroup);
+            }
+            JCheckBoxMenuItem otherSpeed = new JCheckBoxMenuItem(new SetOtherSpeedAction());
+            speedSubMenu.add(otherSpeed);
+            speedGroup.add(otherSpeed);
+            speedSubMenu.addSeparator();
+            makeTurboMenuItem(speedSubMenu, speedGroup);
+            speedSubMenu.addSeparator();
+
+            JCheckBoxMenuItem exactPacing = new JCheckBoxMenuItem(new ToggleExactPacingAction());
+            exactPacing.setSelected(machine.getCpu().isExactPacing());
+            speedSubMenu.add(exactPacing);
 
             simulatorMenu.add(speedSubMenu);
             simulatorMenu.add(cpuTypeMenu);
 
+            JCheckBoxMenuItem idleLoops = new JCheckBoxMenuItem(new ToggleIdleLoopSkippingAction());
+            idleLoops.setSelected(idleLoopsSkipped);
+            simulatorMenu.add(idleLoops);
+
             // "Breakpoints"
             final JCheckBoxMenuItem showBreakpoints = new JCheckBoxMenuItem(new ToggleBreakpointWindowAction());
             // Un-check the menu item if the user closes the window directly
@@ -848,15 +1087,18 @@ public class Simulator {
             add(simulatorMenu);
         }
 
-        private void makeSpeedMenuItem(int speed, JMenu subMenu, ButtonGroup group) {
-            if (speed < 1 || speed > CLOCK_PERIODS.length - 1) {
-                return;
-            }
-
+        private void makeSpeedMenuItem(double speed, JMenu subMenu, ButtonGroup group) {
             Action action = new SetSpeedAction(speed);
 
             JCheckBoxMenuItem item = new JCheckBoxMenuItem(action);
-            item.setSelected(CLOCK_PERIODS[speed] == Cpu.DEFAULT_CLOCK_PERIOD_IN_NS);
+            item.setSelected(speed * 1000000.0 == machine.getCpu().getClockFrequencyInHz());
+            subMenu.add(item);
+            group.add(item);
+        }
+
+        private void makeTurboMenuItem(JMenu subMenu, ButtonGroup group) {
+            JCheckBoxMenuItem item = new JCheckBoxMenuItem(new SetTurboAction());
+            item.setSelected(machine.getCpu().isTurboMode());
             subMenu.add(item);
             group.add(item);
         }
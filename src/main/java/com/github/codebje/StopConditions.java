@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2016 Seth J. Morabito <web@loomcom.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.codebje;
+
+import java.util.Arrays;
+
+/**
+ * The conditions under which {@link Cpu#run(long, StopConditions)} returns before its
+ * cycle budget is exhausted. Breakpoints are held in a flag table so they can be checked
+ * after every instruction without boxing or hashing the program counter.
+ */
+public class StopConditions {
+
+    /* One flag per address in the 16 bit address space */
+    private final boolean[] breakpoints = new boolean[0x10000];
+    private int breakpointCount = 0;
+
+    private boolean haltOnBrk = false;
+    private boolean haltOnIllegalOpcode = false;
+    private boolean haltOnTrap = false;
+
+    /* Polling loops may be skipped through to the next change in what they poll */
+    private boolean idleLoopsSkipped = true;
+
+    /* A CPU halted with nothing scheduled to wake it ends the run rather than waiting */
+    private boolean stopWhenBlocked = false;
+
+    /* Set from another thread to end a run at the next instruction boundary */
+    private volatile boolean stopRequested = false;
+
+    public void addBreakpoint(int address) {
+        address &= 0xffff;
+        if (!breakpoints[address]) {
+            breakpoints[address] = true;
+            breakpointCount++;
+        }
+    }
+
+    public void removeBreakpoint(int address) {
+        address &= 0xffff;
+        if (breakpoints[address]) {
+            breakpoints[address] = false;
+            breakpointCount--;
+        }
+    }
+
+    public void clearBreakpoints() {
+        Arrays.fill(breakpoints, false);
+        breakpointCount = 0;
+    }
+
+    public boolean isBreakpoint(int address) {
+        return breakpoints[address & 0xffff];
+    }
+
+    public boolean hasBreakpoints() {
+        return breakpointCount > 0;
+    }
+
+    public boolean isHaltOnBrk() {
+        return haltOnBrk;
+    }
+
+    /**
+     * @param haltOnBrk True to stop after a BRK instruction executes.
+     */
+    public void setHaltOnBrk(boolean haltOnBrk) {
+        this.haltOnBrk = haltOnBrk;
+    }
+
+    public boolean isHaltOnIllegalOpcode() {
+        return haltOnIllegalOpcode;
+    }
+
+    /**
+     * @param haltOnIllegalOpcode True to stop after an opcode the CPU does not implement.
+     */
+    public void setHaltOnIllegalOpcode(boolean haltOnIllegalOpcode) {
+        this.haltOnIllegalOpcode = haltOnIllegalOpcode;
+    }
+
+    public boolean isHaltOnTrap() {
+        return haltOnTrap;
+    }
+
+    /**
+     * @param haltOnTrap True to stop after an instruction that jumps or branches to itself,
+     *                   the usual way for a test program to signal that it has finished.
+     */
+    public void setHaltOnTrap(boolean haltOnTrap) {
+        this.haltOnTrap = haltOnTrap;
+    }
+
+    public boolean isIdleLoopsSkipped() {
+        return idleLoopsSkipped;
+    }
+
+    /**
+     * @param idleLoopsSkipped False if polling loops must execute every iteration, for
+     *                         example to check timing against a run that does.
+     */
+    public void setIdleLoopsSkipped(boolean idleLoopsSkipped) {
+        this.idleLoopsSkipped = idleLoopsSkipped;
+    }
+
+    public boolean isStopWhenBlocked() {
+        return stopWhenBlocked;
+    }
+
+    /**
+     * @param stopWhenBlocked True to end the run when the CPU is halted by STP, or by WAI
+     *                        with no device event scheduled, rather than wait for another
+     *                        thread to raise an interrupt. For runs with no other thread.
+     */
+    public void setStopWhenBlocked(boolean stopWhenBlocked) {
+        this.stopWhenBlocked = stopWhenBlocked;
+    }
+
+    /**
+     * Ask a running CPU to stop. The request remains in effect until cleared, so any run
+     * started afterwards also stops without executing an instruction.
+     */
+    public void requestStop() {
+        stopRequested = true;
+    }
+
+    public void clearStopRequest() {
+        stopRequested = false;
+    }
+
+    public boolean isStopRequested() {
+        return stopRequested;
+    }
+}
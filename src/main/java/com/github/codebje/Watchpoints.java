@@ -0,0 +1,121 @@
+/*
+ * Copyright (c) 2016 Seth J. Morabito <web@loomcom.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.codebje;
+
+import com.github.codebje.util.Utils;
+
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.List;
+
+public class Watchpoints extends AbstractTableModel {
+
+    // Each watchpoint's first and last address, and the kinds of access watched
+    private final List<int[]> watchpoints = new ArrayList<>();
+
+    // Watchpoints are mirrored into the bus, on the CPU thread between instructions
+    private final Bus bus;
+
+    public Watchpoints(Bus bus) {
+        this.bus = bus;
+    }
+
+    public boolean isEmpty() {
+        return watchpoints.isEmpty();
+    }
+
+    public void addWatchpoint(int first, int last, int kinds) {
+        watchpoints.add(new int[] {first, last, kinds});
+        bus.getScheduler().post(cycle -> bus.addWatchpoint(first, last, kinds));
+        fireTableDataChanged();
+    }
+
+    public void removeWatchpointAtIndex(int index) {
+        if (index < 0) {
+            return;
+        }
+
+        watchpoints.remove(index);
+
+        // Ranges may overlap, so the rest are set again rather than this one removed
+        final List<int[]> remaining = new ArrayList<>(watchpoints);
+        bus.getScheduler().post(cycle -> {
+            bus.clearWatchpoints();
+            for (int[] watchpoint : remaining) {
+                bus.addWatchpoint(watchpoint[0], watchpoint[1], watchpoint[2]);
+            }
+        });
+        fireTableDataChanged();
+    }
+
+    @Override
+    public String getColumnName(int index) {
+        if (index == 0) {
+            return "Address";
+        } else {
+            return "Watch";
+        }
+    }
+
+    @Override
+    public int getRowCount() {
+        return watchpoints.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return 2;
+    }
+
+    @Override
+    public Object getValueAt(int rowIndex, int columnIndex) {
+        int[] watchpoint = watchpoints.get(rowIndex);
+
+        if (columnIndex == 0) {
+            String first = "$" + Utils.wordToHex(watchpoint[0]);
+            return watchpoint[0] == watchpoint[1] ? first : first + "-$" + Utils.wordToHex(watchpoint[1]);
+        } else if (columnIndex == 1) {
+            return describe(watchpoint[2]);
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * @return The kinds of access watched, as some of "R", "W" and "X".
+     */
+    public static String describe(int kinds) {
+        StringBuilder text = new StringBuilder();
+        if ((kinds & Bus.WATCH_READ) != 0) {
+            text.append('R');
+        }
+        if ((kinds & Bus.WATCH_WRITE) != 0) {
+            text.append('W');
+        }
+        if ((kinds & Bus.WATCH_EXECUTE) != 0) {
+            text.append('X');
+        }
+        return text.toString();
+    }
+}
@@ -37,6 +37,11 @@ import java.util.Set;
 
 public abstract class Device implements Comparable<Device> {
 
+    /**
+     * Returned by {@link #cyclesUntilChange(int)} when a register may change at any time.
+     */
+    public static final long UNPREDICTABLE = -1L;
+
     /**
      * Size of the device in memory
      */
@@ -57,6 +62,11 @@ public abstract class Device implements Comparable<Device> {
      */
     private Bus bus;
 
+    /**
+     * The bus's record of this device, while it is attached.
+     */
+    private Bus.Mapping busMapping;
+
     /**
      * Listeners to notify on update.
      */
@@ -84,6 +94,14 @@ public abstract class Device implements Comparable<Device> {
         this.bus = bus;
     }
 
+    public Bus.Mapping getBusMapping() {
+        return busMapping;
+    }
+
+    public void setBusMapping(Bus.Mapping busMapping) {
+        this.busMapping = busMapping;
+    }
+
     public MemoryRange getMemoryRange() {
         return memoryRange;
     }
@@ -112,6 +130,19 @@ public abstract class Device implements Comparable<Device> {
 
     public abstract void reset() throws MemoryAccessException;
 
+    /**
+     * The number of CPU clock cycles from now for which reads of an address are certain to
+     * return the same value, barring writes to the device. Used to fast-forward the CPU
+     * through loops that poll the device.
+     *
+     * @param address The address, relative to the start of the device.
+     * @return A number of cycles, {@link Long#MAX_VALUE} if the value only changes when
+     *         written, or {@link #UNPREDICTABLE} if it may change at any time.
+     */
+    public long cyclesUntilChange(int address) {
+        return UNPREDICTABLE;
+    }
+
     public void registerListener(DeviceChangeListener listener) {
         deviceChangeListeners.add(listener);
     }
@@ -24,27 +24,49 @@
 package com.github.codebje.devices;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
 import java.util.*;
 
 import com.github.codebje.exceptions.MemoryAccessException;
 import com.github.codebje.exceptions.MemoryRangeException;
 
+/**
+ * Plain RAM or ROM, one byte per address. The contents are normally a byte array on the
+ * heap, which the bus reads and writes directly. They can instead be held off the heap in
+ * a direct buffer, which keeps large memories out of the garbage collector's way at the
+ * cost of every access going through {@link #read} and {@link #write}.
+ */
 public class Memory extends Device {
 
     private boolean readOnly;
-    private int[] mem;
+
+    /* The contents: an array on the heap, or a direct buffer off it */
+    private final byte[] mem;
+    private final ByteBuffer direct;
 
     /* Initialize all locations to 0x00 (BRK) */
     private static final int DEFAULT_FILL = 0x00;
 
-    public Memory(int startAddress, int endAddress, boolean readOnly)
+    public Memory(int startAddress, int endAddress, boolean readOnly, boolean offHeap)
             throws MemoryRangeException {
         super(startAddress, endAddress, (readOnly ? "RO Memory" : "RW Memory"));
         this.readOnly = readOnly;
-        this.mem = new int[this.size];
+        if (offHeap) {
+            this.mem = null;
+            this.direct = ByteBuffer.allocateDirect(this.size);
+        } else {
+            this.mem = new byte[this.size];
+            this.direct = null;
+        }
         this.fill(DEFAULT_FILL);
     }
 
+    public Memory(int startAddress, int endAddress, boolean readOnly)
+            throws MemoryRangeException {
+        this(startAddress, endAddress, readOnly, false);
+    }
+
     public Memory(int startAddress, int endAddress) throws MemoryRangeException {
         this(startAddress, endAddress, false);
     }
@@ -59,11 +81,121 @@ public class Memory extends Device {
         return new Memory(startAddress, endAddress, false);
     }
 
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * The array holding this memory's contents, one byte per address from the start of its
+     * range. The bus reads and writes it directly for the pages this memory fills, so it must
+     * never be replaced; anything else should use {@link #read} and {@link #write}.
+     *
+     * @return The array, or null if the contents are held off the heap.
+     */
+    public byte[] getContents() {
+        return mem;
+    }
+
     public void write(int address, int data) throws MemoryAccessException {
+        store(address, data);
+        if (getBus() != null) {
+            getBus().deviceContentsChanged(this, address);
+        }
+    }
+
+    /**
+     * Write a byte without notifying the bus. The bus uses this for its own writes, which
+     * it records itself.
+     */
+    public void store(int address, int data) throws MemoryAccessException {
+        if (readOnly) {
+            throw new MemoryAccessException("Cannot write to read-only memory at address " + address);
+        } else if (mem != null) {
+            this.mem[address] = (byte) data;
+        } else {
+            this.direct.put(address, (byte) data);
+        }
+    }
+
+    @Override
+    public long cyclesUntilChange(int address) {
+        return Long.MAX_VALUE;
+    }
+
+    /**
+     * Copy a block of memory into an array.
+     *
+     * @param address The device address of the first byte to copy.
+     * @param dest    The array to copy into.
+     * @param offset  The index in the array of the first byte.
+     * @param length  The number of bytes to copy.
+     * @throws MemoryAccessException if the block is not wholly within this memory.
+     */
+    public void readBlock(int address, byte[] dest, int offset, int length) throws MemoryAccessException {
+        checkBlock(address, length);
+        if (mem != null) {
+            System.arraycopy(mem, address, dest, offset, length);
+        } else {
+            ByteBuffer source = direct.duplicate();
+            source.position(address);
+            source.get(dest, offset, length);
+        }
+    }
+
+    /**
+     * Copy a block of bytes into memory. Like a write, this fails for read-only memory.
+     *
+     * @param address The device address of the first byte to overwrite.
+     * @param src     The array to copy from.
+     * @param offset  The index in the array of the first byte.
+     * @param length  The number of bytes to copy.
+     * @throws MemoryAccessException if the memory is read-only, or the block is not wholly
+     *                               within it.
+     */
+    public void writeBlock(int address, byte[] src, int offset, int length) throws MemoryAccessException {
         if (readOnly) {
             throw new MemoryAccessException("Cannot write to read-only memory at address " + address);
+        }
+        checkBlock(address, length);
+        put(address, src, offset, length);
+        contentsChanged();
+    }
+
+    /**
+     * Copy a block of this memory into another, for example to take or restore a snapshot.
+     *
+     * @param address       The device address of the first byte to copy.
+     * @param target        The memory to copy into.
+     * @param targetAddress The device address in the target of the first byte.
+     * @param length        The number of bytes to copy.
+     * @throws MemoryAccessException if the target is read-only, or either block is not
+     *                               wholly within its memory.
+     */
+    public void copyTo(int address, Memory target, int targetAddress, int length) throws MemoryAccessException {
+        checkBlock(address, length);
+        if (mem != null) {
+            target.writeBlock(targetAddress, mem, address, length);
+        } else {
+            byte[] block = new byte[length];
+            readBlock(address, block, 0, length);
+            target.writeBlock(targetAddress, block, 0, length);
+        }
+    }
+
+    private void checkBlock(int address, int length) throws MemoryAccessException {
+        if (address < 0 || length < 0 || address + length > size) {
+            throw new MemoryAccessException(String.format("Block of %d bytes at address %d is outside %s",
+                                                          length, address, this));
+        }
+    }
+
+    private void put(int address, byte[] src, int offset, int length) {
+        if (mem != null) {
+            System.arraycopy(src, offset, mem, address, length);
         } else {
-            this.mem[address] = data;
+            ByteBuffer target = direct.duplicate();
+            target.position(address);
+            target.put(src, offset, length);
         }
     }
 
@@ -78,16 +210,12 @@ public class Memory extends Device {
         if (file.canRead()) {
             long fileSize = file.length();
 
-            if (fileSize > mem.length) {
+            if (fileSize > size) {
                 throw new MemoryRangeException("File will not fit in available memory.");
             } else {
-                int i = 0;
-                FileInputStream fis = new FileInputStream(file);
-                BufferedInputStream bis = new BufferedInputStream(fis);
-                DataInputStream dis = new DataInputStream(bis);
-                while (dis.available() != 0) {
-                    mem[i++] = dis.readUnsignedByte();
-                }
+                byte[] contents = Files.readAllBytes(file.toPath());
+                put(0, contents, 0, Math.min(contents.length, size));
+                contentsChanged();
             }
         } else {
             throw new IOException("Cannot open file " + file);
@@ -96,7 +224,10 @@ public class Memory extends Device {
     }
 
     public int read(int address, boolean cpuAccess) throws MemoryAccessException {
-        return this.mem[address];
+        if (mem != null) {
+            return this.mem[address] & 0xff;
+        }
+        return this.direct.get(address) & 0xff;
     }
 
     @Override
@@ -104,7 +235,20 @@ public class Memory extends Device {
     }
 
     public void fill(int val) {
-        Arrays.fill(this.mem, val);
+        if (mem != null) {
+            Arrays.fill(this.mem, (byte) val);
+        } else {
+            for (int address = 0; address < size; address++) {
+                this.direct.put(address, (byte) val);
+            }
+        }
+        contentsChanged();
+    }
+
+    private void contentsChanged() {
+        if (getBus() != null) {
+            getBus().deviceContentsChanged(this);
+        }
     }
 
     public String toString() {
@@ -1,5 +1,6 @@
 package com.github.codebje.devices;
 
+import com.github.codebje.Cpu;
 import com.github.codebje.exceptions.MemoryAccessException;
 import com.github.codebje.exceptions.MemoryRangeException;
 
@@ -191,12 +192,41 @@ public class VeronicaGPU extends VideoDevice {
 
     @Override
     public int read(int address, boolean cpuAccess) throws MemoryAccessException {
-        long frameTime = System.nanoTime() % NANOS_PER_FRAME;
+        double frameTime = frameTime();
 
         // 0xff in VBL period, 0x00 outside of it.
         return (frameTime > NANOS_PER_VBLANK) ? 0x00 : 0xff;
     }
 
+    @Override
+    public long cyclesUntilChange(int address) {
+        Cpu cpu = getCpu();
+        if (cpu == null) {
+            return UNPREDICTABLE;
+        }
+
+        double frameTime = frameTime();
+        double remaining = ((frameTime > NANOS_PER_VBLANK) ? NANOS_PER_FRAME : NANOS_PER_VBLANK) - frameTime;
+        return (long) (remaining * cpu.getClockFrequencyInHz() / 1e9);
+    }
+
+    /*
+     * The time into the current video frame, in nanoseconds. Frames are timed by the
+     * emulated clock, so the blanking signal keeps step with the simulated CPU whether it
+     * is paced or running in turbo mode.
+     */
+    private double frameTime() {
+        Cpu cpu = getCpu();
+        if (cpu == null) {
+            return System.nanoTime() % NANOS_PER_FRAME;
+        }
+        return (cpu.getCycleCount() * 1e9 / cpu.getClockFrequencyInHz()) % NANOS_PER_FRAME;
+    }
+
+    private Cpu getCpu() {
+        return (getBus() == null) ? null : getBus().getCpu();
+    }
+
     @Override
     public Image getImage() {
         return image;
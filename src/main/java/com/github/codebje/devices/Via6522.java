@@ -23,6 +23,8 @@
 
 package com.github.codebje.devices;
 
+import com.github.codebje.Bus;
+import com.github.codebje.EventScheduler;
 import com.github.codebje.exceptions.MemoryAccessException;
 import com.github.codebje.exceptions.MemoryRangeException;
 
@@ -30,13 +32,13 @@ import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.util.Deque;
 import java.util.EnumMap;
-import java.util.concurrent.*;
+import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.logging.Logger;
 
 /**
  * Very basic implementation of a MOS 6522 VIA.
  *
- * TODO: Implement timers as threads.
+ * TODO: Implement timers as scheduler events.
  */
 public class Via6522 extends Pia implements KeyListener {
     private static final Logger logger = Logger.getLogger(Via6522.class.getName());
@@ -54,24 +56,54 @@ public class Via6522 extends Pia implements KeyListener {
 
     // Received keycodes are sent to the CPU at a rate slow enough that it has a chance to
     // process each IRQ, via a queue. As this emulates a PS2 keyboard, each released key is
-    // sent as two codes - 0xF0 first, then the released key's code.
-    private final ScheduledExecutorService scheduler;
+    // sent as two codes - 0xF0 first, then the released key's code. Keys arrive on the AWT
+    // event thread; codes are delivered by events on the CPU's thread, IRQ_RATE apart in
+    // emulated time.
     private final Deque<Byte> codeQueue = new ConcurrentLinkedDeque<>();
+    private final EventScheduler.Event deliverCode = this::deliverCode;
+    private boolean delivering = false;
 
     public Via6522(int address) throws MemoryRangeException {
         super(address, address + VIA_SIZE - 1, "MOS 6522 VIA");
         registerMap = new EnumMap<>(Register.class);
-        scheduler = Executors.newSingleThreadScheduledExecutor();
-        scheduler.scheduleAtFixedRate(() -> {
-            Byte code;
-            if ((code = codeQueue.poll()) != null) {
-                registerMap.put(Register.IFR,
-                        (byte) (registerMap.getOrDefault(Register.IFR, (byte) 0) | 0x02));
-                registerMap.put(Register.ORA, code);
-                getBus().assertIrq();
-
-            }
-        }, IRQ_RATE, IRQ_RATE, TimeUnit.MILLISECONDS);
+    }
+
+    /*
+     * Start delivering codes, unless a delivery is already scheduled.
+     */
+    private void codesQueued(long cycle) {
+        if (!delivering) {
+            delivering = true;
+            deliverCode(cycle);
+        }
+    }
+
+    private void deliverCode(long cycle) {
+        Byte code = codeQueue.poll();
+        if (code == null) {
+            delivering = false;
+            return;
+        }
+
+        registerMap.put(Register.IFR,
+                (byte) (registerMap.getOrDefault(Register.IFR, (byte) 0) | 0x02));
+        registerMap.put(Register.ORA, code);
+        getBus().assertIrq();
+
+        // Check again after IRQ_RATE, so that codes queued meanwhile keep their spacing
+        long rate = Math.round(getBus().getCpu().getClockFrequencyInHz() * IRQ_RATE / 1000.0);
+        getBus().getScheduler().schedule(cycle + rate, deliverCode);
+    }
+
+    private void queueCodes(byte... codes) {
+        Bus bus = getBus();
+        if (bus == null || bus.getCpu() == null) {
+            return;
+        }
+        for (byte code : codes) {
+            codeQueue.add(code);
+        }
+        bus.getScheduler().post(this::codesQueued);
     }
 
     @Override
@@ -145,19 +177,22 @@ public class Via6522 extends Pia implements KeyListener {
     public void reset() throws MemoryAccessException {
         registerMap.clear();
         codeQueue.clear();
+        if (getBus() != null) {
+            getBus().getScheduler().cancel(deliverCode);
+        }
+        delivering = false;
     }
 
     public void keyPressed(KeyEvent keyEvent) {
         if (keyEvent.getKeyCode() < 256) {
-            codeQueue.add((byte)keyEvent.getKeyCode());
+            queueCodes((byte)keyEvent.getKeyCode());
         }
         keyEvent.consume();
     }
 
     public void keyReleased(KeyEvent keyEvent) {
         if (keyEvent.getKeyCode() < 256) {
-            codeQueue.add((byte)0xf0);
-            codeQueue.add((byte)keyEvent.getKeyCode());
+            queueCodes((byte)0xf0, (byte)keyEvent.getKeyCode());
         }
         keyEvent.consume();
     }
@@ -24,6 +24,8 @@
 package com.github.codebje.ui;
 
 import com.github.codebje.Breakpoints;
+import com.github.codebje.Bus;
+import com.github.codebje.Watchpoints;
 import com.github.codebje.util.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -37,21 +39,25 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 
 /**
- * Simple window to enter breakpoints.
+ * Simple window to enter breakpoints, and watchpoints on reads, writes or execution of a
+ * range of addresses.
  */
 public class BreakpointsWindow extends JFrame {
 
     private static final Logger logger = LoggerFactory.getLogger(BreakpointsWindow.class);
 
-    private static final Dimension FRAME_SIZE = new Dimension(240, 280);
+    private static final Dimension FRAME_SIZE = new Dimension(260, 300);
     private static final String EMPTY_STRING = "";
 
     private JFrame mainWindow;
     private Breakpoints breakpoints;
+    private Watchpoints watchpoints;
 
     public BreakpointsWindow(Breakpoints breakpoints,
+                             Watchpoints watchpoints,
                              JFrame mainWindow) {
         this.breakpoints = breakpoints;
+        this.watchpoints = watchpoints;
         this.mainWindow = mainWindow;
         createUi();
     }
@@ -59,6 +65,24 @@ public class BreakpointsWindow extends JFrame {
     private void createUi() {
         setTitle("Breakpoints");
 
+        JTabbedPane tabbedPane = new JTabbedPane();
+        tabbedPane.addTab("Breakpoints", createBreakpointsUi());
+        tabbedPane.addTab("Watchpoints", createWatchpointsUi());
+
+        setLayout(new BorderLayout());
+        getContentPane().add(tabbedPane, BorderLayout.CENTER);
+
+        setMinimumSize(FRAME_SIZE);
+        setMaximumSize(FRAME_SIZE);
+        setPreferredSize(FRAME_SIZE);
+
+        setLocationRelativeTo(mainWindow);
+        setResizable(false);
+
+        pack();
+    }
+
+    private JPanel createBreakpointsUi() {
         JPanel breakpointsPanel = new JPanel();
         JPanel controlPanel = new JPanel();
 
@@ -136,17 +160,110 @@ public class BreakpointsWindow extends JFrame {
         controlPanel.add(addButton);
         controlPanel.add(removeButton);
 
-        setLayout(new BorderLayout());
-        getContentPane().add(breakpointsPanel, BorderLayout.CENTER);
-        getContentPane().add(controlPanel, BorderLayout.SOUTH);
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.add(breakpointsPanel, BorderLayout.CENTER);
+        panel.add(controlPanel, BorderLayout.SOUTH);
+        return panel;
+    }
 
-        setMinimumSize(FRAME_SIZE);
-        setMaximumSize(FRAME_SIZE);
-        setPreferredSize(FRAME_SIZE);
+    private JPanel createWatchpointsUi() {
+        JPanel watchpointsPanel = new JPanel();
+        JPanel controlPanel = new JPanel(new GridLayout(2, 1));
+        JPanel kindsPanel = new JPanel();
+        JPanel buttonsPanel = new JPanel();
 
-        setLocationRelativeTo(mainWindow);
-        setResizable(false);
+        watchpointsPanel.setLayout(new BorderLayout());
+        watchpointsPanel.setBorder(new EmptyBorder(10, 10, 10, 10));
 
-        pack();
+        final JButton addButton = new JButton("Add");
+        final JButton removeButton = new JButton("Del");
+        removeButton.setEnabled(false);
+
+        // An address, or a range of them as START-END
+        final JTextField addTextField = new JTextField(8);
+
+        final JCheckBox readCheckBox = new JCheckBox("R");
+        final JCheckBox writeCheckBox = new JCheckBox("W", true);
+        final JCheckBox executeCheckBox = new JCheckBox("X");
+
+        final JTable watchpointsTable = new JTable(watchpoints);
+        watchpointsTable.setShowGrid(true);
+        watchpointsTable.setGridColor(Color.LIGHT_GRAY);
+        watchpointsTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        watchpointsTable.getSelectionModel().addListSelectionListener(new ListSelectionListener() {
+            @Override
+            public void valueChanged(ListSelectionEvent e) {
+                removeButton.setEnabled(watchpointsTable.getSelectedRow() > -1);
+            }
+        });
+
+        JScrollPane scrollPane = new JScrollPane(watchpointsTable);
+        scrollPane.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
+        scrollPane.setVerticalScrollBarPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_ALWAYS);
+
+        watchpointsPanel.add(scrollPane, BorderLayout.CENTER);
+
+        ActionListener addWatchpointListener = new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                String newWatchpoint = addTextField.getText();
+
+                if (newWatchpoint == null || newWatchpoint.isEmpty()) {
+                    return;
+                }
+
+                int kinds = (readCheckBox.isSelected() ? Bus.WATCH_READ : 0) |
+                            (writeCheckBox.isSelected() ? Bus.WATCH_WRITE : 0) |
+                            (executeCheckBox.isSelected() ? Bus.WATCH_EXECUTE : 0);
+                if (kinds == 0) {
+                    return;
+                }
+
+                int first, last;
+                try {
+                    String[] parts = newWatchpoint.split("-", 2);
+                    first = Integer.parseInt(parts[0].trim(), 16) & 0xffff;
+                    last = Integer.parseInt(parts[parts.length - 1].trim(), 16) & 0xffff;
+                } catch (NumberFormatException ex) {
+                    logger.warn("Can't parse watchpoint range {}", newWatchpoint);
+                    return;
+                }
+
+                if (last < first) {
+                    return;
+                }
+
+                watchpoints.addWatchpoint(first, last, kinds);
+
+                logger.debug("Added {} watchpoint ${}-${}", Watchpoints.describe(kinds),
+                             Utils.wordToHex(first), Utils.wordToHex(last));
+
+                addTextField.setText(EMPTY_STRING);
+            }
+        };
+
+        addButton.addActionListener(addWatchpointListener);
+        addTextField.addActionListener(addWatchpointListener);
+
+        removeButton.addActionListener(new ActionListener() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                watchpoints.removeWatchpointAtIndex(watchpointsTable.getSelectedRow());
+            }
+        });
+
+        kindsPanel.add(readCheckBox);
+        kindsPanel.add(writeCheckBox);
+        kindsPanel.add(executeCheckBox);
+        buttonsPanel.add(addTextField);
+        buttonsPanel.add(addButton);
+        buttonsPanel.add(removeButton);
+        controlPanel.add(kindsPanel);
+        controlPanel.add(buttonsPanel);
+
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.add(watchpointsPanel, BorderLayout.CENTER);
+        panel.add(controlPanel, BorderLayout.SOUTH);
+        return panel;
     }
 }
@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2016 Seth J. Morabito <web@loomcom.com>
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining
+ * a copy of this software and associated documentation files (the
+ * "Software"), to deal in the Software without restriction, including
+ * without limitation the rights to use, copy, modify, merge, publish,
+ * distribute, sublicense, and/or sell copies of the Software, and to
+ * permit persons to whom the Software is furnished to do so, subject to
+ * the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be
+ * included in all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ * EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ * MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE
+ * LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION
+ * OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN CONNECTION
+ * WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package com.github.codebje.ui;
+
+import com.github.codebje.AccessProfiler;
+import com.github.codebje.Bus;
+import com.github.codebje.util.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.*;
+import javax.swing.border.EmptyBorder;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shows the memory traffic counted by an {@link AccessProfiler} as a heatmap of the 64K
+ * address space: one pixel per address, a row per page. Brighter addresses were accessed
+ * more often, on a logarithmic scale. The map is drawn a few times a second by a thread
+ * of its own, so the event dispatch thread only has to copy it to the screen.
+ */
+public class HeatmapWindow extends JFrame {
+
+    private static final Logger logger = LoggerFactory.getLogger(HeatmapWindow.class);
+
+    private static final int SIDE = 256;
+    private static final int SCALE = 2;
+
+    private static final long REDRAW_INTERVAL_MS = 250;
+
+    private static final String[] COUNTS = {"Reads + Writes", "Reads", "Writes", "Executes"};
+
+    private final Bus bus;
+    private final AccessProfiler profiler = new AccessProfiler();
+
+    private final long[] reads = new long[AccessProfiler.SIZE];
+    private final long[] writes = new long[AccessProfiler.SIZE];
+    private final long[] executes = new long[AccessProfiler.SIZE];
+
+    private final ScheduledExecutorService redrawExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Heatmap redraw");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private JComboBox<String> countsComboBox;
+    private JCheckBox profileCheckBox;
+    private JLabel addressLabel;
+    private HeatmapPanel heatmapPanel;
+    private JFileChooser fileChooser;
+
+    // Which of COUNTS is shown; read by the redraw thread
+    private volatile int shownCounts = 0;
+
+    public HeatmapWindow(Bus bus) {
+        this.bus = bus;
+        createUi();
+        redrawExecutor.scheduleWithFixedDelay(this::redraw, REDRAW_INTERVAL_MS, REDRAW_INTERVAL_MS,
+                                              TimeUnit.MILLISECONDS);
+    }
+
+    private void createUi() {
+        setTitle("Memory Heatmap");
+
+        profileCheckBox = new JCheckBox("Profile");
+        profileCheckBox.addActionListener(e -> setProfiling(profileCheckBox.isSelected()));
+
+        countsComboBox = new JComboBox<>(COUNTS);
+        countsComboBox.addActionListener(e -> shownCounts = countsComboBox.getSelectedIndex());
+
+        JButton resetButton = new JButton("Reset");
+        resetButton.addActionListener(e -> profiler.reset());
+
+        JButton exportButton = new JButton("Export...");
+        exportButton.addActionListener(e -> export());
+
+        JPanel controlPanel = new JPanel();
+        controlPanel.add(profileCheckBox);
+        controlPanel.add(countsComboBox);
+        controlPanel.add(resetButton);
+        controlPanel.add(exportButton);
+
+        heatmapPanel = new HeatmapPanel();
+        heatmapPanel.setBorder(new EmptyBorder(10, 10, 10, 10));
+
+        addressLabel = new JLabel(" ");
+        addressLabel.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        addressLabel.setBorder(new EmptyBorder(0, 10, 10, 10));
+
+        setLayout(new BorderLayout());
+        getContentPane().add(controlPanel, BorderLayout.NORTH);
+        getContentPane().add(heatmapPanel, BorderLayout.CENTER);
+        getContentPane().add(addressLabel, BorderLayout.SOUTH);
+
+        setResizable(false);
+        pack();
+    }
+
+    /*
+     * Attach or detach the profiler on the CPU thread, between instructions.
+     */
+    private void setProfiling(boolean profiling) {
+        bus.getScheduler().post(cycle -> bus.setProfiler(profiling ? profiler : null));
+    }
+
+    private void export() {
+        if (fileChooser == null) {
+            fileChooser = new JFileChooser(System.getProperty("user.dir"));
+        }
+        if (fileChooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) {
+            return;
+        }
+
+        try {
+            profiler.export(fileChooser.getSelectedFile());
+        } catch (IOException ex) {
+            logger.error("Unable to export the access profile.", ex);
+            JOptionPane.showMessageDialog(this, ex.getMessage(), "Export Failed", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /*
+     * Draw the counts into a new image, on the redraw thread.
+     */
+    private void redraw() {
+        if (!isVisible()) {
+            return;
+        }
+
+        int shown = shownCounts;
+        profiler.copyCounts(reads, writes, executes);
+
+        long[] counts = new long[AccessProfiler.SIZE];
+        long max = 0;
+        for (int address = 0; address < AccessProfiler.SIZE; address++) {
+            switch (shown) {
+                case 0:
+                    counts[address] = reads[address] + writes[address];
+                    break;
+                case 1:
+                    counts[address] = reads[address];
+                    break;
+                case 2:
+                    counts[address] = writes[address];
+                    break;
+                default:
+                    counts[address] = executes[address];
+                    break;
+            }
+            max = Math.max(max, counts[address]);
+        }
+
+        BufferedImage image = new BufferedImage(SIDE, SIDE, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = new int[AccessProfiler.SIZE];
+        double scale = max > 0 ? 1.0 / Math.log1p(max) : 0.0;
+        for (int address = 0; address < AccessProfiler.SIZE; address++) {
+            pixels[address] = heat(Math.log1p(counts[address]) * scale);
+        }
+        image.setRGB(0, 0, SIDE, SIDE, pixels, 0, SIDE);
+
+        SwingUtilities.invokeLater(() -> heatmapPanel.setImage(image));
+    }
+
+    /*
+     * Black through red and yellow to white, for a heat from 0 to 1.
+     */
+    private static int heat(double heat) {
+        int level = (int) Math.round(heat * 767);
+        int red = Math.min(level, 255);
+        int green = Math.max(0, Math.min(level - 256, 255));
+        int blue = Math.max(0, Math.min(level - 512, 255));
+        return (red << 16) | (green << 8) | blue;
+    }
+
+    @Override
+    public void dispose() {
+        redrawExecutor.shutdownNow();
+        super.dispose();
+    }
+
+    private class HeatmapPanel extends JPanel {
+
+        private BufferedImage image;
+
+        HeatmapPanel() {
+            setPreferredSize(new Dimension(SIDE * SCALE + 20, SIDE * SCALE + 20));
+            MouseAdapter hover = new MouseAdapter() {
+                @Override
+                public void mouseMoved(MouseEvent e) {
+                    showAddress(e.getX(), e.getY());
+                }
+
+                @Override
+                public void mouseExited(MouseEvent e) {
+                    addressLabel.setText(" ");
+                }
+            };
+            addMouseMotionListener(hover);
+            addMouseListener(hover);
+        }
+
+        void setImage(BufferedImage image) {
+            this.image = image;
+            repaint();
+        }
+
+        private void showAddress(int x, int y) {
+            Insets insets = getInsets();
+            int column = (x - insets.left) / SCALE;
+            int row = (y - insets.top) / SCALE;
+            if (column < 0 || column >= SIDE || row < 0 || row >= SIDE) {
+                addressLabel.setText(" ");
+                return;
+            }
+
+            int address = (row << 8) | column;
+            addressLabel.setText("$" + Utils.wordToHex(address) +
+                                 "  R " + profiler.getReads(address) +
+                                 "  W " + profiler.getWrites(address) +
+                                 "  X " + profiler.getExecutes(address));
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            super.paintComponent(g);
+            Insets insets = getInsets();
+            g.setColor(Color.BLACK);
+            g.fillRect(insets.left, insets.top, SIDE * SCALE, SIDE * SCALE);
+            if (image != null) {
+                g.drawImage(image, insets.left, insets.top, SIDE * SCALE, SIDE * SCALE, null);
+            }
+        }
+    }
+}
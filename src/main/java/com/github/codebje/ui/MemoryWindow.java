@@ -38,6 +38,7 @@ import javax.swing.text.JTextComponent;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.BitSet;
 import java.util.EventObject;
 
 
@@ -49,6 +50,8 @@ public class MemoryWindow extends JFrame implements ActionListener {
 
     private static final Logger logger = LoggerFactory.getLogger(MemoryWindow.class);
 
+    private final Bus bus;
+    private final int dirtyConsumer;
     private MemoryTableModel memoryTableModel;
     private JTable memoryTable;
     private JTextField pageNumberTextField;
@@ -69,6 +72,9 @@ public class MemoryWindow extends JFrame implements ActionListener {
     private static final int ASCII_COL_START = 9;
     private static final int ASCII_COL_END = 16;
 
+    // The number of table rows in each line the bus tracks changes to
+    private static final int ROWS_PER_DIRTY_LINE = Bus.DIRTY_LINE_SIZE / 8;
+
     /**
      * Initialize a new MemoryWindow frame with the specified Bus.
      * The MemoryWindow frame will not be visible.
@@ -76,6 +82,8 @@ public class MemoryWindow extends JFrame implements ActionListener {
      * @param bus The Bus the memory window will query for data.
      */
     public MemoryWindow(Bus bus) {
+        this.bus = bus;
+        this.dirtyConsumer = bus.addDirtyConsumer();
         this.memoryTableModel = new MemoryTableModel(bus);
         createUi();
     }
@@ -193,14 +201,14 @@ public class MemoryWindow extends JFrame implements ActionListener {
             if (currentPage > 0x00) {
                 setPageNumber(currentPage - 1);
                 updateControls();
-                updateState();
+                refresh();
             }
         } else if (e.getSource() == nextPageButton) {
             int currentPage = getPageNumber();
             if (currentPage < 0xff) {
                 setPageNumber(currentPage + 1);
                 updateControls();
-                updateState();
+                refresh();
             }
         } else if (e.getSource() == pageNumberTextField) {
             String pageNumberInput = pageNumberTextField.getText();
@@ -208,7 +216,7 @@ public class MemoryWindow extends JFrame implements ActionListener {
                 // Try to parse a hex value out of the pageNumber.
                 int newPageNumber = Integer.parseInt(pageNumberInput, 16);
                 setPageNumber(newPageNumber & 0xff);
-                updateState();
+                refresh();
             } catch (NumberFormatException ex) {
                 // An invalid number was entered. Log the error, but otherwise
                 // take no action.
@@ -220,10 +228,25 @@ public class MemoryWindow extends JFrame implements ActionListener {
     }
 
     /**
-     * Refresh the view of memory
+     * Refresh the rows of the view of memory that the bus reports may have changed.
      */
     public void updateState() {
-        memoryTable.updateUI();
+        BitSet dirty = bus.pollDirty(dirtyConsumer);
+        int firstLine = getPageNumber() * Bus.DIRTY_LINES_PER_PAGE;
+        int endLine = firstLine + Bus.DIRTY_LINES_PER_PAGE;
+
+        for (int line = dirty.nextSetBit(firstLine); line >= 0 && line < endLine; line = dirty.nextSetBit(line + 1)) {
+            int row = (line - firstLine) * ROWS_PER_DIRTY_LINE;
+            memoryTableModel.fireTableRowsUpdated(row, row + ROWS_PER_DIRTY_LINE - 1);
+        }
+    }
+
+    /**
+     * Refresh the whole view of memory, whatever has changed.
+     */
+    public void refresh() {
+        bus.pollDirty(dirtyConsumer);
+        memoryTableModel.fireTableDataChanged();
     }
 
     /**
@@ -348,7 +371,7 @@ public class MemoryWindow extends JFrame implements ActionListener {
                     String hexValue = (String)o;
                     int fullAddress = fullAddress(row, column);
                     int newValue = Integer.parseInt(hexValue, 16) & 0xff;
-                    bus.write(fullAddress, newValue);
+                    bus.write(fullAddress, newValue, false);
                 } catch (MemoryAccessException | NumberFormatException | ClassCastException ex) {
                     // Intentionally swallow exception
                 }
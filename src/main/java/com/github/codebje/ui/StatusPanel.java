@@ -68,6 +68,7 @@ public class StatusPanel extends JPanel {
     private JTextField aField;
     private JTextField xField;
     private JTextField yField;
+    private JTextField speedField;
 
     private Machine machine;
 
@@ -150,11 +151,13 @@ public class StatusPanel extends JPanel {
         JLabel aLabel = makeLabel("A");
         JLabel xLabel = makeLabel("X");
         JLabel yLabel = makeLabel("Y");
+        JLabel speedLabel = makeLabel("Speed");
 
         statusFlagsLabel.setToolTipText("6502 Processor Status Flags");
         opcodeLabel.setToolTipText("Instruction Register");
         pcLabel.setToolTipText("Program Counter");
         spLabel.setToolTipText("Stack Pointer");
+        speedLabel.setToolTipText("Measured clock speed while running");
 
         opcodeField = makeTextField(LARGE_TEXT_FIELD_SIZE, false);
         pcField = makeTextField(LARGE_TEXT_FIELD_SIZE, true);
@@ -162,6 +165,7 @@ public class StatusPanel extends JPanel {
         aField = makeTextField(SMALL_TEXT_FIELD_SIZE, true);
         xField = makeTextField(SMALL_TEXT_FIELD_SIZE, true);
         yField = makeTextField(SMALL_TEXT_FIELD_SIZE, true);
+        speedField = makeTextField(LARGE_TEXT_FIELD_SIZE, false);
 
         // Make fields editable
         pcField.addActionListener(new ActionListener() {
@@ -286,6 +290,25 @@ public class StatusPanel extends JPanel {
         add(xField, constraints);
         constraints.gridx = 1;
         add(yField, constraints);
+
+        constraints.insets = new Insets(5, 0, 0, 0);
+        constraints.gridwidth = 2;
+        constraints.gridx = 0;
+        constraints.gridy = 10;
+        add(speedLabel, constraints);
+
+        constraints.insets = new Insets(2, 2, 2, 2);
+        constraints.gridy = 11;
+        add(speedField, constraints);
+    }
+
+    /**
+     * Show the clock speed measured over the last update interval.
+     *
+     * @param megahertz Emulated cycles per microsecond of wall-clock time.
+     */
+    public void updateEffectiveSpeed(double megahertz) {
+        speedField.setText(String.format("%.3f MHz", megahertz));
     }
 
     /**
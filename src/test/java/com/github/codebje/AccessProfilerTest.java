@@ -0,0 +1,114 @@
+package com.github.codebje;
+
+import com.github.codebje.devices.Memory;
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.util.List;
+
+public class AccessProfilerTest extends TestCase {
+
+    private Cpu cpu;
+    private Bus bus;
+    private AccessProfiler profiler;
+
+    public void setUp() throws Exception {
+        cpu = new Cpu(Cpu.CpuBehavior.CMOS_6502);
+        bus = new Bus(0x0000, 0xffff);
+        bus.addCpu(cpu);
+        bus.addDevice(new Memory(0x0000, 0xffff));
+        cpu.setProgramCounter(0x0200);
+
+        profiler = new AccessProfiler();
+        bus.setProfiler(profiler);
+    }
+
+    private void runStoringLoop(int instructions) throws Exception {
+        bus.loadProgram(0xe8,              // INX
+                        0x86, 0x10,        // STX $10
+                        0xa5, 0x20,        // LDA $20
+                        0x4c, 0x00, 0x02); // JMP $0200
+        profiler.reset();
+
+        StopConditions conditions = new StopConditions();
+        for (int i = 0; i < instructions; i++) {
+            cpu.run(1, conditions);
+        }
+    }
+
+    public void testCountsAccessesAndExecutions() throws Exception {
+        runStoringLoop(400);
+
+        assertEquals(100, profiler.getExecutes(0x0200));
+        assertEquals(100, profiler.getExecutes(0x0205));
+        assertEquals(0, profiler.getExecutes(0x0202));
+        assertEquals(100, profiler.getWrites(0x0010));
+        assertEquals(0, profiler.getReads(0x0010));
+        assertEquals(100, profiler.getReads(0x0020));
+
+        // Instructions are read from the bus only until they are pre-decoded
+        assertEquals(1, profiler.getReads(0x0203));
+
+        // Reads and writes that are not the CPU's go uncounted
+        bus.read(0x0020, false);
+        assertEquals(100, profiler.getReads(0x0020));
+        bus.write(0x0010, 0x55, false);
+        assertEquals(100, profiler.getWrites(0x0010));
+
+        bus.setProfiler(null);
+        cpu.step();
+        assertEquals(100, profiler.getExecutes(0x0200));
+    }
+
+    public void testExport() throws Exception {
+        runStoringLoop(4);
+
+        StringWriter csv = new StringWriter();
+        profiler.exportCsv(csv);
+        assertEquals("address,reads,writes,executes\n" +
+                     "0010,0,1,0\n" +
+                     "0020,1,0,0\n" +
+                     "0200,1,0,1\n" +
+                     "0201,1,0,1\n" +
+                     "0202,1,0,0\n" +
+                     "0203,1,0,1\n" +
+                     "0204,1,0,0\n" +
+                     "0205,1,0,1\n" +
+                     "0206,1,0,0\n" +
+                     "0207,1,0,0\n", csv.toString());
+
+        ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        profiler.exportBinary(binary);
+        assertEquals(3 * AccessProfiler.SIZE * 8, binary.size());
+
+        File file = File.createTempFile("profile", ".bin");
+        try {
+            profiler.export(file);
+            try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+                in.skipBytes((AccessProfiler.SIZE + 0x0010) * 8);
+                assertEquals(1, in.readLong());
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testExportToCsvFile() throws Exception {
+        runStoringLoop(4);
+
+        File file = File.createTempFile("profile", ".csv");
+        try {
+            profiler.export(file);
+            List<String> lines = Files.readAllLines(file.toPath());
+            assertEquals("address,reads,writes,executes", lines.get(0));
+            assertEquals("0010,0,1,0", lines.get(1));
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.github.codebje;
+
+import junit.framework.TestCase;
+
+public class AluTest extends TestCase {
+
+    private static int result(int entry) {
+        return entry & 0xff;
+    }
+
+    private static boolean carry(int entry) {
+        return ((entry >>> Alu.FLAGS_SHIFT) & Cpu.P_CARRY) != 0;
+    }
+
+    private static boolean overflow(int entry) {
+        return ((entry >>> Alu.FLAGS_SHIFT) & Cpu.P_OVERFLOW) != 0;
+    }
+
+    private static int nz(int entry) {
+        return (entry >> 8) & 0xff;
+    }
+
+    private static int toBcd(int value) {
+        return ((value / 10) << 4) | (value % 10);
+    }
+
+    public void testBinaryAdditionMatchesArithmetic() {
+        for (int c = 0; c < 2; c++) {
+            for (int a = 0; a < 256; a++) {
+                for (int m = 0; m < 256; m++) {
+                    int entry = Alu.ADC[Alu.index(c, a, m)];
+                    int sum = a + m + c;
+                    int signed = (byte) a + (byte) m + c;
+
+                    assertEquals(sum & 0xff, result(entry));
+                    assertEquals(sum & 0xff, nz(entry));
+                    assertEquals(sum > 0xff, carry(entry));
+                    assertEquals(signed < -128 || signed > 127, overflow(entry));
+                }
+            }
+        }
+    }
+
+    public void testDecimalMatchesArithmeticForValidBcd() {
+        for (Cpu.CpuBehavior behavior : Cpu.CpuBehavior.values()) {
+            int[] adc = Alu.adcDecimal(behavior);
+            int[] sbc = Alu.sbcDecimal(behavior);
+            boolean nmos = behavior == Cpu.CpuBehavior.NMOS_6502 ||
+                           behavior == Cpu.CpuBehavior.NMOS_WITH_ROR_BUG;
+
+            for (int c = 0; c < 2; c++) {
+                for (int a = 0; a < 100; a++) {
+                    for (int m = 0; m < 100; m++) {
+                        int sum = a + m + c;
+                        int entry = adc[Alu.index(c, toBcd(a), toBcd(m))];
+                        assertEquals(toBcd(sum % 100), result(entry));
+                        assertEquals(sum >= 100, carry(entry));
+                        assertFalse(overflow(entry));
+
+                        int difference = a - m - (1 - c);
+                        entry = sbc[Alu.index(c, toBcd(a), toBcd(m))];
+                        assertEquals(toBcd((difference + 100) % 100), result(entry));
+                        assertEquals(difference >= 0, carry(entry));
+                        assertFalse(overflow(entry));
+
+                        // Z follows the result; N is only valid on CMOS parts
+                        CpuState state = new CpuState();
+                        state.nz = nz(entry);
+                        assertEquals(result(entry) == 0, state.isZero());
+                        assertEquals(!nmos && (result(entry) & 0x80) != 0, state.isNegative());
+                    }
+                }
+            }
+        }
+    }
+}
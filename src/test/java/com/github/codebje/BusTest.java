@@ -2,9 +2,12 @@ package com.github.codebje;
 
 import com.github.codebje.devices.Device;
 import com.github.codebje.devices.Memory;
+import com.github.codebje.exceptions.MemoryAccessException;
 import com.github.codebje.exceptions.MemoryRangeException;
 import junit.framework.*;
 
+import java.util.BitSet;
+
 /**
  *
  */
@@ -135,4 +138,399 @@ public class BusTest extends TestCase {
         assertFalse(c.getCpuState().nmiAsserted);
     }
 
+    /**
+     * A device that answers reads with the low byte of its own address, and remembers the
+     * last write it was sent.
+     */
+    private static class RegisterDevice extends Device {
+        int lastAddress = -1;
+        int lastValue = -1;
+
+        RegisterDevice(int startAddress, int endAddress) throws MemoryRangeException {
+            super(startAddress, endAddress, "Registers");
+        }
+
+        public void write(int address, int data) {
+            lastAddress = address;
+            lastValue = data;
+        }
+
+        public int read(int address, boolean cpuAccess) {
+            return 0x40 | address;
+        }
+
+        public void reset() {
+        }
+
+        public String toString() {
+            return "Registers";
+        }
+    }
+
+    public void testMemoryPagesAreReadAndWrittenDirectly() throws Exception {
+        Memory memory = new Memory(0x1000, 0x1fff);
+        Bus b = new Bus(0x0000, 0xffff);
+        b.addDevice(memory);
+
+        b.write(0x1234, 0x5a);
+        assertEquals(0x5a, b.read(0x1234, false));
+        assertEquals(0x5a, memory.read(0x0234, false));
+
+        memory.write(0x0fff, 0x1a5);
+        assertEquals(0xa5, b.read(0x1fff, false));
+    }
+
+    public void testReadOnlyPagesRefuseWrites() throws Exception {
+        Memory rom = new Memory(0xf000, 0xffff, true);
+        Bus b = new Bus(0x0000, 0xffff);
+        b.addDevice(rom);
+
+        assertEquals(0x00, b.read(0xfffc, false));
+        b.write(0xfffc, 0x12);
+        assertEquals(0x00, b.read(0xfffc, false));
+        assertEquals(1, b.getOpenBusFaults());
+
+        b.setStrict(true);
+        try {
+            b.write(0xfffc, 0x12);
+            fail("Wrote to read-only memory");
+        } catch (MemoryAccessException ex) {
+            // success
+        }
+    }
+
+    public void testPagesSharedWithADeviceReachEachDevice() throws Exception {
+        Memory ram = new Memory(0x0000, 0xffff);
+        RegisterDevice registers = new RegisterDevice(0xe000, 0xe00f);
+        Bus b = new Bus(0x0000, 0xffff);
+        b.addDevice(ram, 0);
+        b.addDevice(registers, 1);
+
+        assertEquals(0x45, b.read(0xe005, false));
+        b.write(0xe00f, 0x99);
+        assertEquals(0x0f, registers.lastAddress);
+        assertEquals(0x99, registers.lastValue);
+
+        b.write(0xe010, 0x77);
+        assertEquals(0x77, b.read(0xe010, false));
+        assertEquals(0x77, ram.read(0xe010, false));
+
+        b.removeDevice(registers);
+        assertEquals(0x00, b.read(0xe005, false));
+    }
+
+    public void testPagesPartlyCoveredByMemory() throws Exception {
+        Memory memory = new Memory(0x0080, 0x017f);
+        Bus b = new Bus(0x0000, 0x01ff);
+        b.addDevice(memory);
+
+        b.write(0x00ff, 0x11);
+        b.write(0x0100, 0x22);
+        assertEquals(0x11, memory.read(0x007f, false));
+        assertEquals(0x22, memory.read(0x0080, false));
+        b.setStrict(true);
+        try {
+            b.read(0x0180, false);
+            fail("Read from an unmapped address");
+        } catch (MemoryAccessException ex) {
+            // success
+        }
+    }
+
+    public void testHigherPriorityWinsWhateverTheOrderAdded() throws Exception {
+        Memory low = new Memory(0x0000, 0xffff);
+        Memory high = new Memory(0x0000, 0x00ff);
+        low.fill(0x11);
+        high.fill(0x22);
+
+        Bus b = new Bus(0x0000, 0xffff);
+        b.addDevice(high, 1);
+        b.addDevice(low, 0);
+        assertEquals(0x22, b.read(0x0010, false));
+        assertEquals(0x11, b.read(0x0110, false));
+
+        // Re-adding a device moves it to its new priority
+        b.addDevice(low, 2);
+        assertEquals(0x11, b.read(0x0010, false));
+    }
+
+    public void testBankSwitching() throws Exception {
+        Memory ram = new Memory(0x0000, 0xffff);
+        Memory bank0 = new Memory(0x8000, 0xbfff, true);
+        Memory bank1 = new Memory(0x8000, 0xbfff, true);
+        bank0.fill(0xb0);
+        bank1.fill(0xb1);
+
+        Bus b = new Bus(0x0000, 0xffff);
+        b.addDevice(ram, 0);
+        b.addDevice(bank0, 1);
+        b.addDevice(bank1, 1);
+        assertEquals(0xb1, b.read(0x8000, false));
+
+        b.overlay(bank0);
+        assertEquals(0xb0, b.read(0x9234, false));
+        b.overlay(bank1);
+        assertEquals(0xb1, b.read(0x9234, false));
+
+        b.unmap(bank1);
+        assertFalse(b.isMapped(bank1));
+        assertEquals(0xb0, b.read(0xbfff, false));
+        b.unmap(bank0);
+        assertEquals(0x00, b.read(0xbfff, false));
+        b.write(0xbfff, 0x42);
+        assertEquals(0x42, ram.read(0xbfff, false));
+
+        b.overlay(bank1);
+        assertTrue(b.isMapped(bank1));
+        assertEquals(0xb1, b.read(0xbfff, false));
+    }
+
+    public void testUnmappingLeavesAGap() throws Exception {
+        Memory memory = new Memory(0x0000, 0xffff);
+        Bus b = new Bus(0x0000, 0xffff);
+        b.addDevice(memory);
+        assertTrue(b.isComplete());
+
+        b.unmap(memory);
+        assertFalse(b.isComplete());
+        b.setStrict(true);
+        try {
+            b.read(0x1234, false);
+            fail("Read from an unmapped device");
+        } catch (MemoryAccessException ex) {
+            // success
+        }
+
+        try {
+            b.overlay(new Memory(0x0000, 0x00ff));
+            fail("Overlaid a device that is not on the bus");
+        } catch (IllegalArgumentException ex) {
+            // success
+        }
+    }
+
+    public void testSwitchingBanksDiscardsDecodedInstructions() throws Exception {
+        Memory ram = new Memory(0x0000, 0xffff);
+        Memory bank0 = new Memory(0x8000, 0x80ff);
+        Memory bank1 = new Memory(0x8000, 0x80ff);
+        bank0.write(0x00, 0xe8);    // INX
+        bank1.write(0x00, 0xc8);    // INY
+
+        Bus b = new Bus(0x0000, 0xffff);
+        Cpu cpu = new Cpu();
+        b.addCpu(cpu);
+        b.addDevice(ram, 0);
+        b.addDevice(bank1, 1);
+        b.addDevice(bank0, 1);
+
+        cpu.setProgramCounter(0x8000);
+        cpu.step();
+        assertEquals(1, cpu.getXRegister());
+
+        b.overlay(bank1);
+        cpu.setProgramCounter(0x8000);
+        cpu.step();
+        assertEquals(1, cpu.getXRegister());
+        assertEquals(1, cpu.getYRegister());
+    }
+
+    public void testTwentyFourBitAddressSpace() throws Exception {
+        Memory bank0 = new Memory(0x000000, 0x00ffff);
+        Memory extended = new Memory(0x120000, 0x12ffff);
+        RegisterDevice registers = new RegisterDevice(0xfe0010, 0xfe001f);
+
+        Bus b = new Bus(0x000000, 0xffffff);
+        b.addDevice(bank0);
+        b.addDevice(extended);
+        b.addDevice(registers);
+        assertFalse(b.isComplete());
+
+        b.write(0x123456, 0x78);
+        assertEquals(0x78, b.read(0x123456, false));
+        assertEquals(0x78, extended.read(0x3456, false));
+        assertEquals(0x00, b.read(0x003456, false));
+        assertEquals(0x42, b.read(0xfe0012, false));
+
+        b.setStrict(true);
+        try {
+            b.read(0x130000, false);
+            fail("Read from an unmapped bank");
+        } catch (MemoryAccessException ex) {
+            // success
+        }
+    }
+
+    public void testOpenBusReturnsTheLastValue() throws Exception {
+        Memory memory = new Memory(0x0000, 0x0fff);
+        Bus b = new Bus(0x0000, 0xffff);
+        b.addDevice(memory);
+        assertFalse(b.isStrict());
+
+        memory.write(0x0123, 0xa9);
+        memory.write(0x0124, 0x42);
+        assertEquals(0xa9, b.read(0x0123, true));
+        assertEquals(0xa9, b.read(0x8000, false));
+
+        // Only the CPU's accesses drive the data bus, not a debugger's reads
+        assertEquals(0x42, b.read(0x0124, false));
+        assertEquals(0xa9, b.read(0x8000, true));
+
+        b.write(0x9000, 0x1ea);
+        assertEquals(0xea, b.read(0x9000, false));
+        assertEquals(0x00, memory.read(0x0000, false));
+        assertEquals(4, b.getOpenBusFaults());
+
+        // Accesses that throw are not counted
+        b.setStrict(true);
+        try {
+            b.write(0x9000, 0x00);
+            fail("Wrote to an unmapped address");
+        } catch (MemoryAccessException ex) {
+            // success
+        }
+        assertEquals(4, b.getOpenBusFaults());
+    }
+
+    public void testOpenBusBeyondTheAddressSpace() throws Exception {
+        Bus b = new Bus(0x0000, 0x00ff);
+        b.addDevice(new Memory(0x0000, 0x00ff));
+
+        b.write(0x0010, 0x5c);
+        assertEquals(0x5c, b.read(0x1234, false));
+        b.write(0x123456, 0x01);
+        assertEquals(0x00, b.read(0x0010 - 0x10, false));
+        assertEquals(2, b.getOpenBusFaults());
+    }
+
+    public void testDirtyLines() throws Exception {
+        Memory ram = new Memory(0x0000, 0xffff);
+        Bus b = new Bus(0x0000, 0xffff);
+        b.addDevice(ram);
+
+        int first = b.addDirtyConsumer();
+        assertEquals(0x10000 / Bus.DIRTY_LINE_SIZE, b.pollDirty(first).cardinality());
+        assertTrue(b.pollDirty(first).isEmpty());
+
+        int second = b.addDirtyConsumer();
+        b.pollDirty(second);
+
+        b.write(0x1234, 0x01);
+        b.write(0x1240, 0x02);
+        b.write(0xffff, 0x03);
+        BitSet dirty = b.pollDirty(first);
+        assertEquals(3, dirty.cardinality());
+        assertTrue(dirty.get(0x1220 / Bus.DIRTY_LINE_SIZE));
+        assertTrue(dirty.get(0x1240 / Bus.DIRTY_LINE_SIZE));
+        assertTrue(dirty.get(0xffe0 / Bus.DIRTY_LINE_SIZE));
+        assertTrue(b.pollDirty(first).isEmpty());
+
+        // Each consumer hears of every change once
+        b.write(0x0000, 0x04);
+        assertEquals(4, b.pollDirty(second).cardinality());
+        assertEquals(1, b.pollDirty(first).cardinality());
+
+        // Writing the device directly marks only the line written
+        ram.write(0x2345, 0x05);
+        dirty = b.pollDirty(first);
+        assertEquals(1, dirty.cardinality());
+        assertTrue(dirty.get(0x2340 / Bus.DIRTY_LINE_SIZE));
+
+        ram.fill(0xea);
+        assertEquals(0x10000 / Bus.DIRTY_LINE_SIZE, b.pollDirty(first).cardinality());
+
+        // Once removed, the device no longer marks lines; added again, it does
+        b.removeDevice(ram);
+        b.pollDirty(first);
+        ram.write(0x2345, 0x06);
+        assertTrue(b.pollDirty(first).isEmpty());
+        b.addDevice(ram);
+        b.pollDirty(first);
+        ram.write(0x2345, 0x07);
+        assertEquals(1, b.pollDirty(first).cardinality());
+    }
+
+    public void testDirtyLinesOfDevices() throws Exception {
+        Memory ram = new Memory(0x0000, 0xffff);
+        Memory bank = new Memory(0x8000, 0x80ff);
+        RegisterDevice registers = new RegisterDevice(0xe000, 0xe00f);
+        Bus b = new Bus(0x0000, 0xffff);
+        b.addDevice(ram, 0);
+        b.addDevice(registers, 1);
+        int consumer = b.addDirtyConsumer();
+        b.pollDirty(consumer);
+
+        // Registers may change without being written
+        BitSet dirty = b.pollDirty(consumer);
+        assertEquals(1, dirty.cardinality());
+        assertTrue(dirty.get(0xe000 / Bus.DIRTY_LINE_SIZE));
+
+        b.addDevice(bank, 1);
+        dirty = b.pollDirty(consumer);
+        assertEquals(256 / Bus.DIRTY_LINE_SIZE + 1, dirty.cardinality());
+        assertEquals(0x8000 / Bus.DIRTY_LINE_SIZE, dirty.nextSetBit(0));
+    }
+
+    public void testWatchpoints() throws Exception {
+        Memory ram = new Memory(0x0000, 0xffff);
+        Bus b = new Bus(0x0000, 0xffff);
+        b.addDevice(ram);
+        assertFalse(b.hasWatchpoints());
+
+        b.addWatchpoint(0x1234, 0x1235, Bus.WATCH_READ | Bus.WATCH_WRITE);
+        b.addWatchpoint(0x1235, 0x1236, Bus.WATCH_EXECUTE);
+        assertTrue(b.hasWatchpoints());
+        assertEquals(Bus.WATCH_READ | Bus.WATCH_WRITE | Bus.WATCH_EXECUTE, b.getWatchpoint(0x1235));
+        assertEquals(0, b.getWatchpoint(0x1237));
+
+        // Only the CPU's accesses are watched, and only the first hit is kept
+        b.read(0x1234, false);
+        b.write(0x1234, 0x01, false);
+        assertEquals(0, b.getWatchHitKind());
+        b.write(0x1233, 0x01);
+        b.read(0x1236, true);
+        assertEquals(0, b.getWatchHitKind());
+        b.write(0x1235, 0x42);
+        b.read(0x1234, true);
+        assertEquals(Bus.WATCH_WRITE, b.getWatchHitKind());
+        assertEquals(0x1235, b.getWatchHitAddress());
+        assertEquals(0x42, ram.read(0x1235, false));
+
+        b.clearWatchHit();
+        b.read(0x1234, true);
+        assertEquals(Bus.WATCH_READ, b.getWatchHitKind());
+
+        b.removeWatchpoint(0x1234, 0x1236, Bus.WATCH_READ | Bus.WATCH_WRITE);
+        assertTrue(b.hasWatchpoints());
+        b.removeWatchpoint(0x1200, 0x12ff, Bus.WATCH_EXECUTE);
+        assertFalse(b.hasWatchpoints());
+
+        try {
+            b.addWatchpoint(0x1000, 0x0fff, Bus.WATCH_READ);
+            fail("Watched an empty range");
+        } catch (IllegalArgumentException ex) {
+            // success
+        }
+    }
+
+    public void testPagesSharedAndUnsharedAgain() throws Exception {
+        Memory ram = new Memory(0x0000, 0xffff);
+        RegisterDevice registers = new RegisterDevice(0x0280, 0x0380);
+        Bus b = new Bus(0x0000, 0xffff);
+        b.addDevice(ram, 0);
+
+        for (int i = 0; i < 3; i++) {
+            b.addDevice(registers, 1);
+            assertEquals(0x40, b.read(0x0280, false));
+            assertEquals(0x40, b.read(0x0380, false));
+            assertEquals(0x00, b.read(0x027f, false));
+            assertEquals(0x00, b.read(0x0381, false));
+
+            b.removeDevice(registers);
+            b.write(0x0280, 0x12);
+            b.write(0x0380, 0x34);
+            assertEquals(0x12, ram.read(0x0280, false));
+            assertEquals(0x34, ram.read(0x0380, false));
+        }
+    }
+
 }
@@ -248,4 +248,79 @@ public class Cpu65C02ImpliedModeTest extends TestCase {
         assertFalse(cpu.getDecimalModeFlag());
     }
 
+    public void test_WAI() throws Exception {
+        makeCmosCpu();
+
+        // Set the IRQ vector
+        bus.write(0xffff, 0x12);
+        bus.write(0xfffe, 0x34);
+
+        cpu.clearIrqDisableFlag();
+        bus.loadProgram(0xcb,  // WAI
+                        0xea); // NOP
+
+        cpu.step();
+        assertTrue(cpu.isWaitingForInterrupt());
+        assertEquals(0x0201, cpu.getProgramCounter());
+
+        // Nothing executes while waiting
+        long cycles = cpu.getCycleCount();
+        cpu.step(3);
+        assertEquals(0x0201, cpu.getProgramCounter());
+        assertEquals(cycles + 3, cpu.getCycleCount());
+
+        // The IRQ ends the wait and is serviced, returning to the instruction after WAI
+        cpu.assertIrq();
+        cpu.step();
+        assertFalse(cpu.isWaitingForInterrupt());
+        assertEquals(0x02, bus.read(0x1ff, true)); // PC high byte
+        assertEquals(0x01, bus.read(0x1fe, true)); // PC low byte
+    }
+
+    public void test_WAI_resumesWithoutServicingMaskedIrq() throws Exception {
+        makeCmosCpu();
+        cpu.setIrqDisableFlag();
+        bus.loadProgram(0xcb,  // WAI
+                        0xea); // NOP
+
+        cpu.step();
+        assertTrue(cpu.isWaitingForInterrupt());
+
+        cpu.assertIrq();
+        cpu.step();
+        assertFalse(cpu.isWaitingForInterrupt());
+        assertEquals(0x0202, cpu.getProgramCounter());
+        assertEquals(0xea, cpu.getInstruction());
+    }
+
+    public void test_WAIRequiresCmosCpu() throws Exception {
+        makeNmosCpu();
+        bus.loadProgram(0xcb);
+
+        cpu.step();
+        assertFalse(cpu.isWaitingForInterrupt());
+        assertTrue(cpu.getCpuState().opTrap);
+    }
+
+    public void test_STP() throws Exception {
+        makeCmosCpu();
+        cpu.clearIrqDisableFlag();
+        bus.loadProgram(0xdb,  // STP
+                        0xea); // NOP
+
+        cpu.step();
+        assertTrue(cpu.isStopped());
+
+        // Interrupts do not restart the clock
+        cpu.assertIrq();
+        cpu.assertNmi();
+        cpu.step(3);
+        assertTrue(cpu.isStopped());
+        assertEquals(0x0201, cpu.getProgramCounter());
+
+        cpu.reset();
+        assertFalse(cpu.isStopped());
+        assertEquals(0x0200, cpu.getProgramCounter());
+    }
+
 }
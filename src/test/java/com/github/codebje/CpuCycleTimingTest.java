@@ -0,0 +1,260 @@
+package com.github.codebje;
+
+import com.github.codebje.devices.Memory;
+import com.github.codebje.exceptions.MemoryAccessException;
+import com.github.codebje.exceptions.MemoryRangeException;
+import junit.framework.TestCase;
+
+/**
+ * Instruction timings, checked against the cycle counts in the WDC W65C02S data sheet.
+ */
+public class CpuCycleTimingTest extends TestCase {
+
+    /**
+     * Base cycles of every 65C02 opcode, by mnemonic, as opcode:cycles.
+     */
+    private static final String[] W65C02S_CYCLES = {
+        "ADC 69:2 65:3 75:4 6D:4 7D:4 79:4 61:6 71:5 72:5",
+        "AND 29:2 25:3 35:4 2D:4 3D:4 39:4 21:6 31:5 32:5",
+        "ASL 0A:2 06:5 16:6 0E:6 1E:6",
+        "BBR 0F:5 1F:5 2F:5 3F:5 4F:5 5F:5 6F:5 7F:5",
+        "BBS 8F:5 9F:5 AF:5 BF:5 CF:5 DF:5 EF:5 FF:5",
+        "BCC 90:2", "BCS B0:2", "BEQ F0:2", "BMI 30:2", "BNE D0:2", "BPL 10:2",
+        "BRA 80:3", "BVC 50:2", "BVS 70:2",
+        "BIT 89:2 24:3 34:4 2C:4 3C:4",
+        "BRK 00:7",
+        "CLC 18:2", "CLD D8:2", "CLI 58:2", "CLV B8:2",
+        "CMP C9:2 C5:3 D5:4 CD:4 DD:4 D9:4 C1:6 D1:5 D2:5",
+        "CPX E0:2 E4:3 EC:4",
+        "CPY C0:2 C4:3 CC:4",
+        "DEC 3A:2 C6:5 D6:6 CE:6 DE:7",
+        "DEX CA:2", "DEY 88:2",
+        "EOR 49:2 45:3 55:4 4D:4 5D:4 59:4 41:6 51:5 52:5",
+        "INC 1A:2 E6:5 F6:6 EE:6 FE:7",
+        "INX E8:2", "INY C8:2",
+        "JMP 4C:3 6C:6 7C:6",
+        "JSR 20:6",
+        "LDA A9:2 A5:3 B5:4 AD:4 BD:4 B9:4 A1:6 B1:5 B2:5",
+        "LDX A2:2 A6:3 B6:4 AE:4 BE:4",
+        "LDY A0:2 A4:3 B4:4 AC:4 BC:4",
+        "LSR 4A:2 46:5 56:6 4E:6 5E:6",
+        "NOP EA:2",
+        "ORA 09:2 05:3 15:4 0D:4 1D:4 19:4 01:6 11:5 12:5",
+        "PHA 48:3", "PHP 08:3", "PHX DA:3", "PHY 5A:3",
+        "PLA 68:4", "PLP 28:4", "PLX FA:4", "PLY 7A:4",
+        "RMB 07:5 17:5 27:5 37:5 47:5 57:5 67:5 77:5",
+        "ROL 2A:2 26:5 36:6 2E:6 3E:6",
+        "ROR 6A:2 66:5 76:6 6E:6 7E:6",
+        "RTI 40:6", "RTS 60:6",
+        "SBC E9:2 E5:3 F5:4 ED:4 FD:4 F9:4 E1:6 F1:5 F2:5",
+        "SEC 38:2", "SED F8:2", "SEI 78:2",
+        "SMB 87:5 97:5 A7:5 B7:5 C7:5 D7:5 E7:5 F7:5",
+        "STA 85:3 95:4 8D:4 9D:5 99:5 81:6 91:6 92:5",
+        "STP DB:3",
+        "STX 86:3 96:4 8E:4",
+        "STY 84:3 94:4 8C:4",
+        "STZ 64:3 74:4 9C:4 9E:5",
+        "TAX AA:2", "TAY A8:2",
+        "TRB 14:5 1C:6",
+        "TSB 04:5 0C:6",
+        "TSX BA:2", "TXA 8A:2", "TXS 9A:2", "TYA 98:2",
+        "WAI CB:3",
+
+        // Unused opcodes execute as NOPs of various lengths and timings
+        "NOP 02:2 22:2 42:2 62:2 82:2 C2:2 E2:2 44:3 54:4 D4:4 F4:4 5C:8 DC:4 FC:4",
+        "NOP 03:1 13:1 23:1 33:1 43:1 53:1 63:1 73:1 83:1 93:1 A3:1 B3:1 C3:1 D3:1 E3:1 F3:1",
+        "NOP 0B:1 1B:1 2B:1 3B:1 4B:1 5B:1 6B:1 7B:1 8B:1 9B:1 AB:1 BB:1 EB:1 FB:1",
+    };
+
+    private Cpu cpu;
+    private Bus bus;
+
+    public void setUp() throws MemoryRangeException, MemoryAccessException {
+        this.cpu = new Cpu(Cpu.CpuBehavior.CMOS_6502);
+        this.bus = new Bus(0x0000, 0xffff);
+        bus.addCpu(cpu);
+        bus.addDevice(new Memory(0x0000, 0xffff));
+
+        // All test programs start at 0x0200;
+        bus.write(0xfffc, 0x00);
+        bus.write(0xfffd, 0x02);
+
+        // IRQ handler at 0x0300
+        bus.write(0xfffe, 0x00);
+        bus.write(0xffff, 0x03);
+        bus.write(0x0300, 0xea);
+
+        // ($20) points to $10F0, near the end of a page
+        bus.write(0x20, 0xf0);
+        bus.write(0x21, 0x10);
+
+        cpu.reset();
+        cpu.setTurboMode(true);
+    }
+
+    /**
+     * Execute a single instruction, returning the cycles it took.
+     */
+    private int cycles(int... program) throws MemoryAccessException {
+        bus.loadProgram(program);
+        long before = cpu.getCycleCount();
+        cpu.step();
+        int taken = cpu.getCpuState().instCycles;
+        assertEquals(taken, cpu.getCycleCount() - before);
+        return taken;
+    }
+
+    private void resetWith(int x, int y) throws MemoryAccessException {
+        cpu.reset();
+        cpu.setXRegister(x);
+        cpu.setYRegister(y);
+    }
+
+    public void testBaseCyclesMatchW65C02SDatasheet() {
+        boolean[] seen = new boolean[256];
+
+        for (String row : W65C02S_CYCLES) {
+            String[] fields = row.split(" ");
+            for (int i = 1; i < fields.length; i++) {
+                int opcode = Integer.parseInt(fields[i].substring(0, 2), 16);
+                int expected = Integer.parseInt(fields[i].substring(3));
+                String name = String.format("$%02X", opcode);
+
+                assertFalse(name + " listed twice", seen[opcode]);
+                seen[opcode] = true;
+                assertTrue(name, Cpu.opcodeNames[opcode].startsWith(fields[0]));
+                assertEquals(name, expected, Cpu.instructionClocksCmos[opcode]);
+            }
+        }
+
+        for (int opcode = 0; opcode < 256; opcode++) {
+            assertTrue(String.format("$%02X not listed", opcode), seen[opcode]);
+        }
+    }
+
+    public void testIndexedReadsTakeACycleToCrossAPage() throws Exception {
+        resetWith(0x0f, 0x0f);
+        assertEquals(4, cycles(0xbd, 0xf0, 0x10));  // LDA $10F0,X
+        resetWith(0x10, 0x10);
+        assertEquals(5, cycles(0xbd, 0xf0, 0x10));
+
+        resetWith(0x0f, 0x0f);
+        assertEquals(4, cycles(0x79, 0xf0, 0x10));  // ADC $10F0,Y
+        resetWith(0x10, 0x10);
+        assertEquals(5, cycles(0x79, 0xf0, 0x10));
+
+        resetWith(0x10, 0x10);
+        assertEquals(5, cycles(0xbe, 0xf0, 0x10));  // LDX $10F0,Y
+        resetWith(0x10, 0x10);
+        assertEquals(5, cycles(0xbc, 0xf0, 0x10));  // LDY $10F0,X
+        resetWith(0x10, 0x10);
+        assertEquals(5, cycles(0x3c, 0xf0, 0x10));  // BIT $10F0,X
+
+        resetWith(0x0f, 0x0f);
+        assertEquals(5, cycles(0xd1, 0x20));        // CMP ($20),Y
+        resetWith(0x10, 0x10);
+        assertEquals(6, cycles(0xd1, 0x20));
+    }
+
+    public void testIndexedReadsWrapAroundTheAddressSpace() throws Exception {
+        resetWith(0x20, 0x20);
+        assertEquals(5, cycles(0xbd, 0xf0, 0xff));  // LDA $FFF0,X
+    }
+
+    public void testStoresAndIncrementsTakeFixedCycles() throws Exception {
+        resetWith(0x10, 0x10);
+        assertEquals(5, cycles(0x9d, 0xf0, 0x10));  // STA $10F0,X
+        resetWith(0x10, 0x10);
+        assertEquals(5, cycles(0x99, 0xf0, 0x10));  // STA $10F0,Y
+        resetWith(0x10, 0x10);
+        assertEquals(6, cycles(0x91, 0x20));        // STA ($20),Y
+        resetWith(0x10, 0x10);
+        assertEquals(5, cycles(0x9e, 0xf0, 0x10));  // STZ $10F0,X
+        resetWith(0x0f, 0x0f);
+        assertEquals(7, cycles(0xfe, 0xf0, 0x10));  // INC $10F0,X
+        resetWith(0x10, 0x10);
+        assertEquals(7, cycles(0xde, 0xf0, 0x10));  // DEC $10F0,X
+    }
+
+    public void testShiftsCrossingAPage() throws Exception {
+        resetWith(0x0f, 0x0f);
+        assertEquals(6, cycles(0x1e, 0xf0, 0x10));  // ASL $10F0,X
+        resetWith(0x10, 0x10);
+        assertEquals(7, cycles(0x1e, 0xf0, 0x10));
+        resetWith(0x10, 0x10);
+        assertEquals(7, cycles(0x7e, 0xf0, 0x10));  // ROR $10F0,X
+
+        // The NMOS 6502 always takes the extra cycle
+        cpu.setBehavior(Cpu.CpuBehavior.NMOS_6502);
+        resetWith(0x0f, 0x0f);
+        assertEquals(7, cycles(0x1e, 0xf0, 0x10));
+        resetWith(0x10, 0x10);
+        assertEquals(7, cycles(0x1e, 0xf0, 0x10));
+    }
+
+    public void testBranches() throws Exception {
+        cpu.reset();
+        cpu.setZeroFlag();
+        assertEquals(2, cycles(0xd0, 0x10));        // BNE, not taken
+
+        cpu.reset();
+        cpu.clearZeroFlag();
+        assertEquals(3, cycles(0xd0, 0x10));        // BNE $0212
+        assertEquals(0x0212, cpu.getProgramCounter());
+
+        cpu.reset();
+        cpu.clearZeroFlag();
+        assertEquals(4, cycles(0xd0, 0xf0));        // BNE $01F2
+        assertEquals(0x01f2, cpu.getProgramCounter());
+
+        cpu.reset();
+        assertEquals(3, cycles(0x80, 0x10));        // BRA $0212
+        cpu.reset();
+        assertEquals(4, cycles(0x80, 0xf0));        // BRA $01F2
+    }
+
+    public void testBranchOnBit() throws Exception {
+        bus.write(0x10, 0x01);
+
+        cpu.reset();
+        assertEquals(5, cycles(0x0f, 0x10, 0x10));  // BBR0 $10, not taken
+        cpu.reset();
+        assertEquals(6, cycles(0x8f, 0x10, 0x10));  // BBS0 $10,$0213
+        assertEquals(0x0213, cpu.getProgramCounter());
+        cpu.reset();
+        assertEquals(7, cycles(0x8f, 0x10, 0xf0));  // BBS0 $10,$01F3
+        assertEquals(0x01f3, cpu.getProgramCounter());
+    }
+
+    public void testDecimalModeTakesACycleOnTheCmosCpu() throws Exception {
+        cpu.reset();
+        assertEquals(2, cycles(0x69, 0x01));        // ADC #$01
+
+        cpu.reset();
+        cpu.setDecimalModeFlag();
+        assertEquals(3, cycles(0x69, 0x01));
+        cpu.reset();
+        cpu.setDecimalModeFlag();
+        assertEquals(3, cycles(0xe9, 0x01));        // SBC #$01
+
+        // Both penalties apply
+        resetWith(0x10, 0x10);
+        cpu.setDecimalModeFlag();
+        assertEquals(7, cycles(0xf1, 0x20));        // SBC ($20),Y
+
+        cpu.setBehavior(Cpu.CpuBehavior.NMOS_6502);
+        cpu.reset();
+        cpu.setDecimalModeFlag();
+        assertEquals(2, cycles(0x69, 0x01));
+    }
+
+    public void testServicingAnInterruptTakesSevenCycles() throws Exception {
+        cpu.reset();
+        cpu.clearIrqDisableFlag();
+        cpu.assertIrq();
+
+        // The handler's first instruction runs in the same step
+        assertEquals(Cpu.INTERRUPT_CYCLES + 2, cycles(0xea));
+        assertEquals(0x0301, cpu.getProgramCounter());
+    }
+}
@@ -0,0 +1,299 @@
+package com.github.codebje;
+
+import com.github.codebje.devices.Memory;
+import com.github.codebje.exceptions.MemoryAccessException;
+import com.github.codebje.exceptions.MemoryRangeException;
+import junit.framework.TestCase;
+
+public class CpuRunTest extends TestCase {
+
+    private Cpu            cpu;
+    private Bus            bus;
+    private StopConditions conditions;
+
+    public void setUp() throws MemoryRangeException, MemoryAccessException {
+        this.cpu = new Cpu(Cpu.CpuBehavior.CMOS_6502);
+        this.bus = new Bus(0x0000, 0xffff);
+        bus.addCpu(cpu);
+        bus.addDevice(new Memory(0x0000, 0xffff));
+
+        // All test programs start at 0x0200;
+        bus.write(0xfffc, 0x00);
+        bus.write(0xfffd, 0x02);
+
+        cpu.reset();
+        cpu.setTurboMode(true);
+        conditions = new StopConditions();
+    }
+
+    private void loadCountingLoop() throws MemoryAccessException {
+        bus.loadProgram(0xe8,              // INX           (2 cycles)
+                        0xd0, 0xfd,        // BNE $0200     (3 cycles taken)
+                        0xc8,              // INY           (2 cycles)
+                        0x4c, 0x00, 0x02); // JMP $0200     (3 cycles)
+    }
+
+    public void testRunStopsWhenBudgetExhausted() throws Exception {
+        loadCountingLoop();
+
+        assertEquals(Cpu.StopReason.BUDGET_EXHAUSTED, cpu.run(100, conditions));
+        assertEquals(100, cpu.getCycleCount());
+        assertEquals(40, cpu.getCpuState().stepCounter);
+        assertEquals(20, cpu.getXRegister());
+
+        // The last instruction may overrun the budget
+        assertEquals(Cpu.StopReason.BUDGET_EXHAUSTED, cpu.run(1, conditions));
+        assertEquals(102, cpu.getCycleCount());
+    }
+
+    public void testRunStopsAtBreakpoint() throws Exception {
+        loadCountingLoop();
+        conditions.addBreakpoint(0x0203);
+
+        assertEquals(Cpu.StopReason.BREAKPOINT, cpu.run(1000000, conditions));
+        assertEquals(0x0203, cpu.getProgramCounter());
+        assertEquals(0, cpu.getXRegister());
+        assertEquals(0, cpu.getYRegister());
+
+        // Running again from the breakpoint executes past it
+        assertEquals(Cpu.StopReason.BREAKPOINT, cpu.run(1000000, conditions));
+        assertEquals(0x0203, cpu.getProgramCounter());
+        assertEquals(1, cpu.getYRegister());
+
+        conditions.removeBreakpoint(0x0203);
+        assertFalse(conditions.hasBreakpoints());
+        assertEquals(Cpu.StopReason.BUDGET_EXHAUSTED, cpu.run(1000, conditions));
+    }
+
+    public void testRunStopsAfterBrk() throws Exception {
+        bus.write(0xfffe, 0x00);
+        bus.write(0xffff, 0x03);
+        bus.loadProgram(0xea,              // NOP
+                        0x00, 0xea);       // BRK
+
+        assertEquals(Cpu.StopReason.BUDGET_EXHAUSTED, cpu.run(20, conditions));
+
+        cpu.reset();
+        conditions.setHaltOnBrk(true);
+        assertEquals(Cpu.StopReason.BRK, cpu.run(1000, conditions));
+        assertEquals(0x0300, cpu.getProgramCounter());
+        assertEquals(2, cpu.getCpuState().stepCounter);
+    }
+
+    public void testRunStopsAfterIllegalOpcode() throws Exception {
+        cpu.setBehavior(Cpu.CpuBehavior.NMOS_6502);
+        bus.loadProgram(0xea,              // NOP
+                        0x03);             // Unimplemented on the NMOS 6502
+
+        conditions.setHaltOnIllegalOpcode(true);
+        assertEquals(Cpu.StopReason.ILLEGAL_OPCODE, cpu.run(1000, conditions));
+        assertEquals(0x0202, cpu.getProgramCounter());
+    }
+
+    public void testRunHonoursStopRequest() throws Exception {
+        loadCountingLoop();
+        conditions.requestStop();
+
+        assertEquals(Cpu.StopReason.STOP_REQUESTED, cpu.run(1000, conditions));
+        assertEquals(0, cpu.getCpuState().stepCounter);
+
+        conditions.clearStopRequest();
+        assertEquals(Cpu.StopReason.BUDGET_EXHAUSTED, cpu.run(1000, conditions));
+    }
+
+    private void loadStoringLoop() throws MemoryAccessException {
+        bus.loadProgram(0xe8,              // INX
+                        0x86, 0x10,        // STX $10
+                        0xa5, 0x20,        // LDA $20
+                        0x4c, 0x00, 0x02); // JMP $0200
+    }
+
+    public void testRunStopsAtWatchpoints() throws Exception {
+        loadStoringLoop();
+
+        bus.addWatchpoint(0x0010, 0x0010, Bus.WATCH_WRITE);
+        assertEquals(Cpu.StopReason.WATCHPOINT, cpu.run(1000000, conditions));
+        assertEquals(Bus.WATCH_WRITE, bus.getWatchHitKind());
+        assertEquals(0x0010, bus.getWatchHitAddress());
+        assertEquals(0x0201, cpu.getCpuState().lastPc);
+        assertEquals(1, bus.read(0x0010, false));
+
+        // The next run goes round the loop once more
+        assertEquals(Cpu.StopReason.WATCHPOINT, cpu.run(1000000, conditions));
+        assertEquals(2, bus.read(0x0010, false));
+
+        bus.removeWatchpoint(0x0010, 0x0010, Bus.WATCH_WRITE);
+        bus.addWatchpoint(0x0018, 0x0027, Bus.WATCH_READ);
+        assertEquals(Cpu.StopReason.WATCHPOINT, cpu.run(1000000, conditions));
+        assertEquals(Bus.WATCH_READ, bus.getWatchHitKind());
+        assertEquals(0x0020, bus.getWatchHitAddress());
+        assertEquals(0x0205, cpu.getProgramCounter());
+
+        bus.clearWatchpoints();
+        bus.addWatchpoint(0x0205, 0x0205, Bus.WATCH_EXECUTE);
+        // A run started on the watchpoint executes that instruction first
+        assertEquals(Cpu.StopReason.WATCHPOINT, cpu.run(1000000, conditions));
+        assertEquals(Bus.WATCH_EXECUTE, bus.getWatchHitKind());
+        assertEquals(0x0205, cpu.getProgramCounter());
+        assertEquals(3, cpu.getXRegister());
+
+        bus.clearWatchpoints();
+        assertFalse(bus.hasWatchpoints());
+        assertEquals(Cpu.StopReason.BUDGET_EXHAUSTED, cpu.run(100000, conditions));
+    }
+
+    public void testWatchpointSetByAPostedEvent() throws Exception {
+        loadStoringLoop();
+
+        bus.getScheduler().post(cycle -> bus.addWatchpoint(0x0010, 0x0010, Bus.WATCH_WRITE));
+        assertEquals(Cpu.StopReason.WATCHPOINT, cpu.run(1000000, conditions));
+        assertEquals(0x0201, cpu.getCpuState().lastPc);
+    }
+
+    private void loadWaitLoop() throws MemoryAccessException {
+        bus.write(0xfffe, 0x00);
+        bus.write(0xffff, 0x03);
+        bus.write(0x0300, 0xc8);           // INY
+        bus.write(0x0301, 0x40);           // RTI
+        bus.loadProgram(0x58,              // CLI
+                        0xe8,              // INX
+                        0xcb,              // WAI
+                        0xe8,              // INX
+                        0x80, 0xfb);       // BRA $0201
+    }
+
+    public void testRunBlocksInWaiUntilInterrupted() throws Exception {
+        loadWaitLoop();
+
+        Thread device = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ignored) {
+            }
+            bus.assertIrq();
+        });
+
+        long start = System.nanoTime();
+        device.start();
+        assertEquals(Cpu.StopReason.BREAKPOINT, runTo(0x0301));
+        long elapsed = System.nanoTime() - start;
+        device.join();
+
+        // The run thread was parked, not executing the idle loop
+        assertTrue("woke too early: " + elapsed, elapsed >= 40000000L);
+        assertEquals(1, cpu.getXRegister());
+        assertEquals(4, cpu.getCpuState().stepCounter);
+    }
+
+    public void testRunWakesFromWaiForStopRequest() throws Exception {
+        loadWaitLoop();
+
+        Thread runner = Thread.currentThread();
+        Thread stopper = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ignored) {
+            }
+            conditions.requestStop();
+            runner.interrupt();
+        });
+
+        stopper.start();
+        assertEquals(Cpu.StopReason.STOP_REQUESTED, cpu.run(1000000, conditions));
+
+        // The run may end on the stop request before the interrupt arrives, which then
+        // lands on the join instead
+        boolean interrupted = false;
+        while (stopper.isAlive()) {
+            try {
+                stopper.join();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        assertTrue(Thread.interrupted() || interrupted);
+        assertTrue(cpu.isWaitingForInterrupt());
+    }
+
+    private Cpu.StopReason runTo(int address) throws MemoryAccessException {
+        conditions.addBreakpoint(address);
+        try {
+            return cpu.run(100000000L, conditions);
+        } finally {
+            conditions.removeBreakpoint(address);
+        }
+    }
+
+    public void testEventsRunWhenTheirCycleIsReached() throws Exception {
+        loadCountingLoop();
+        final long[] firedAt = {-1};
+        bus.getScheduler().schedule(1001, cycle -> firedAt[0] = cpu.getCycleCount());
+
+        assertEquals(Cpu.StopReason.BUDGET_EXHAUSTED, cpu.run(1000, conditions));
+        assertEquals(-1, firedAt[0]);
+
+        // Events run at the first instruction boundary on or after their cycle
+        assertEquals(Cpu.StopReason.BUDGET_EXHAUSTED, cpu.run(10, conditions));
+        assertTrue(firedAt[0] >= 1001 && firedAt[0] <= 1003);
+    }
+
+    public void testWaiSkipsToTheNextEventInTurboMode() throws Exception {
+        loadWaitLoop();
+        bus.getScheduler().schedule(5000000, cycle -> bus.assertIrq());
+
+        long start = System.nanoTime();
+        assertEquals(Cpu.StopReason.BREAKPOINT, runTo(0x0301));
+        long elapsed = System.nanoTime() - start;
+
+        // Five emulated seconds pass at once
+        assertTrue(cpu.getCycleCount() >= 5000000);
+        assertTrue("took " + elapsed, elapsed < 1000000000L);
+        assertEquals(1, cpu.getYRegister());
+    }
+
+    public void testEventsArePacedWhileHalted() throws Exception {
+        loadWaitLoop();
+        cpu.setTurboMode(false);
+        cpu.reset();
+
+        // 50 ms at 1 MHz
+        bus.getScheduler().schedule(50000, cycle -> bus.assertIrq());
+
+        long start = System.nanoTime();
+        assertEquals(Cpu.StopReason.BREAKPOINT, runTo(0x0301));
+        long elapsed = System.nanoTime() - start;
+
+        assertTrue("woke too early: " + elapsed, elapsed >= 40000000L);
+        assertTrue(cpu.getCycleCount() >= 50000);
+    }
+
+    public void testPostedEventWakesHaltedCpu() throws Exception {
+        loadWaitLoop();
+
+        Thread keyboard = new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException ignored) {
+            }
+            bus.getScheduler().post(cycle -> bus.assertIrq());
+        });
+
+        keyboard.start();
+        assertEquals(Cpu.StopReason.BREAKPOINT, runTo(0x0301));
+        keyboard.join();
+        assertEquals(1, cpu.getYRegister());
+    }
+
+    public void testResetKeepsEventsTheSameDistanceAway() throws Exception {
+        loadCountingLoop();
+        final long[] firedAt = {-1};
+
+        cpu.run(1000, conditions);
+        bus.getScheduler().schedule(cpu.getCycleCount() + 500, cycle -> firedAt[0] = cpu.getCycleCount());
+
+        cpu.reset();
+        assertEquals(500, bus.getScheduler().nextDeadline());
+        cpu.run(600, conditions);
+        assertTrue(firedAt[0] >= 500 && firedAt[0] < 510);
+    }
+}
@@ -1,5 +1,6 @@
 package com.github.codebje;
 
+import com.github.codebje.devices.Device;
 import com.github.codebje.devices.Memory;
 import com.github.codebje.exceptions.MemoryAccessException;
 import com.github.codebje.exceptions.MemoryRangeException;
@@ -346,6 +347,16 @@ public class CpuTest extends TestCase {
         assertFalse(cpu.getNegativeFlag());
     }
 
+    public void testProcessorStatusSurvivesCopy() {
+        for (int status = 0; status < 0x100; status++) {
+            cpu.setProcessorStatus(status);
+            assertEquals(status | 0x20, cpu.getProcessorStatus());
+
+            CpuState copy = new CpuState(cpu.getCpuState());
+            assertEquals(status | 0x20, copy.getStatusFlag());
+        }
+    }
+
     public void testIrq() throws Exception {
         // Ensure the IRQ disable flag is cleared
         cpu.clearIrqDisableFlag();
@@ -669,4 +680,196 @@ public class CpuTest extends TestCase {
         cpu.step();
         assertEquals(0x3E, cpu.getAccumulator());
     }
-}
\ No newline at end of file
+
+    public void testTurboModeStillCountsCycles() throws Exception {
+        cpu.setTurboMode(true);
+        assertTrue(cpu.isTurboMode());
+        assertEquals(0, cpu.getCycleCount());
+
+        bus.loadProgram(0xea,              // NOP           (2 cycles)
+                        0xa9, 0x01,        // LDA #$01      (2 cycles)
+                        0x8d, 0x00, 0x10); // STA $1000     (4 cycles)
+
+        cpu.step(3);
+        assertEquals(8, cpu.getCycleCount());
+
+        cpu.reset();
+        assertEquals(0, cpu.getCycleCount());
+    }
+
+    public void testClockFrequency() {
+        assertEquals(Cpu.DEFAULT_CLOCK_FREQUENCY_IN_HZ, cpu.getClockFrequencyInHz());
+
+        cpu.setClockFrequencyInHz(1789772.5);
+        assertEquals(1789772.5, cpu.getClockFrequencyInHz());
+
+        cpu.setClockFrequencyInHz(14000000);
+        assertEquals(14000000.0, cpu.getClockFrequencyInHz());
+
+        cpu.setClockPeriodInNs(500);
+        assertEquals(2000000.0, cpu.getClockFrequencyInHz());
+
+        try {
+            cpu.setClockFrequencyInHz(0);
+            fail("Expected a zero frequency to be rejected");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals(2000000.0, cpu.getClockFrequencyInHz());
+    }
+
+    public void testPaceDeadlineKeepsFractionsOfANanosecond() throws Exception {
+        FakeClock clock = new FakeClock();
+        cpu.setPacingClock(clock);
+        cpu.setClockFrequencyInHz(3579545.0);
+        CpuState state = cpu.getCpuState();
+        long start = state.cycleCounter;
+
+        // A cycle is 279.365... ns; the fractions accumulate rather than being dropped
+        state.cycleCounter++;
+        assertTrue(cpu.advancePaceDeadline());
+        assertEquals(279, cpu.getPaceDeadline());
+        state.cycleCounter++;
+        assertTrue(cpu.advancePaceDeadline());
+        assertEquals(558, cpu.getPaceDeadline());
+        state.cycleCounter++;
+        assertTrue(cpu.advancePaceDeadline());
+        assertEquals(838, cpu.getPaceDeadline());
+
+        // A second's worth of cycles, a few at a time, comes to exactly one second
+        while (state.cycleCounter - start < 3579545) {
+            state.cycleCounter += Math.min(7, 3579545 - (state.cycleCounter - start));
+            assertTrue(cpu.advancePaceDeadline());
+        }
+        assertEquals(1000000000L, cpu.getPaceDeadline());
+
+        // Long stretches are converted in chunks, without overflow
+        state.cycleCounter += 3579545L * 100;
+        assertTrue(cpu.advancePaceDeadline());
+        assertEquals(101000000000L, cpu.getPaceDeadline());
+
+        // A deadline far behind the wall clock restarts pacing from the present
+        clock.now = 102000000000L;
+        state.cycleCounter += 3;
+        assertFalse(cpu.advancePaceDeadline());
+        assertEquals(102000000000L, cpu.getPaceDeadline());
+    }
+
+    public void testSlicedPacingSleepsOncePerSlice() throws Exception {
+        assertFalse(cpu.isExactPacing());
+        bus.loadProgram(0x4c, 0x00, 0x02); // JMP $0200     (3 cycles)
+        FakeClock clock = new FakeClock();
+        cpu.setPacingClock(clock);
+
+        // 150 ms at 1 MHz. Slices are 16666 cycles, which the JMPs overrun to 16668.
+        while (cpu.getCycleCount() < 150000) {
+            cpu.step();
+        }
+
+        // Each slice ends in a single sleep until the clock catches up, not a spin
+        assertEquals(150000 / 16668, clock.parks);
+        assertTrue("read the clock " + clock.reads + " times", clock.reads <= 3 * clock.parks + 1);
+        assertTrue("ran too fast: " + clock.now, clock.now >= 150000000L - Cpu.PACING_SLICE_IN_NS);
+        assertTrue("ran too slow: " + clock.now, clock.now <= 150000000L);
+    }
+
+    public void testExactPacingStopsSpinningWhenInterrupted() throws Exception {
+        bus.loadProgram(0xea);             // NOP
+        FakeClock clock = new FakeClock();
+        cpu.setPacingClock(clock);
+        cpu.setExactPacing(true);
+
+        // The fake clock never moves, so only the interrupt ends the spin
+        Thread.currentThread().interrupt();
+        try {
+            cpu.step();
+        } finally {
+            assertTrue(Thread.interrupted());
+        }
+        assertEquals(0x0201, cpu.getProgramCounter());
+        assertEquals(0, clock.parks);
+    }
+
+    public void testSelfModifyingCodeInvalidatesDecodedInstruction() throws Exception {
+        bus.loadProgram(0xa9, 0x01,        // LDA #$01
+                        0x8d, 0x01, 0x02,  // STA $0201
+                        0x4c, 0x00, 0x02); // JMP $0200
+
+        // Run the loop twice so the LDA is decoded from the rewritten operand
+        cpu.step(6);
+        assertEquals(0x01, cpu.getAccumulator());
+        assertEquals(0x0200, cpu.getProgramCounter());
+
+        // Rewrite the operand of the pre-decoded LDA through the bus
+        bus.write(0x0201, 0x42);
+
+        cpu.step();
+        assertEquals(0x42, cpu.getAccumulator());
+    }
+
+    public void testFillInvalidatesDecodedInstruction() throws Exception {
+        bus.loadProgram(0xa9, 0x01);       // LDA #$01
+
+        cpu.step();
+        assertEquals(0x01, cpu.getAccumulator());
+
+        mem.fill(0xea);                    // NOP everywhere
+        cpu.setProgramCounter(0x0200);
+
+        cpu.step();
+        assertEquals(0x01, cpu.getAccumulator());
+        assertEquals(0x0201, cpu.getProgramCounter());
+    }
+
+    public void testStepDoesNotReadAheadOfTheInstruction() throws Exception {
+        final int[] cpuReads = new int[1];
+        Device io = new Device(0xe000, 0xe00f, "Test Device") {
+            public void write(int address, int data) {
+            }
+
+            public int read(int address, boolean cpuAccess) {
+                if (cpuAccess) {
+                    cpuReads[0]++;
+                }
+                return address == 0 ? 0xea : 0x00;   // NOP, then BRK
+            }
+
+            public void reset() {
+            }
+
+            public String toString() {
+                return getName();
+            }
+        };
+        bus.addDevice(io, 1);
+        cpu.setProgramCounter(0xe000);
+        assertEquals(0, cpuReads[0]);
+
+        cpu.step();
+        assertEquals(1, cpuReads[0]);
+
+        // Disassembling the next instruction does not count as a CPU access
+        assertEquals("BRK", cpu.disassembleNextOp());
+        assertEquals(1, cpuReads[0]);
+    }
+
+    /*
+     * A wall clock that only moves when the CPU sleeps on it.
+     */
+    private static class FakeClock implements Cpu.PacingClock {
+        long now = 0;
+        int reads = 0;
+        int parks = 0;
+
+        @Override
+        public long nanoTime() {
+            reads++;
+            return now;
+        }
+
+        @Override
+        public void parkNanos(long nanos) {
+            parks++;
+            now += nanos;
+        }
+    }
+}
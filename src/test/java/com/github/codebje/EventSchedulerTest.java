@@ -0,0 +1,110 @@
+package com.github.codebje;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class EventSchedulerTest extends TestCase {
+
+    private long           now;
+    private EventScheduler scheduler;
+    private List<String>   fired;
+
+    public void setUp() {
+        now = 0L;
+        scheduler = new EventScheduler(() -> now);
+        fired = new ArrayList<>();
+    }
+
+    private EventScheduler.Event record(String name) {
+        return cycle -> fired.add(name + "@" + cycle);
+    }
+
+    public void testEventsRunInCycleOrder() {
+        scheduler.schedule(300, record("c"));
+        scheduler.schedule(100, record("a"));
+        scheduler.schedule(200, record("b"));
+        assertEquals(100, scheduler.nextDeadline());
+
+        scheduler.runDue(99);
+        assertTrue(fired.isEmpty());
+
+        scheduler.runDue(250);
+        assertEquals("[a@100, b@200]", fired.toString());
+        assertEquals(300, scheduler.nextDeadline());
+
+        scheduler.runDue(300);
+        assertEquals(EventScheduler.NEVER, scheduler.nextDeadline());
+    }
+
+    public void testEventsOnTheSameCycleRunInScheduleOrder() {
+        scheduler.schedule(10, record("first"));
+        scheduler.schedule(10, record("second"));
+        scheduler.schedule(10, record("third"));
+
+        scheduler.runDue(10);
+        assertEquals("[first@10, second@10, third@10]", fired.toString());
+    }
+
+    public void testEventsCanRescheduleThemselves() {
+        scheduler.schedule(100, new EventScheduler.Event() {
+            @Override
+            public void fire(long cycle) {
+                fired.add("tick@" + cycle);
+                scheduler.schedule(cycle + 100, this);
+            }
+        });
+
+        scheduler.runDue(350);
+        assertEquals("[tick@100, tick@200, tick@300]", fired.toString());
+        assertEquals(400, scheduler.nextDeadline());
+    }
+
+    public void testScheduleInIsRelativeToTheClock() {
+        now = 1000;
+        scheduler.scheduleIn(50, record("a"));
+        assertEquals(1050, scheduler.nextDeadline());
+    }
+
+    public void testCancel() {
+        EventScheduler.Event a = record("a");
+        scheduler.schedule(10, a);
+        scheduler.schedule(20, record("b"));
+        scheduler.schedule(30, a);
+
+        scheduler.cancel(a);
+        assertEquals(20, scheduler.nextDeadline());
+        scheduler.runDue(100);
+        assertEquals("[b@20]", fired.toString());
+    }
+
+    public void testRebaseKeepsSpacing() {
+        scheduler.schedule(1000, record("a"));
+        scheduler.schedule(1500, record("b"));
+        scheduler.schedule(400, record("c"));
+
+        scheduler.rebase(900);
+        assertEquals(0, scheduler.nextDeadline());
+        scheduler.runDue(600);
+        assertEquals("[c@0, a@100, b@600]", fired.toString());
+    }
+
+    public void testPostedEventsRunAtTheCurrentCycle() throws Exception {
+        final int[] wakeups = {0};
+        scheduler.setWakeup(() -> wakeups[0]++);
+
+        Thread poster = new Thread(() -> scheduler.post(record("key")));
+        poster.start();
+        poster.join();
+
+        assertEquals(1, wakeups[0]);
+        assertTrue(scheduler.hasPosted());
+        assertEquals(EventScheduler.NEVER, scheduler.nextDeadline());
+
+        now = 4242;
+        scheduler.runPosted();
+        assertFalse(scheduler.hasPosted());
+        assertEquals("[key@4242]", fired.toString());
+    }
+}
@@ -0,0 +1,42 @@
+package com.github.codebje;
+
+import junit.framework.TestCase;
+
+import static com.github.codebje.FunctionalTestHarness.EXTENDED_OPCODES_TEST;
+import static com.github.codebje.FunctionalTestHarness.FUNCTIONAL_TEST;
+
+/**
+ * Runs Klaus Dormann's functional tests on every CPU variant.
+ * The throughput of each run is printed so a change in speed shows up in the build log.
+ */
+public class FunctionalTest extends TestCase {
+
+    private void assertPasses(String test, Cpu.CpuBehavior behavior) throws Exception {
+        FunctionalTestHarness.Result result = FunctionalTestHarness.run(test, behavior);
+        assertTrue(result.toString(), result.passed());
+        System.out.println(result);
+    }
+
+    public void testFunctionalTestOnEveryVariant() throws Exception {
+        for (Cpu.CpuBehavior behavior : Cpu.CpuBehavior.values()) {
+            assertPasses(FUNCTIONAL_TEST, behavior);
+        }
+    }
+
+    public void testExtendedOpcodesOnCmosVariants() throws Exception {
+        assertPasses(EXTENDED_OPCODES_TEST, Cpu.CpuBehavior.CMOS_6502);
+        assertPasses(EXTENDED_OPCODES_TEST, Cpu.CpuBehavior.CMOS_65816);
+    }
+
+    public void testFailureTrapReportsTheTestNumber() throws Exception {
+        // The NMOS 6502 has none of the extended opcodes, and fails the very first check
+        FunctionalTestHarness.Result result =
+                FunctionalTestHarness.run(EXTENDED_OPCODES_TEST, Cpu.CpuBehavior.NMOS_6502);
+
+        assertFalse(result.passed());
+        assertEquals(Cpu.StopReason.TRAP, result.reason);
+        assertEquals(0x0423, result.pc);
+        assertEquals(0x00, result.testCase);
+        assertTrue(result.toString(), result.toString().contains("failed test $00, trapped at $0423"));
+    }
+}
@@ -0,0 +1,210 @@
+package com.github.codebje;
+
+import com.github.codebje.devices.Memory;
+import com.github.codebje.exceptions.MemoryAccessException;
+import com.github.codebje.exceptions.MemoryRangeException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs Klaus Dormann's 6502 functional tests from samples/tests. Each binary is a 64K
+ * image loaded into flat memory and started at $0400. A test ends by jumping or branching
+ * to itself: at the success trap named in the listing if everything passed, or anywhere
+ * else if a test failed, with the number of the failing test in {@link #TEST_CASE}.
+ *
+ * Run as a program to benchmark every CPU variant; the JUnit checks are in
+ * {@link FunctionalTest}.
+ */
+final class FunctionalTestHarness {
+
+    static final File TEST_DIRECTORY = new File("samples/tests");
+
+    static final String FUNCTIONAL_TEST = "6502_functional_test";
+    static final String EXTENDED_OPCODES_TEST = "65C02_extended_opcodes_test";
+
+    /* Where the tests keep the number of the test in progress */
+    static final int TEST_CASE = 0x0200;
+
+    static final int START_ADDRESS = 0x0400;
+
+    /* Far more than either test needs to finish */
+    static final long MAX_CYCLES = 500_000_000L;
+
+    /* The success macro's expansion in a listing, eg "3399 : 4c9933 > jmp * ;test passed" */
+    private static final Pattern SUCCESS_TRAP =
+            Pattern.compile("^([0-9a-fA-F]{4}) : 4c[0-9a-fA-F]{4}\\s+>\\s+jmp \\*\\s+;test passed");
+
+    /* Any listing line that assembled to code or data */
+    private static final Pattern LISTED_ADDRESS = Pattern.compile("^([0-9a-fA-F]{4}) : ");
+
+    static final class Result {
+        final String test;
+        final Cpu.CpuBehavior behavior;
+        final Cpu.StopReason reason;
+        final int pc;
+        final int successTrap;
+        final int testCase;
+        final String source;
+        final long instructions;
+        final long cycles;
+        final long nanos;
+
+        Result(String test, Cpu.CpuBehavior behavior, Cpu.StopReason reason, int pc, int successTrap,
+               int testCase, String source, long instructions, long cycles, long nanos) {
+            this.test = test;
+            this.behavior = behavior;
+            this.reason = reason;
+            this.pc = pc;
+            this.successTrap = successTrap;
+            this.testCase = testCase;
+            this.source = source;
+            this.instructions = instructions;
+            this.cycles = cycles;
+            this.nanos = nanos;
+        }
+
+        boolean passed() {
+            return reason == Cpu.StopReason.TRAP && pc == successTrap;
+        }
+
+        double instructionsPerSecond() {
+            return instructions * 1e9 / nanos;
+        }
+
+        double emulatedMHz() {
+            return cycles * 1e3 / nanos;
+        }
+
+        String throughput() {
+            return String.format("%.1f Minst/s, %.1f MHz emulated", instructionsPerSecond() / 1e6, emulatedMHz());
+        }
+
+        @Override
+        public String toString() {
+            String name = test + " on " + behavior;
+            if (passed()) {
+                return String.format("%s: passed, %d instructions, %d cycles, %s",
+                                     name, instructions, cycles, throughput());
+            } else if (reason == Cpu.StopReason.TRAP) {
+                return String.format("%s: failed test $%02X, trapped at $%04X: %s",
+                                     name, testCase, pc, source == null ? "" : source.trim());
+            } else {
+                return String.format("%s: did not finish (%s) at $%04X during test $%02X",
+                                     name, reason, pc, testCase);
+            }
+        }
+    }
+
+    /**
+     * The source lines of a listing by the address they assembled to, and the address of
+     * its success trap.
+     */
+    private static final class Listing {
+        final Map<Integer, String> lines = new HashMap<>();
+        final int successTrap;
+
+        Listing(File file) throws IOException {
+            int trap = -1;
+
+            for (String line : Files.readAllLines(file.toPath(), StandardCharsets.ISO_8859_1)) {
+                Matcher success = SUCCESS_TRAP.matcher(line);
+                if (success.find()) {
+                    trap = Integer.parseInt(success.group(1), 16);
+                }
+                Matcher listed = LISTED_ADDRESS.matcher(line);
+                if (listed.find()) {
+                    lines.putIfAbsent(Integer.parseInt(listed.group(1), 16), line);
+                }
+            }
+
+            if (trap < 0) {
+                throw new IOException("No success trap in " + file);
+            }
+            successTrap = trap;
+        }
+    }
+
+    private FunctionalTestHarness() {
+    }
+
+    /**
+     * Run one of the functional tests to its success or failure trap.
+     *
+     * @param test     The name of the test, without the .bin or .lst extension.
+     * @param behavior The CPU variant to run it on.
+     */
+    static Result run(String test, Cpu.CpuBehavior behavior)
+            throws IOException, MemoryRangeException, MemoryAccessException {
+        Listing listing = new Listing(new File(TEST_DIRECTORY, test + ".lst"));
+
+        Cpu cpu = new Cpu(behavior);
+        Bus bus = new Bus(0x0000, 0xffff);
+        Memory memory = new Memory(0x0000, 0xffff);
+        bus.addCpu(cpu);
+        bus.addDevice(memory);
+        memory.loadFromFile(new File(TEST_DIRECTORY, test + ".bin"));
+
+        cpu.reset();
+        cpu.setTurboMode(true);
+        cpu.setProgramCounter(START_ADDRESS);
+
+        StopConditions conditions = new StopConditions();
+        // The extended opcodes test deliberately runs the 65C02's undefined opcodes, which
+        // execute as NOPs, so an illegal opcode is not a reason to stop
+        conditions.setHaltOnTrap(true);
+        conditions.setStopWhenBlocked(true);
+
+        long start = System.nanoTime();
+        Cpu.StopReason reason = cpu.run(MAX_CYCLES, conditions);
+        long nanos = System.nanoTime() - start;
+
+        int pc = cpu.getProgramCounter();
+        return new Result(test, behavior, reason, pc, listing.successTrap, bus.read(TEST_CASE, false),
+                          listing.lines.get(pc), cpu.getCpuState().stepCounter, cpu.getCycleCount(), nanos);
+    }
+
+    /**
+     * Benchmark each CPU variant on the tests it supports. Every combination is run once to
+     * warm up and then the given number of times, default 5, and the best throughput of
+     * those runs is reported.
+     */
+    public static void main(String[] args) throws Exception {
+        int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 5;
+
+        for (Cpu.CpuBehavior behavior : Cpu.CpuBehavior.values()) {
+            for (String test : testsFor(behavior)) {
+                Result warmup = run(test, behavior);
+                if (!warmup.passed()) {
+                    System.out.println(warmup);
+                    continue;
+                }
+
+                Result best = warmup;
+                for (int i = 0; i < iterations; i++) {
+                    Result result = run(test, behavior);
+                    if (result.nanos < best.nanos) {
+                        best = result;
+                    }
+                }
+                System.out.println(best);
+            }
+        }
+    }
+
+    /**
+     * @return The tests the given CPU variant is expected to pass.
+     */
+    static String[] testsFor(Cpu.CpuBehavior behavior) {
+        if (behavior == Cpu.CpuBehavior.CMOS_6502 || behavior == Cpu.CpuBehavior.CMOS_65816) {
+            return new String[] {FUNCTIONAL_TEST, EXTENDED_OPCODES_TEST};
+        }
+        return new String[] {FUNCTIONAL_TEST};
+    }
+}
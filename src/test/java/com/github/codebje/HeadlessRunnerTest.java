@@ -0,0 +1,215 @@
+package com.github.codebje;
+
+import junit.framework.TestCase;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.util.List;
+
+public class HeadlessRunnerTest extends TestCase {
+
+    private ByteArrayOutputStream out;
+    private ByteArrayOutputStream err;
+    private HeadlessRunner runner;
+    private File program;
+
+    public void setUp() throws IOException {
+        out = new ByteArrayOutputStream();
+        err = new ByteArrayOutputStream();
+        program = File.createTempFile("program", ".bin");
+    }
+
+    public void tearDown() {
+        program.delete();
+    }
+
+    /**
+     * Write a program to be loaded at the default address, $0300.
+     */
+    private String write(int... bytes) throws IOException {
+        byte[] data = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++) {
+            data[i] = (byte) bytes[i];
+        }
+        Files.write(program.toPath(), data);
+        return program.getPath();
+    }
+
+    private int runWith(String... args) {
+        runner = new HeadlessRunner(new PrintStream(out, true), new PrintStream(err, true));
+        return runner.run(args);
+    }
+
+    public void testStopsAtBrk() throws Exception {
+        String path = write(0xa9, 0x42,        // LDA #$42
+                            0x85, 0x10,        // STA $10
+                            0x00);             // BRK
+
+        assertEquals(HeadlessRunner.EXIT_STOPPED, runWith("--until-brk", "--dump-regs", path));
+        assertTrue(out.toString(), out.toString().startsWith("Stopped: BRK at $0304"));
+        assertTrue(out.toString(), out.toString().contains("A:42"));
+    }
+
+    public void testStopsAtSelfJump() throws Exception {
+        String path = write(0xe8,              // INX
+                            0x4c, 0x01, 0x03); // JMP $0301
+
+        assertEquals(HeadlessRunner.EXIT_STOPPED, runWith("--until-trap", path));
+        assertTrue(out.toString(), out.toString().startsWith("Stopped: trapped at $0301"));
+        assertEquals(1, runner.getMachine().getCpu().getXRegister());
+    }
+
+    public void testStopsAtProgramCounter() throws Exception {
+        String path = write(0xe8,              // INX
+                            0xd0, 0xfd,        // BNE $0300
+                            0xc8,              // INY
+                            0x4c, 0x00, 0x03); // JMP $0300
+
+        assertEquals(HeadlessRunner.EXIT_STOPPED, runWith("--until-pc", "$0303", path));
+        assertEquals(0x0303, runner.getMachine().getCpu().getProgramCounter());
+        assertEquals(0, runner.getMachine().getCpu().getYRegister());
+    }
+
+    public void testStopsWhenMemoryMatches() throws Exception {
+        String path = write(0xe6, 0x10,        // INC $10
+                            0x4c, 0x00, 0x03); // JMP $0300
+
+        assertEquals(HeadlessRunner.EXIT_STOPPED, runWith("--until-mem", "0x10=5", "--dump-mem", "$10:$12", path));
+        assertTrue(out.toString(), out.toString().contains("0010: 05 00 00"));
+        assertEquals(5 * 2 - 1, runner.getMachine().getCpu().getCpuState().stepCounter);
+    }
+
+    public void testBudgetExhaustedBeforeStopCondition() throws Exception {
+        String path = write(0x4c, 0x00, 0x03); // JMP $0300
+
+        assertEquals(HeadlessRunner.EXIT_BUDGET_EXHAUSTED, runWith("--until-brk", "--cycles", "3000", path));
+        assertEquals(3000, runner.getMachine().getCpu().getCycleCount());
+    }
+
+    public void testBudgetIsTheGoalWithoutAStopCondition() throws Exception {
+        String path = write(0x4c, 0x00, 0x03); // JMP $0300
+
+        assertEquals(HeadlessRunner.EXIT_STOPPED, runWith("--cycles", "3000", path));
+        assertTrue(out.toString(), out.toString().startsWith("Stopped: budget exhausted after 3000 cycles"));
+    }
+
+    public void testInstructionBudgetIsExact() throws Exception {
+        String path = write(0xe8,              // INX
+                            0x4c, 0x00, 0x03); // JMP $0300
+
+        assertEquals(HeadlessRunner.EXIT_STOPPED, runWith("--instructions", "1001", path));
+        assertEquals(1001, runner.getMachine().getCpu().getCpuState().stepCounter);
+        assertEquals(501 & 0xff, runner.getMachine().getCpu().getXRegister());
+    }
+
+    public void testHaltedCpuEndsTheRun() throws Exception {
+        assertEquals(HeadlessRunner.EXIT_HALTED, runWith(write(0xdb)));         // STP
+        assertTrue(out.toString(), out.toString().startsWith("Stopped: stopped by STP"));
+
+        out.reset();
+        assertEquals(HeadlessRunner.EXIT_HALTED, runWith(write(0x78, 0xcb)));   // SEI, WAI
+        assertTrue(out.toString(), out.toString().startsWith("Stopped: waiting for an interrupt"));
+    }
+
+    public void testIllegalOpcode() throws Exception {
+        String path = write(0xea, 0x02);       // NOP, then an opcode the 6502 lacks
+
+        assertEquals(HeadlessRunner.EXIT_ILLEGAL_OPCODE, runWith("--cpu", "6502", path));
+        assertTrue(out.toString(), out.toString().startsWith("Stopped: illegal opcode $02 at $0301"));
+    }
+
+    public void testStartAddress() throws Exception {
+        String path = write(0xe8,              // INX
+                            0xc8,              // INY
+                            0x00);             // BRK
+
+        assertEquals(HeadlessRunner.EXIT_STOPPED,
+                     runWith("--load", "$1000", "--start", "$1001", "--until-brk", path));
+        assertEquals(0, runner.getMachine().getCpu().getXRegister());
+        assertEquals(1, runner.getMachine().getCpu().getYRegister());
+    }
+
+    public void testFramebufferDump() throws Exception {
+        File image = File.createTempFile("framebuffer", ".png");
+        try {
+            String path = write(0x00);
+            assertEquals(HeadlessRunner.EXIT_STOPPED,
+                         runWith("--until-brk", "--dump-framebuffer", image.getPath(), path));
+
+            BufferedImage dumped = ImageIO.read(image);
+            assertEquals(256, dumped.getWidth());
+            assertEquals(240, dumped.getHeight());
+        } finally {
+            image.delete();
+        }
+    }
+
+    public void testStopsAtWatchpoint() throws Exception {
+        String path = write(0xe6, 0x10,        // INC $10
+                            0xa5, 0x11,        // LDA $11
+                            0x4c, 0x00, 0x03); // JMP $0300
+
+        assertEquals(HeadlessRunner.EXIT_STOPPED, runWith("--watch-write", "$10", "--dump-regs", path));
+        assertTrue(out.toString(), out.toString().startsWith("Stopped: write watchpoint at $0010"));
+
+        out.reset();
+        assertEquals(HeadlessRunner.EXIT_STOPPED, runWith("--watch-read", "$08:$17", path));
+        assertTrue(out.toString(), out.toString().startsWith("Stopped: read watchpoint at $0010"));
+
+        out.reset();
+        assertEquals(HeadlessRunner.EXIT_STOPPED, runWith("--watch-exec", "0x0304", path));
+        assertTrue(out.toString(), out.toString().startsWith("Stopped: execute watchpoint at $0304"));
+
+        assertEquals(HeadlessRunner.EXIT_USAGE, runWith("--watch-read", "$20:$10", path));
+    }
+
+    public void testProfile() throws Exception {
+        File profile = File.createTempFile("profile", ".csv");
+        try {
+            String path = write(0xe6, 0x10,        // INC $10
+                                0x00);             // BRK
+
+            assertEquals(HeadlessRunner.EXIT_STOPPED, runWith("--until-brk", "--profile", profile.getPath(), path));
+            List<String> lines = Files.readAllLines(profile.toPath());
+            assertEquals("address,reads,writes,executes", lines.get(0));
+            assertTrue(lines.toString(), lines.contains("0010,1,1,0"));
+            assertTrue(lines.toString(), lines.contains("0300,1,0,1"));
+        } finally {
+            profile.delete();
+        }
+    }
+
+    public void testWritesToRomAreOpenBusUnlessStrict() throws Exception {
+        File rom = File.createTempFile("rom", ".bin");
+        try {
+            Files.write(rom.toPath(), new byte[4096]);
+            String path = write(0x8d, 0x00, 0xf0,  // STA $F000
+                                0x00);             // BRK
+
+            assertEquals(HeadlessRunner.EXIT_STOPPED, runWith("--rom", rom.getPath(), "--until-brk", path));
+            assertTrue(out.toString(), out.toString().contains("Open bus accesses: 1"));
+
+            assertEquals(HeadlessRunner.EXIT_IO_ERROR,
+                         runWith("--rom", rom.getPath(), "--strict-bus", "--until-brk", path));
+            assertTrue(err.toString(), err.toString().startsWith("Memory access error"));
+        } finally {
+            rom.delete();
+        }
+    }
+
+    public void testBadArguments() throws Exception {
+        assertEquals(HeadlessRunner.EXIT_USAGE, runWith());
+        assertEquals(HeadlessRunner.EXIT_USAGE, runWith("--cycles", "lots", write(0x00)));
+        assertEquals(HeadlessRunner.EXIT_USAGE, runWith("--cpu", "Z80", write(0x00)));
+        assertEquals(HeadlessRunner.EXIT_USAGE, runWith("--until-pc"));
+        assertTrue(err.toString().contains("Usage:"));
+
+        assertEquals(HeadlessRunner.EXIT_IO_ERROR, runWith("no-such-program.bin"));
+        assertEquals(HeadlessRunner.EXIT_IO_ERROR, runWith("--rom", program.getPath()));
+    }
+}
@@ -0,0 +1,166 @@
+package com.github.codebje;
+
+import com.github.codebje.devices.Device;
+import com.github.codebje.devices.Memory;
+import com.github.codebje.exceptions.MemoryAccessException;
+import com.github.codebje.exceptions.MemoryRangeException;
+import junit.framework.TestCase;
+
+public class IdleLoopDetectorTest extends TestCase {
+
+    private Cpu            cpu;
+    private Bus            bus;
+    private StopConditions conditions;
+    private StatusRegister status;
+
+    /**
+     * A register that reads 0x00 until a given cycle, and 0x80 from then on.
+     */
+    private class StatusRegister extends Device {
+        long readyAt = Long.MAX_VALUE;
+        boolean predictable = true;
+
+        StatusRegister() throws MemoryRangeException {
+            super(0x9000, 0x9000, "Status");
+        }
+
+        @Override
+        public void write(int address, int data) {
+        }
+
+        @Override
+        public int read(int address, boolean cpuAccess) {
+            return cpu.getCycleCount() >= readyAt ? 0x80 : 0x00;
+        }
+
+        @Override
+        public long cyclesUntilChange(int address) {
+            if (!predictable) {
+                return UNPREDICTABLE;
+            }
+            return cpu.getCycleCount() >= readyAt ? Long.MAX_VALUE : readyAt - cpu.getCycleCount();
+        }
+
+        @Override
+        public void reset() {
+        }
+
+        @Override
+        public String toString() {
+            return "Status";
+        }
+    }
+
+    public void setUp() throws MemoryRangeException, MemoryAccessException {
+        this.cpu = new Cpu(Cpu.CpuBehavior.CMOS_6502);
+        this.bus = new Bus(0x0000, 0xffff);
+        this.status = new StatusRegister();
+        bus.addCpu(cpu);
+        bus.addDevice(new Memory(0x0000, 0x8fff));
+        bus.addDevice(status);
+        bus.addDevice(new Memory(0x9001, 0xffff));
+
+        // All test programs start at 0x0200;
+        bus.write(0xfffc, 0x00);
+        bus.write(0xfffd, 0x02);
+
+        cpu.reset();
+        cpu.setTurboMode(true);
+        conditions = new StopConditions();
+    }
+
+    private void loadPollingLoop() throws MemoryAccessException {
+        bus.loadProgram(0xad, 0x00, 0x90,  // LDA $9000
+                        0x29, 0x80,        // AND #$80
+                        0xf0, 0xf9,        // BEQ $0200
+                        0xea);             // NOP
+    }
+
+    private Cpu.StopReason runTo(int address) throws MemoryAccessException {
+        conditions.addBreakpoint(address);
+        try {
+            return cpu.run(10000000L, conditions);
+        } finally {
+            conditions.removeBreakpoint(address);
+        }
+    }
+
+    public void testPollingLoopIsSkippedWithoutChangingTiming() throws Exception {
+        loadPollingLoop();
+        status.readyAt = 1000003;
+
+        conditions.setIdleLoopsSkipped(false);
+        assertEquals(Cpu.StopReason.BREAKPOINT, runTo(0x0207));
+        long expectedCycles = cpu.getCycleCount();
+        long expectedSteps = cpu.getCpuState().stepCounter;
+        assertEquals(0, cpu.getSkippedIdleCycles());
+
+        cpu.reset();
+        conditions.setIdleLoopsSkipped(true);
+        assertEquals(Cpu.StopReason.BREAKPOINT, runTo(0x0207));
+        assertEquals(expectedCycles, cpu.getCycleCount());
+        assertEquals(expectedSteps, cpu.getCpuState().stepCounter);
+        assertEquals(0x80, cpu.getAccumulator());
+
+        // All but the last few iterations were skipped
+        assertTrue(cpu.getSkippedIdleCycles() > expectedCycles - 100);
+        assertTrue(cpu.getSkippedIdleInstructions() > expectedSteps - 50);
+    }
+
+    public void testUnpredictableDeviceIsNotSkipped() throws Exception {
+        loadPollingLoop();
+        status.readyAt = 10000;
+        status.predictable = false;
+
+        assertEquals(Cpu.StopReason.BREAKPOINT, runTo(0x0207));
+        assertEquals(0, cpu.getSkippedIdleCycles());
+    }
+
+    public void testLoopOnMemoryIsNotSkipped() throws Exception {
+        bus.loadProgram(0xa5, 0x10,        // LDA $10
+                        0xf0, 0xfc);       // BEQ $0200
+
+        assertEquals(Cpu.StopReason.BUDGET_EXHAUSTED, cpu.run(10000, conditions));
+        assertEquals(0, cpu.getSkippedIdleCycles());
+    }
+
+    public void testLoopOnMemoryIsSkippedUpToTheNextEvent() throws Exception {
+        bus.loadProgram(0xa5, 0x10,        // LDA $10
+                        0xf0, 0xfc,        // BEQ $0200
+                        0xea);             // NOP
+        bus.getScheduler().schedule(100000, cycle -> {
+            try {
+                bus.write(0x10, 0x01);
+            } catch (MemoryAccessException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        assertEquals(Cpu.StopReason.BREAKPOINT, runTo(0x0204));
+        assertTrue(cpu.getCycleCount() >= 100000 && cpu.getCycleCount() < 100010);
+        assertTrue(cpu.getSkippedIdleCycles() > 100000 - 100);
+    }
+
+    public void testLoopWithSideEffectsIsNotSkipped() throws Exception {
+        status.readyAt = 100000;
+        bus.loadProgram(0xe8,              // INX
+                        0x2c, 0x00, 0x90,  // BIT $9000
+                        0x10, 0xfa,        // BPL $0200
+                        0xea);             // NOP
+
+        assertEquals(Cpu.StopReason.BREAKPOINT, runTo(0x0206));
+        assertEquals(0, cpu.getSkippedIdleCycles());
+    }
+
+    public void testSkippedCyclesAreCountedSinceReset() throws Exception {
+        loadPollingLoop();
+        status.readyAt = 100000;
+
+        assertEquals(Cpu.StopReason.BREAKPOINT, runTo(0x0207));
+        assertTrue(cpu.getSkippedIdleCycles() > 0);
+
+        cpu.reset();
+        assertEquals(0, cpu.getSkippedIdleCycles());
+        assertEquals(0, cpu.getSkippedIdleInstructions());
+    }
+}
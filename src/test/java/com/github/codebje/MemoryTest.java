@@ -0,0 +1,132 @@
+package com.github.codebje;
+
+import com.github.codebje.devices.Memory;
+import com.github.codebje.exceptions.MemoryAccessException;
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+public class MemoryTest extends TestCase {
+
+    private Memory heap;
+    private Memory offHeap;
+
+    public void setUp() throws Exception {
+        heap = new Memory(0x1000, 0x1fff);
+        offHeap = new Memory(0x1000, 0x1fff, false, true);
+    }
+
+    public void testReadAndWriteHoldBytes() throws Exception {
+        for (Memory memory : new Memory[] {heap, offHeap}) {
+            memory.write(0x0000, 0x1ff);
+            memory.write(0x0fff, 0x80);
+            assertEquals(0xff, memory.read(0x0000, false));
+            assertEquals(0x80, memory.read(0x0fff, false));
+            assertEquals(0x00, memory.read(0x0001, false));
+        }
+        assertNotNull(heap.getContents());
+        assertNull(offHeap.getContents());
+    }
+
+    public void testBlocks() throws Exception {
+        byte[] block = {1, 2, 3, (byte) 0xfe};
+
+        for (Memory memory : new Memory[] {heap, offHeap}) {
+            memory.writeBlock(0x0100, block, 1, 3);
+            assertEquals(0x02, memory.read(0x0100, false));
+            assertEquals(0xfe, memory.read(0x0102, false));
+
+            byte[] copy = new byte[5];
+            memory.readBlock(0x00ff, copy, 0, 5);
+            assertTrue(Arrays.toString(copy), Arrays.equals(new byte[] {0, 2, 3, (byte) 0xfe, 0}, copy));
+        }
+    }
+
+    public void testBlocksMustFit() throws Exception {
+        try {
+            heap.readBlock(0x0ffe, new byte[4], 0, 4);
+            fail("Read past the end of memory");
+        } catch (MemoryAccessException ex) {
+            // success
+        }
+        try {
+            offHeap.writeBlock(-1, new byte[4], 0, 4);
+            fail("Wrote before the start of memory");
+        } catch (MemoryAccessException ex) {
+            // success
+        }
+    }
+
+    public void testReadOnlyMemoryRefusesBlockWrites() throws Exception {
+        Memory rom = new Memory(0xf000, 0xffff, true);
+        try {
+            rom.writeBlock(0, new byte[1], 0, 1);
+            fail("Wrote to read-only memory");
+        } catch (MemoryAccessException ex) {
+            // success
+        }
+    }
+
+    public void testCopyTo() throws Exception {
+        heap.write(0x0010, 0x11);
+        heap.write(0x0011, 0x22);
+        heap.copyTo(0x0010, offHeap, 0x0800, 2);
+        assertEquals(0x11, offHeap.read(0x0800, false));
+        assertEquals(0x22, offHeap.read(0x0801, false));
+
+        offHeap.copyTo(0x0800, heap, 0x0fff, 1);
+        assertEquals(0x11, heap.read(0x0fff, false));
+    }
+
+    public void testFill() throws Exception {
+        for (Memory memory : new Memory[] {heap, offHeap}) {
+            memory.fill(0xea);
+            assertEquals(0xea, memory.read(0x0000, false));
+            assertEquals(0xea, memory.read(0x0fff, false));
+        }
+    }
+
+    public void testLoadFromFile() throws Exception {
+        File file = File.createTempFile("memory", ".bin");
+        try {
+            Files.write(file.toPath(), new byte[] {0x4c, 0x00, (byte) 0xf0});
+            for (Memory memory : new Memory[] {heap, offHeap}) {
+                memory.loadFromFile(file);
+                assertEquals(0x4c, memory.read(0x0000, false));
+                assertEquals(0xf0, memory.read(0x0002, false));
+                assertEquals(0x00, memory.read(0x0003, false));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testOffHeapMemoryOnTheBus() throws Exception {
+        Bus bus = new Bus(0x0000, 0xffff);
+        bus.addDevice(offHeap);
+
+        bus.write(0x1234, 0x5a);
+        assertEquals(0x5a, bus.read(0x1234, false));
+        assertEquals(0x5a, offHeap.read(0x0234, false));
+    }
+
+    public void testDirectWritesDiscardDecodedInstructions() throws Exception {
+        Bus bus = new Bus(0x0000, 0xffff);
+        Cpu cpu = new Cpu();
+        bus.addCpu(cpu);
+        bus.addDevice(heap);
+
+        heap.write(0x0000, 0xe8);    // INX
+        cpu.setProgramCounter(0x1000);
+        cpu.step();
+        assertEquals(1, cpu.getXRegister());
+
+        heap.write(0x0000, 0xc8);    // INY
+        cpu.setProgramCounter(0x1000);
+        cpu.step();
+        assertEquals(1, cpu.getXRegister());
+        assertEquals(1, cpu.getYRegister());
+    }
+}